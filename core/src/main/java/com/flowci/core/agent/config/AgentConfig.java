@@ -48,6 +48,9 @@ public class AgentConfig {
     @Autowired
     private RabbitQueueOperation callbackQueueManager;
 
+    @Autowired
+    private ConfigProperties.Agent agentProperties;
+
     @Bean("baseSettings")
     public Settings baseSettings() {
         Settings.Zookeeper zk = new Settings.Zookeeper();
@@ -72,6 +75,26 @@ public class AgentConfig {
         return ThreadHelper.createTaskExecutor(10, 1, 10, "agent-host");
     }
 
+    @Bean("agentStartExecutor")
+    public ThreadPoolTaskExecutor agentStartExecutor() {
+        return ThreadHelper.createTaskExecutor(20, 20, 1000, "agent-start-");
+    }
+
+    @Bean("agentMaintainExecutor")
+    public ThreadPoolTaskExecutor agentMaintainExecutor() {
+        return ThreadHelper.createTaskExecutor(20, 20, 100, "agent-maintain-");
+    }
+
+    /**
+     * Generate rsa key pairs for RsaKeyManager in background
+     */
+    @Bean("rsaKeyExecutor")
+    public ThreadPoolTaskExecutor rsaKeyExecutor() {
+        int poolSize = Math.max(1, agentProperties.getRsaPoolThreads());
+        int queueSize = agentProperties.getRsaPoolSize();
+        return ThreadHelper.createTaskExecutor(poolSize, poolSize, queueSize, "rsa-key-");
+    }
+
     private String getZkHost() {
         return env.getProperty(App.ZookeeperHost, zkProperties.getHost());
     }
@@ -75,6 +75,11 @@ public abstract class AgentHost extends Mongoable {
      */
     private int maxSize = 10;
 
+    /**
+     * Num of idle or stopped agents kept as standby, which can be resumed without creating
+     */
+    private int minIdle = 0;
+
     /**
      * Stop agent container if over the idle seconds
      */
@@ -37,4 +37,9 @@ public class AgentInit {
     private Common.OS os;
 
     private Agent.Resource resource = new Agent.Resource();
+
+    /**
+     * Number of jobs can be run concurrently, single slot if not defined
+     */
+    private Integer slots;
 }
@@ -47,6 +47,8 @@ public class CreateOrUpdateSshAgentHost {
 
     private int maxSize = 10;
 
+    private int minIdle = 0;
+
     private int maxIdleSeconds = 3600;
 
     private int maxOfflineSeconds = 600;
@@ -61,6 +63,7 @@ public class CreateOrUpdateSshAgentHost {
             host.setIp(ip);
             host.setTags(tags);
             host.setMaxSize(maxSize);
+            host.setMinIdle(minIdle);
             host.setMaxIdleSeconds(maxIdleSeconds);
             host.setMaxOfflineSeconds(maxOfflineSeconds);
             return host;
@@ -71,6 +74,7 @@ public class CreateOrUpdateSshAgentHost {
             host.setId(id);
             host.setName(name);
             host.setMaxSize(maxSize);
+            host.setMinIdle(minIdle);
             host.setMaxIdleSeconds(maxIdleSeconds);
             host.setMaxOfflineSeconds(maxOfflineSeconds);
             return host;
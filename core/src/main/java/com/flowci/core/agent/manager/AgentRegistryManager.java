@@ -0,0 +1,301 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.agent.manager;
+
+import com.flowci.domain.Agent;
+import com.flowci.domain.Agent.Status;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * In-process registry of agents, status is kept consistent with zookeeper node events,
+ * idle agents are indexed by tag to pick an agent without querying database.
+ * <p>
+ * Agent instances are copied in and out, so callers can modify the returned agent safely.
+ * <p>
+ * The occupied slots are mirrored from slot nodes in zookeeper, a slot is claimed in the registry first
+ * and then confirmed by creating the slot node.
+ */
+@Component
+public class AgentRegistryManager {
+
+    // key as agent id
+    private final Map<String, Agent> agents = new HashMap<>();
+
+    // key as agent id, value as data version of agent zookeeper node
+    private final Map<String, Integer> versions = new HashMap<>();
+
+    // idle agent ids in the order of becoming idle
+    private final Set<String> idle = new LinkedHashSet<>();
+
+    // key as tag, value as idle agent ids
+    private final Map<String, Set<String>> idleByTag = new HashMap<>();
+
+    /**
+     * Add or update agent, and re-index it by status and tags
+     */
+    public synchronized void put(Agent agent) {
+        unindex(agent.getId());
+
+        Agent copied = copy(agent);
+        Agent existing = agents.get(copied.getId());
+        if (existing != null) {
+            copied.setJobSlots(existing.getJobSlots());
+            copied.setJobReservations(existing.getJobReservations());
+        }
+
+        agents.put(copied.getId(), copied);
+
+        if (copied.getStatus() == Status.IDLE) {
+            index(copied);
+        }
+    }
+
+    /**
+     * Update agent status from zookeeper node data, ignored if version is older than current
+     *
+     * @return false if agent not in registry or version is outdated
+     */
+    public synchronized boolean setStatus(String id, Status status, int version) {
+        Agent agent = agents.get(id);
+        if (agent == null) {
+            return false;
+        }
+
+        Integer current = versions.get(id);
+        if (current != null && version < current) {
+            return false;
+        }
+
+        versions.put(id, version);
+
+        if (agent.getStatus() == status) {
+            return true;
+        }
+
+        unindex(id);
+        agent.setStatus(status);
+
+        if (status == Status.IDLE) {
+            index(agent);
+        }
+        return true;
+    }
+
+    /**
+     * Set data version of agent zookeeper node, null if node not existed
+     */
+    public synchronized void setVersion(String id, Integer version) {
+        if (version == null) {
+            versions.remove(id);
+            return;
+        }
+        versions.put(id, version);
+    }
+
+    public synchronized Optional<Integer> getVersion(String id) {
+        return Optional.ofNullable(versions.get(id));
+    }
+
+    /**
+     * Claim the preferred slot if it's free, otherwise the lowest free slot of idle agent for the job,
+     * a job can occupy one slot of an agent only
+     *
+     * @param reserved  resource requested by the job, which is reserved until slot released
+     * @param preferred optional, slot index to claim first
+     * @return slot index, or empty if agent not idle or no free slot
+     */
+    public synchronized Optional<Integer> claimSlot(String id, String jobId, Agent.Reservation reserved,
+                                                    Integer preferred) {
+        Agent agent = agents.get(id);
+        if (agent == null || agent.getStatus() != Status.IDLE || !agent.hasFreeSlot()) {
+            return Optional.empty();
+        }
+
+        Map<String, Integer> jobSlots = agent.getJobSlots();
+        if (jobSlots.containsKey(jobId)) {
+            return Optional.empty();
+        }
+
+        Collection<Integer> occupied = jobSlots.values();
+        int slot = 0;
+        while (occupied.contains(slot)) {
+            slot++;
+        }
+
+        if (preferred != null && preferred < agent.getSlots() && !occupied.contains(preferred)) {
+            slot = preferred;
+        }
+
+        jobSlots.put(jobId, slot);
+        agent.getJobReservations().put(jobId, reserved);
+        return Optional.of(slot);
+    }
+
+    /**
+     * Mark slot as occupied by the job, which is claimed by this or other server
+     */
+    public synchronized void occupySlot(String id, String jobId, int slot, Agent.Reservation reserved) {
+        Agent agent = agents.get(id);
+        if (agent != null) {
+            agent.getJobSlots().put(jobId, slot);
+            agent.getJobReservations().put(jobId, reserved);
+        }
+    }
+
+    /**
+     * Release slot occupied by the job
+     *
+     * @return false if job not occupy slot of agent
+     */
+    public synchronized boolean releaseSlot(String id, String jobId) {
+        Agent agent = agents.get(id);
+        if (agent == null) {
+            return false;
+        }
+        agent.getJobReservations().remove(jobId);
+        return agent.getJobSlots().remove(jobId) != null;
+    }
+
+    public synchronized void clearSlots(String id) {
+        Agent agent = agents.get(id);
+        if (agent != null) {
+            agent.getJobSlots().clear();
+            agent.getJobReservations().clear();
+        }
+    }
+
+    public synchronized void remove(String id) {
+        unindex(id);
+        agents.remove(id);
+        versions.remove(id);
+    }
+
+    public synchronized Optional<Agent> get(String id) {
+        Agent agent = agents.get(id);
+        if (agent == null) {
+            return Optional.empty();
+        }
+        return Optional.of(copy(agent));
+    }
+
+    public synchronized Optional<Status> getStatus(String id) {
+        Agent agent = agents.get(id);
+        if (agent == null) {
+            return Optional.empty();
+        }
+        return Optional.of(agent.getStatus());
+    }
+
+    /**
+     * Find agents by status and tags, agent matched if it has any of tags
+     *
+     * @param tags optional, all agents in status will be returned if empty
+     */
+    public synchronized List<Agent> find(Status status, Set<String> tags) {
+        boolean anyTag = tags == null || tags.isEmpty();
+
+        if (status == Status.IDLE) {
+            Set<String> ids = anyTag ? idle : new LinkedHashSet<>();
+
+            if (!anyTag) {
+                for (String tag : tags) {
+                    ids.addAll(idleByTag.getOrDefault(tag, Collections.emptySet()));
+                }
+            }
+
+            List<Agent> list = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                list.add(copy(agents.get(id)));
+            }
+            return list;
+        }
+
+        List<Agent> list = new LinkedList<>();
+        for (Agent agent : agents.values()) {
+            if (agent.getStatus() != status) {
+                continue;
+            }
+
+            if (anyTag || !Collections.disjoint(tags, tagsOf(agent))) {
+                list.add(copy(agent));
+            }
+        }
+        return list;
+    }
+
+    public synchronized int size() {
+        return agents.size();
+    }
+
+    public synchronized void clear() {
+        agents.clear();
+        versions.clear();
+        idle.clear();
+        idleByTag.clear();
+    }
+
+    private void index(Agent agent) {
+        idle.add(agent.getId());
+
+        for (String tag : tagsOf(agent)) {
+            idleByTag.computeIfAbsent(tag, k -> new LinkedHashSet<>()).add(agent.getId());
+        }
+    }
+
+    private void unindex(String id) {
+        Agent agent = agents.get(id);
+        if (agent == null || !idle.remove(id)) {
+            return;
+        }
+
+        for (String tag : tagsOf(agent)) {
+            Set<String> ids = idleByTag.get(tag);
+            if (ids == null) {
+                continue;
+            }
+
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                idleByTag.remove(tag);
+            }
+        }
+    }
+
+    private static Set<String> tagsOf(Agent agent) {
+        return agent.getTags() == null ? Collections.emptySet() : agent.getTags();
+    }
+
+    private static Agent copy(Agent source) {
+        Agent agent = new Agent(source.getName(), new HashSet<>(tagsOf(source)));
+        agent.setId(source.getId());
+        agent.setToken(source.getToken());
+        agent.setUrl(source.getUrl());
+        agent.setHostId(source.getHostId());
+        agent.setOs(source.getOs());
+        agent.setResource(source.getResource());
+        agent.setStatus(source.getStatus());
+        agent.setStatusUpdatedAt(source.getStatusUpdatedAt());
+        agent.setJobId(source.getJobId());
+        agent.setSlots(source.getSlots());
+        agent.setJobSlots(new HashMap<>(source.getJobSlots()));
+        agent.setJobReservations(new HashMap<>(source.getJobReservations()));
+        agent.setRsa(source.getRsa());
+        return agent;
+    }
+}
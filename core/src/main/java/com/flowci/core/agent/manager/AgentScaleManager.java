@@ -0,0 +1,211 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.agent.manager;
+
+import com.flowci.core.agent.domain.AgentHost;
+import com.flowci.core.agent.event.AgentStatusEvent;
+import com.flowci.domain.Agent;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Plan num of agents to start on hosts for the jobs waiting for agent, and track the starting agents,
+ * the starting agent is counted as available until it's online, start failed or timeout,
+ * so the agents will not be started more than needed.
+ */
+@Component
+public class AgentScaleManager {
+
+    private static final long StartTimeout = 180 * 1000; // 3 minutes
+
+    // key as start id
+    private final Map<String, Starting> starting = new HashMap<>();
+
+    @EventListener
+    public void onAgentStatusChange(AgentStatusEvent event) {
+        Agent agent = event.getAgent();
+
+        if (agent.isIdle() || agent.isBusy()) {
+            finish(agent.getId());
+        }
+    }
+
+    /**
+     * Add starting agent of host
+     *
+     * @param agentId null if agent will be created
+     * @return start id
+     */
+    public synchronized String start(String hostId, String agentId) {
+        String id = UUID.randomUUID().toString();
+        starting.put(id, new Starting(hostId, agentId, System.currentTimeMillis()));
+        return id;
+    }
+
+    /**
+     * Set agent id of the starting which creates agent
+     */
+    public synchronized void setAgent(String startId, String agentId) {
+        Starting s = starting.get(startId);
+        if (s != null) {
+            s.agentId = agentId;
+        }
+    }
+
+    /**
+     * Remove starting, ex: start failed
+     */
+    public synchronized void remove(String startId) {
+        starting.remove(startId);
+    }
+
+    /**
+     * Remove starting of agent since it's online
+     */
+    public synchronized void finish(String agentId) {
+        starting.values().removeIf(s -> agentId.equals(s.agentId));
+    }
+
+    public synchronized boolean isStarting(String agentId) {
+        expire();
+
+        for (Starting s : starting.values()) {
+            if (agentId.equals(s.agentId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Num of starting agents of host
+     *
+     * @param creating count the agents which are not created yet only
+     */
+    public synchronized int size(String hostId, boolean creating) {
+        expire();
+
+        int size = 0;
+        for (Starting s : starting.values()) {
+            if (!s.hostId.equals(hostId)) {
+                continue;
+            }
+
+            if (!creating || s.agentId == null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Plan num of agents to start on each host, the waiting job is taken by the available agent
+     * of matched host first, a new agent is planned only if no available agent left.
+     *
+     * @param demands    selector tags of each waiting job
+     * @param capacities available and launchable num of agents of each host
+     * @return num of agents to start, key as host id
+     */
+    public Map<String, Integer> plan(List<Set<String>> demands, List<Capacity> capacities) {
+        Map<String, Integer> available = new HashMap<>();
+        Map<String, Integer> launchable = new HashMap<>();
+
+        for (Capacity c : capacities) {
+            available.put(c.getHost().getId(), c.getAvailable());
+            launchable.put(c.getHost().getId(), c.getLaunchable());
+        }
+
+        Map<String, Integer> plan = new LinkedHashMap<>();
+
+        for (Set<String> tags : demands) {
+            if (take(tags, capacities, available)) {
+                continue;
+            }
+
+            for (Capacity c : capacities) {
+                String hostId = c.getHost().getId();
+
+                if (isMatched(c.getHost(), tags) && launchable.get(hostId) > 0) {
+                    launchable.merge(hostId, -1, Integer::sum);
+                    plan.merge(hostId, 1, Integer::sum);
+                    break;
+                }
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * Host is matched if job has no tags or host has any of tags
+     */
+    public static boolean isMatched(AgentHost host, Set<String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return true;
+        }
+        return !Collections.disjoint(host.getTags(), tags);
+    }
+
+    private static boolean take(Set<String> tags, List<Capacity> capacities, Map<String, Integer> available) {
+        for (Capacity c : capacities) {
+            String hostId = c.getHost().getId();
+
+            if (isMatched(c.getHost(), tags) && available.get(hostId) > 0) {
+                available.merge(hostId, -1, Integer::sum);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        starting.values().removeIf(s -> now - s.startAt > StartTimeout);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Capacity {
+
+        private final AgentHost host;
+
+        // num of idle and starting agents
+        private final int available;
+
+        // num of stopped agents and agents can be created
+        private final int launchable;
+    }
+
+    private static class Starting {
+
+        private final String hostId;
+
+        private String agentId;
+
+        private final long startAt;
+
+        Starting(String hostId, String agentId, long startAt) {
+            this.hostId = hostId;
+            this.agentId = agentId;
+            this.startAt = startAt;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.agent.manager;
+
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Skip the maintenance of agent host which failed continuously, so an unreachable host
+ * will not take the time of the others. The circuit is opened after num of failures in a row,
+ * and one more try is allowed after the open period, it will be closed once a try succeeded.
+ */
+@Component
+public class HostCircuitBreaker {
+
+    private static final int DefaultThreshold = 3;
+
+    private static final long DefaultOpenInMillis = 5 * 60 * 1000; // 5 minutes
+
+    private final int threshold;
+
+    private final long openInMillis;
+
+    // key as host id
+    private final Map<String, State> states = new HashMap<>();
+
+    public HostCircuitBreaker() {
+        this(DefaultThreshold, DefaultOpenInMillis);
+    }
+
+    public HostCircuitBreaker(int threshold, long openInMillis) {
+        this.threshold = threshold;
+        this.openInMillis = openInMillis;
+    }
+
+    /**
+     * Host is allowed if circuit not opened or the open period is passed
+     */
+    public synchronized boolean isAllowed(String hostId) {
+        State s = states.get(hostId);
+        if (s == null || s.failures < threshold) {
+            return true;
+        }
+        return System.currentTimeMillis() - s.openAt >= openInMillis;
+    }
+
+    public synchronized void onSuccess(String hostId) {
+        states.remove(hostId);
+    }
+
+    public synchronized void onFailure(String hostId) {
+        State s = states.computeIfAbsent(hostId, (k) -> new State());
+        s.failures++;
+
+        if (s.failures >= threshold) {
+            s.openAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void reset(String hostId) {
+        states.remove(hostId);
+    }
+
+    private static class State {
+
+        private int failures;
+
+        private long openAt;
+    }
+}
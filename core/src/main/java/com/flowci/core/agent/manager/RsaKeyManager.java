@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.agent.manager;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.helper.CipherHelper;
+import com.flowci.domain.SimpleKeyPair;
+import com.jcraft.jsch.KeyPair;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of rsa key pairs generated in background for agent creation,
+ * the pool is refilled once a key pair been taken, and the key pair is generated in place if pool is empty.
+ */
+@Log4j2
+@Component
+public class RsaKeyManager {
+
+    @Autowired
+    private ConfigProperties.Agent agentProperties;
+
+    @Autowired
+    private ThreadPoolTaskExecutor rsaKeyExecutor;
+
+    private final AtomicInteger numOfGenerating = new AtomicInteger(0);
+
+    private BlockingQueue<KeyPair> pool;
+
+    @PostConstruct
+    public void init() {
+        pool = new ArrayBlockingQueue<>(Math.max(1, agentProperties.getRsaPoolSize()));
+        refill();
+    }
+
+    /**
+     * Get rsa key pair with email as public key comment
+     */
+    public SimpleKeyPair gen(String email) {
+        KeyPair kpair = pool.poll();
+        refill();
+
+        if (kpair == null) {
+            kpair = CipherHelper.RSA.genKeyPair();
+        }
+
+        return CipherHelper.RSA.gen(kpair, email);
+    }
+
+    /**
+     * Num of key pairs in the pool
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    private void refill() {
+        int max = agentProperties.getRsaPoolSize();
+
+        while (true) {
+            int generating = numOfGenerating.get();
+            if (pool.size() + generating >= max) {
+                return;
+            }
+
+            if (!numOfGenerating.compareAndSet(generating, generating + 1)) {
+                continue;
+            }
+
+            try {
+                rsaKeyExecutor.execute(this::generate);
+            } catch (TaskRejectedException e) {
+                numOfGenerating.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void generate() {
+        try {
+            KeyPair kpair = CipherHelper.RSA.genKeyPair();
+            if (!pool.offer(kpair)) {
+                kpair.dispose();
+            }
+        } catch (Exception e) {
+            log.warn("Unable to generate rsa key pair: {}", e.getMessage());
+        } finally {
+            numOfGenerating.decrementAndGet();
+        }
+    }
+}
@@ -53,6 +53,11 @@ public interface AgentHostService {
      */
     void collect(AgentHost host);
 
+    /**
+     * Create agents in background if idle and stopped agents less than min idle of host
+     */
+    void replenish(AgentHost host);
+
     /**
      * Remove all docker container
      */
@@ -23,7 +23,12 @@ import com.flowci.core.agent.domain.LocalUnixAgentHost;
 import com.flowci.core.agent.domain.SshAgentHost;
 import com.flowci.core.agent.event.AgentCreatedEvent;
 import com.flowci.core.agent.event.AgentHostStatusEvent;
+import com.flowci.core.agent.event.AgentStatusEvent;
 import com.flowci.core.agent.event.CreateAgentEvent;
+import com.flowci.core.agent.manager.AgentRegistryManager;
+import com.flowci.core.agent.manager.AgentScaleManager;
+import com.flowci.core.agent.manager.AgentScaleManager.Capacity;
+import com.flowci.core.agent.manager.HostCircuitBreaker;
 import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.helper.CacheHelper;
 import com.flowci.core.common.manager.SessionManager;
@@ -33,6 +38,8 @@ import com.flowci.core.secret.domain.Secret;
 import com.flowci.core.secret.event.GetSecretEvent;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.event.NoIdleAgentEvent;
+import com.flowci.core.job.manager.AgentMatchManager;
+import com.flowci.core.job.manager.AgentMatchManager.Waiting;
 import com.flowci.core.user.domain.User;
 import com.flowci.domain.Agent;
 import com.flowci.exception.NotAvailableException;
@@ -59,6 +66,7 @@ import org.apache.zookeeper.CreateMode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
@@ -68,6 +76,12 @@ import javax.annotation.Nullable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import static com.flowci.core.secret.domain.Secret.Category.SSH_RSA;
 
@@ -75,8 +89,19 @@ import static com.flowci.core.secret.domain.Secret.Category.SSH_RSA;
 @Service
 public class AgentHostServiceImpl implements AgentHostService {
 
+    private static final long ScaleInterval = 10 * 1000; // 10 seconds
+
+    private static final long ReplenishInterval = 30 * 1000; // 30 seconds
+
+    private static final long HostTimeout = 60 * 1000; // 60 seconds
+
     private final Map<Class<?>, OnCreateAndInit> mapping = new HashMap<>(3);
 
+    // scale requested by schedule or waiting jobs, the requests are coalesced into one scale
+    private final AtomicBoolean scaleRequested = new AtomicBoolean(false);
+
+    private final AtomicBoolean scaling = new AtomicBoolean(false);
+
     private final Cache<AgentHost, PoolManager<?>> poolManagerCache =
             CacheHelper.createLocalCache(10, 600, new PoolManagerRemover());
 
@@ -109,6 +134,24 @@ public class AgentHostServiceImpl implements AgentHostService {
     @Autowired
     private ThreadPoolTaskExecutor agentHostExecutor;
 
+    @Autowired
+    private ThreadPoolTaskExecutor agentStartExecutor;
+
+    @Autowired
+    private ThreadPoolTaskExecutor agentMaintainExecutor;
+
+    @Autowired
+    private HostCircuitBreaker hostCircuitBreaker;
+
+    @Autowired
+    private AgentScaleManager agentScaleManager;
+
+    @Autowired
+    private AgentRegistryManager agentRegistryManager;
+
+    @Autowired
+    private AgentMatchManager agentMatchManager;
+
     {
         mapping.put(LocalUnixAgentHost.class, new OnLocalSocketHostCreate());
         mapping.put(SshAgentHost.class, new OnSshHostCreate());
@@ -123,6 +166,7 @@ public class AgentHostServiceImpl implements AgentHostService {
         if (StringHelper.hasValue(host.getId())) {
             agentHostDao.save(host);
             poolManagerCache.invalidate(host);
+            hostCircuitBreaker.reset(host.getId());
             return;
         }
 
@@ -132,6 +176,7 @@ public class AgentHostServiceImpl implements AgentHostService {
     @Override
     public void delete(AgentHost host) {
         agentHostDao.deleteById(host.getId());
+        hostCircuitBreaker.reset(host.getId());
         agentHostExecutor.execute(() -> {
             removeAll(host);
         });
@@ -175,13 +220,20 @@ public class AgentHostServiceImpl implements AgentHostService {
         // find and remove containers are not belong to host
         containerSet.removeAll(agentSet);
 
+        if (containerSet.isEmpty()) {
+            return;
+        }
+
+        List<String> names = new ArrayList<>(containerSet.size());
         for (AgentItemWrapper item : containerSet) {
-            try {
-                optional.get().remove(item.getName());
-                log.info("Agent {} has been cleaned up", item.getName());
-            } catch (DockerPoolException ignore) {
+            names.add(item.getName());
+        }
 
-            }
+        try {
+            optional.get().remove(names);
+            log.info("Agents {} have been cleaned up", names);
+        } catch (DockerPoolException e) {
+            log.warn(e.getMessage());
         }
     }
 
@@ -212,13 +264,8 @@ public class AgentHostServiceImpl implements AgentHostService {
 
         // re-start from offline
         for (Agent agent : offline) {
-            StartContext context = new StartContext();
-            context.setServerUrl(serverUrl);
-            context.setAgentName(agent.getName());
-            context.setToken(agent.getToken());
-
             try {
-                optional.get().start(context);
+                optional.get().start(startContext(agent));
                 log.info("Agent {} been started", agent.getName());
                 return true;
             } catch (DockerPoolException e) {
@@ -228,21 +275,11 @@ public class AgentHostServiceImpl implements AgentHostService {
 
         // create new agent
         if (agents.size() < host.getMaxSize()) {
-            String name = String.format("%s-%s", host.getName(), StringHelper.randomString(5));
-            CreateAgentEvent syncEvent = new CreateAgentEvent(this, name, host.getTags(), host.getId());
-            eventManager.publish(syncEvent);
-
-            Agent agent = syncEvent.getCreated();
-            eventManager.publish(new AgentCreatedEvent(this, agent, host));
-
-            StartContext context = new StartContext();
-            context.setServerUrl(serverUrl);
-            context.setAgentName(agent.getName());
-            context.setToken(agent.getToken());
+            Agent agent = createAgent(host);
 
             try {
-                optional.get().start(context);
-                log.info("Agent {} been created and started", name);
+                optional.get().start(startContext(agent));
+                log.info("Agent {} been created and started", agent.getName());
                 return true;
             } catch (DockerPoolException e) {
                 log.warn("Unable to start created agent {}", agent.getName());
@@ -281,16 +318,82 @@ public class AgentHostServiceImpl implements AgentHostService {
     public void collect(AgentHost host) {
         List<Agent> list = agentDao.findAllByHostId(host.getId());
 
+        // keep min idle agents as standby
+        int numOfStandby = 0;
+        for (Agent agent : list) {
+            if (isStandby(agent)) {
+                numOfStandby++;
+            }
+        }
+        int numOfRemovable = numOfStandby - host.getMinIdle();
+
+        List<String> toStop = new LinkedList<>();
+        List<Agent> toRemove = new LinkedList<>();
+
         for (Agent agent : list) {
             if (agent.getStatus() == Agent.Status.IDLE) {
-                stopIfTimeout(host, agent);
+                if (host.isOverMaxIdleSeconds(agent.getStatusUpdatedAt())) {
+                    toStop.add(agent.getName());
+                }
                 continue;
             }
 
-            if (agent.getStatus() == Agent.Status.OFFLINE) {
-                removeIfTimeout(host, agent);
+            if (agent.getStatus() == Agent.Status.OFFLINE && numOfRemovable > 0) {
+                if (host.isOverMaxOfflineSeconds(agent.getStatusUpdatedAt())) {
+                    toRemove.add(agent);
+                    numOfRemovable--;
+                }
+            }
+        }
+
+        if (toStop.isEmpty() && toRemove.isEmpty()) {
+            return;
+        }
+
+        Optional<PoolManager<?>> optional = getPoolManager(host);
+        if (!optional.isPresent()) {
+            log.warn("Fail to get pool manager of host: {}", host.getName());
+            return;
+        }
+
+        stopAll(optional.get(), toStop);
+        removeAll(optional.get(), toRemove);
+    }
+
+    @Override
+    public synchronized void replenish(AgentHost host) {
+        if (host.getMinIdle() <= 0) {
+            return;
+        }
+
+        List<Agent> agents = agentDao.findAllByHostId(host.getId());
+        int numOfCreating = agentScaleManager.size(host.getId(), true);
+
+        // the starting agents are counted as standby whether or not it has been created
+        int numOfStandby = agentScaleManager.size(host.getId(), false);
+        for (Agent agent : agents) {
+            if (isStandby(agent)) {
+                numOfStandby++;
             }
         }
+
+        int creatable = host.getMaxSize() - agents.size() - numOfCreating;
+        int num = Math.min(host.getMinIdle() - numOfStandby, creatable);
+        if (num <= 0) {
+            return;
+        }
+
+        Optional<PoolManager<?>> optional = getPoolManager(host);
+        if (!optional.isPresent()) {
+            log.warn("Fail to get pool manager of host: {}", host.getName());
+            return;
+        }
+
+        for (int i = 0; i < num; i++) {
+            launch(host, optional.get(), null);
+        }
+
+        log.info("{} standby agents are creating on host {}", num, host.getName());
     }
 
     @Override
@@ -298,6 +401,7 @@ public class AgentHostServiceImpl implements AgentHostService {
         List<Agent> list = agentDao.findAllByHostId(host.getId());
         for (Agent agent : list) {
             agentDao.delete(agent);
+            agentRegistryManager.remove(agent.getId());
         }
 
         Optional<PoolManager<?>> optional = getPoolManager(host);
@@ -306,12 +410,104 @@ public class AgentHostServiceImpl implements AgentHostService {
             return;
         }
 
+        List<String> names = new ArrayList<>(list.size());
         for (Agent agent : list) {
+            names.add(agent.getName());
+        }
+
+        try {
+            optional.get().remove(names);
+            log.info("Agents {} been removed from host", names);
+        } catch (DockerPoolException e) {
+            log.info("Unable to remove agents {}: {}", names, e.getMessage());
+        }
+    }
+
+    /**
+     * Start agents on hosts in parallel for the jobs waiting for agent,
+     * the num of agents is planned from waiting jobs, idle agents and starting agents of hosts
+     */
+    public synchronized void scale() {
+        List<Set<String>> demands = new LinkedList<>();
+        for (Waiting waiting : agentMatchManager.list()) {
+            Job job = waiting.getJob();
+
+            // not waiting for a new agent
+            if (agentMatchManager.isFull(job.getFlowId()) || agentMatchManager.isPreferring(waiting)) {
+                continue;
+            }
+
+            demands.add(job.getAgentSelector().getTags());
+        }
+
+        if (demands.isEmpty()) {
+            return;
+        }
+
+        Map<String, AgentHost> hosts = new HashMap<>();
+        Map<String, List<Agent>> stopped = new HashMap<>();
+        List<Capacity> capacities = new LinkedList<>();
+
+        for (AgentHost host : list()) {
+            List<Agent> agents = agentDao.findAllByHostId(host.getId());
+            List<Agent> offline = new LinkedList<>();
+            int idle = 0;
+
+            for (Agent agent : agents) {
+                if (agent.isIdle()) {
+                    idle++;
+                    continue;
+                }
+
+                if (agent.isOffline() && !agentScaleManager.isStarting(agent.getId())) {
+                    offline.add(agent);
+                }
+            }
+
+            int available = idle + agentScaleManager.size(host.getId(), false);
+            int creatable = host.getMaxSize() - agents.size() - agentScaleManager.size(host.getId(), true);
+
+            hosts.put(host.getId(), host);
+            stopped.put(host.getId(), offline);
+            capacities.add(new Capacity(host, available, offline.size() + Math.max(creatable, 0)));
+        }
+
+        Map<String, Integer> plan = agentScaleManager.plan(demands, capacities);
+        if (plan.isEmpty()) {
+            log.debug("No agent host can start agent for {} waiting jobs", demands.size());
+            return;
+        }
+
+        for (Map.Entry<String, Integer> entry : plan.entrySet()) {
+            AgentHost host = hosts.get(entry.getKey());
+            Optional<PoolManager<?>> optional = getPoolManager(host);
+
+            if (!optional.isPresent()) {
+                log.warn("Fail to get pool manager of host: {}", host.getName());
+                continue;
+            }
+
+            Iterator<Agent> offline = stopped.get(host.getId()).iterator();
+            for (int i = 0; i < entry.getValue(); i++) {
+                launch(host, optional.get(), offline.hasNext() ? offline.next() : null);
+            }
+
+            log.info("{} agents are starting on host {}", entry.getValue(), host.getName());
+        }
+    }
+
+    @Scheduled(fixedDelay = ScaleInterval)
+    public void scheduleScale() {
+        requestScale();
+    }
+
+    @Scheduled(fixedDelay = ReplenishInterval)
+    public void scheduleReplenish() {
+        for (AgentHost host : list()) {
             try {
-                optional.get().remove(agent.getName());
-                log.info("Agent {} been removed from host", agent.getName());
-            } catch (DockerPoolException e) {
-                log.info("Unable to remove agent {}", agent.getName());
+                replenish(host);
+            } catch (Exception e) {
+                log.warn("Unable to replenish standby agents of host {}: {}", host.getName(), e.getMessage());
             }
         }
     }
@@ -324,9 +520,7 @@ public class AgentHostServiceImpl implements AgentHostService {
             }
 
             log.info("Start to collect agents from host");
-            for (AgentHost host : list()) {
-                collect(host);
-            }
+            forEachHost("collect", this::collect);
             log.info("Collection finished");
         } finally {
             clean();
@@ -344,36 +538,50 @@ public class AgentHostServiceImpl implements AgentHostService {
         syncAgents();
     }
 
+    /**
+     * Replenish standby agents of host once an agent been claimed
+     */
     @EventListener
-    public void onNoIdleAgent(NoIdleAgentEvent event) {
-        Job job = event.getJob();
-        Set<String> agentTags = job.getAgentSelector().getTags();
-
-        List<AgentHost> hosts;
-        if (agentTags.isEmpty()) {
-            hosts = list();
-        } else {
-            hosts = agentHostDao.findAllByTagsIn(agentTags);
-        }
-
-        if (hosts.isEmpty()) {
-            log.warn("Unable to find matched agent host for job {}", job.getId());
+    public void onAgentBusy(AgentStatusEvent event) {
+        Agent agent = event.getAgent();
+        if (!agent.isBusy() || Objects.isNull(agent.getHostId())) {
             return;
         }
 
-        for (AgentHost host : hosts) {
-            if (start(host)) {
-                return;
-            }
-        }
+        agentStartExecutor.execute(() -> {
+            Optional<AgentHost> host = agentHostDao.findById(agent.getHostId());
+            host.ifPresent(this::replenish);
+        });
+    }
 
-        log.info("Unable to start agent from hosts");
+    @EventListener(NoIdleAgentEvent.class)
+    public void onNoIdleAgent() {
+        requestScale();
     }
 
     //====================================================================
     //        %% Private functions
     //====================================================================
 
+    /**
+     * Scale in the caller thread if no scale is running, otherwise the running scale will scale once more
+     * for the request, so the requests from waiting jobs will not block threads on the scale
+     */
+    private void requestScale() {
+        scaleRequested.set(true);
+
+        while (scaleRequested.get() && scaling.compareAndSet(false, true)) {
+            try {
+                scaleRequested.set(false);
+                scale();
+            } catch (Exception e) {
+                log.warn("Unable to scale agents: {}", e.getMessage());
+            } finally {
+                scaling.set(false);
+            }
+        }
+    }
+
     private void initZkNodeForCronTask() {
         collectTaskZkPath = ZKPaths.makePath(zkProperties.getCronRoot(), "agent-host-collect");
     }
@@ -394,56 +602,183 @@ public class AgentHostServiceImpl implements AgentHostService {
     }
 
     public void syncAgents() {
+        forEachHost("sync", this::sync);
+    }
+
+    /**
+     * Run task on hosts in parallel and wait until all done or timeout. A host is failed if it cannot be connected,
+     * the task throws exception or not done in time, the host will be skipped once its circuit opened
+     */
+    private void forEachHost(String task, Consumer<AgentHost> action) {
+        Map<AgentHost, Future<?>> futures = new LinkedHashMap<>();
+
         for (AgentHost host : list()) {
+            if (!hostCircuitBreaker.isAllowed(host.getId())) {
+                log.debug("Skip {} on host {} since it's failed continuously", task, host.getName());
+                continue;
+            }
+
             try {
-                sync(host);
-            } catch (Exception e) {
-                log.warn(e.getMessage());
+                futures.put(host, agentMaintainExecutor.submit(() -> {
+                    if (!getPoolManager(host).isPresent()) {
+                        throw new NotAvailableException("Unable to connect to host {0}", host.getName());
+                    }
+                    action.accept(host);
+                }));
+            } catch (TaskRejectedException e) {
+                log.warn("Unable to {} on host {}: too many tasks", task, host.getName());
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + HostTimeout;
+
+        for (Map.Entry<AgentHost, Future<?>> entry : futures.entrySet()) {
+            AgentHost host = entry.getKey();
+            Future<?> future = entry.getValue();
+
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                hostCircuitBreaker.onSuccess(host.getId());
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                hostCircuitBreaker.onFailure(host.getId());
+                log.warn("Unable to {} on host {}: timeout", task, host.getName());
+            } catch (ExecutionException e) {
+                hostCircuitBreaker.onFailure(host.getId());
+                log.warn("Unable to {} on host {}: {}", task, host.getName(), e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
 
-    private boolean stopIfTimeout(AgentHost host, Agent agent) {
-        if (!host.isOverMaxIdleSeconds(agent.getStatusUpdatedAt())) {
-            return false;
+    /**
+     * Resume the offline agent, or create a new agent if offline agent not given, in background
+     */
+    private void launch(AgentHost host, PoolManager<?> manager, @Nullable Agent offline) {
+        String startId = agentScaleManager.start(host.getId(), offline == null ? null : offline.getId());
+
+        agentStartExecutor.execute(() -> {
+            try {
+                if (offline != null) {
+                    resumeOrRestart(manager, offline);
+                    return;
+                }
+
+                Agent agent = createAgent(host);
+                agentScaleManager.setAgent(startId, agent.getId());
+
+                manager.start(startContext(agent));
+                log.info("Agent {} been created and started", agent.getName());
+            } catch (Throwable e) {
+                agentScaleManager.remove(startId);
+                log.warn("Unable to start agent on host {}: {}", host.getName(), e.getMessage());
+            }
+        });
+    }
+
+    private void resumeOrRestart(PoolManager<?> manager, Agent agent) throws DockerPoolException {
+        try {
+            manager.resume(agent.getName());
+            log.info("Agent {} been resumed", agent.getName());
+        } catch (DockerPoolException e) {
+            manager.start(startContext(agent));
+            log.info("Agent {} been started", agent.getName());
         }
+    }
 
-        Optional<PoolManager<?>> optional = getPoolManager(host);
-        if (!optional.isPresent()) {
-            log.warn("Fail to get pool manager of host: {}", host.getName());
+    private Agent createAgent(AgentHost host) {
+        String name = String.format("%s-%s", host.getName(), StringHelper.randomString(5));
+        CreateAgentEvent syncEvent = new CreateAgentEvent(this, name, host.getTags(), host.getId());
+        eventManager.publish(syncEvent);
+
+        Agent agent = syncEvent.getCreated();
+        eventManager.publish(new AgentCreatedEvent(this, agent, host));
+        return agent;
+    }
+
+    private StartContext startContext(Agent agent) {
+        StartContext context = new StartContext();
+        context.setServerUrl(serverUrl);
+        context.setAgentName(agent.getName());
+        context.setToken(agent.getToken());
+        return context;
+    }
+
+    /**
+     * Agent is standby if it's idle or stopped, and not starting
+     */
+    private boolean isStandby(Agent agent) {
+        if (agent.isIdle()) {
             return true;
         }
+        return agent.isOffline() && !agentScaleManager.isStarting(agent.getId());
+    }
+
+    private void stopAll(PoolManager<?> manager, List<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
 
         try {
-            optional.get().stop(agent.getName());
-            log.debug("Agent {} been stopped", agent.getName());
-            return true;
+            manager.stop(names);
+            log.debug("Agents {} been stopped", names);
         } catch (Exception e) {
-            log.warn("Unable to stop idle agent {}", agent.getName());
-            return false;
+            log.warn("Unable to stop idle agents {}: {}", names, e.getMessage());
         }
     }
 
-    private boolean removeIfTimeout(AgentHost host, Agent agent) {
-        if (!host.isOverMaxOfflineSeconds(agent.getStatusUpdatedAt())) {
-            return false;
+    private void removeAll(PoolManager<?> manager, List<Agent> agents) {
+        if (agents.isEmpty()) {
+            return;
         }
 
-        Optional<PoolManager<?>> optional = getPoolManager(host);
-        if (!optional.isPresent()) {
-            log.warn("Fail to get pool manager of host: {}", host.getName());
-            return false;
+        List<String> names = new ArrayList<>(agents.size());
+        for (Agent agent : agents) {
+            names.add(agent.getName());
         }
 
+        List<Agent> removed = agents;
         try {
-            optional.get().remove(agent.getName());
-            agentDao.delete(agent);
-            log.debug("Agent {} been removed", agent.getName());
-            return true;
+            manager.remove(names);
+            log.debug("Agents {} been removed", names);
         } catch (Exception e) {
-            log.warn("Unable to remove offline agent {}", agent.getName());
-            return false;
+            log.warn("Unable to remove offline agents {}: {}", names, e.getMessage());
+            removed = findRemoved(manager, agents);
+        }
+
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        agentDao.deleteAll(removed);
+        for (Agent agent : removed) {
+            agentRegistryManager.remove(agent.getId());
+        }
+    }
+
+    /**
+     * Find agents which container is removed or missing from host, it returns empty if containers cannot be listed
+     */
+    private List<Agent> findRemoved(PoolManager<?> manager, List<Agent> agents) {
+        Set<String> existing = new HashSet<>();
+        try {
+            for (AgentContainer container : manager.list(Optional.empty())) {
+                existing.add(container.getAgentName());
+            }
+        } catch (Exception e) {
+            log.warn("Unable to list containers: {}", e.getMessage());
+            return Collections.emptyList();
+        }
+
+        List<Agent> removed = new LinkedList<>();
+        for (Agent agent : agents) {
+            if (!existing.contains(agent.getName())) {
+                removed.add(agent);
+            }
         }
+        return removed;
     }
 
     /**
@@ -62,7 +62,7 @@ public interface AgentService {
     List<Agent> list();
 
     /**
-     * Find agent by status and tags from database
+     * Find agent by status and tags from agent registry
      *
      * @param status Status
      * @param tags Agent tags, optional
@@ -81,14 +81,17 @@ public interface AgentService {
     Agent setTags(String token, Set<String> tags);
 
     /**
-     * Try to lock agent resource, and set agent status to BUSY
+     * Try to claim a free slot of agent for agent.jobId, and set agent status to BUSY once all slots occupied
+     *
+     * @param reserved  resource reserved on the agent until the slot released
+     * @param preferred optional, slot index to claim if it's free, ex: the slot ran the flow recently
      */
-    Boolean tryLock(Agent agent);
+    Boolean tryLock(Agent agent, Agent.Reservation reserved, Integer preferred);
 
     /**
-     * Release agent, send 'stop' cmd to agent
+     * Release slot occupied by the job, and set agent status to IDLE if it was BUSY
      */
-    void tryRelease(Agent agent);
+    void tryRelease(Agent agent, String jobId);
 
     /**
      * Create agent by name and tags
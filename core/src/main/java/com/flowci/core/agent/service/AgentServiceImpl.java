@@ -20,13 +20,17 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flowci.core.agent.dao.AgentDao;
 import com.flowci.core.agent.domain.AgentInit;
+import com.flowci.core.agent.domain.AgentSlot;
 import com.flowci.core.agent.event.AgentStatusEvent;
 import com.flowci.core.agent.event.CmdSentEvent;
 import com.flowci.core.agent.event.CreateAgentEvent;
+import com.flowci.core.agent.manager.AgentRegistryManager;
+import com.flowci.core.agent.manager.RsaKeyManager;
 import com.flowci.core.common.config.ConfigProperties;
-import com.flowci.core.common.helper.CipherHelper;
 import com.flowci.core.common.manager.SpringEventManager;
 import com.flowci.core.common.rabbit.RabbitChannelOperation;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.event.JobStatusChangeEvent;
 import com.flowci.domain.Agent;
 import com.flowci.domain.Agent.Status;
 import com.flowci.domain.CmdIn;
@@ -44,6 +48,7 @@ import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent.Type;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.data.Stat;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.dao.DuplicateKeyException;
@@ -56,7 +61,12 @@ import java.util.*;
 /**
  * Manage agent from zookeeper nodes
  * - The ephemeral node present agent, path is /{root}/{agent id}
- * - The persistent node present agent of lock, path is /{root}/{agent id}-lock, managed by server side
+ * - The agent is claimed by compare-and-set on node data version, no lock node needed
+ * - The slot is claimed by creating persistent node /{slot root}/{agent id}-{slot index} with job id and
+ *   reserved resource as data, the node is owned by the job rather than session of the server, it's deleted
+ *   when the job released agent or finished, and the stale nodes are deleted when the agent is re-added
+ * - The agent with multiple slots is kept as IDLE until the last slot claimed
+ * - The agent status is cached in AgentRegistryManager from node data, database is written only on change
  *
  * @author yang
  */
@@ -66,6 +76,10 @@ public class AgentServiceImpl implements AgentService {
 
     private static final String LockPathSuffix = "-lock";
 
+    private static final String SlotSeparator = "-";
+
+    private static final int MaxBusyRetries = 3;
+
     @Autowired
     private ConfigProperties.Zookeeper zkProperties;
 
@@ -75,6 +89,12 @@ public class AgentServiceImpl implements AgentService {
     @Autowired
     private AgentDao agentDao;
 
+    @Autowired
+    private AgentRegistryManager agentRegistryManager;
+
+    @Autowired
+    private RsaKeyManager rsaKeyManager;
+
     @Autowired
     private RabbitChannelOperation agentQueueManager;
 
@@ -91,6 +111,7 @@ public class AgentServiceImpl implements AgentService {
     private void init() {
         initRootNode();
         initAgentsFromZk();
+        initSlotRootNode();
     }
 
     @Override
@@ -99,7 +120,9 @@ public class AgentServiceImpl implements AgentService {
         target.setUrl("http://" + init.getIp() + ":" + init.getPort());
         target.setOs(init.getOs());
         target.setResource(init.getResource());
+        target.setSlots(Objects.isNull(init.getSlots()) ? 1 : Math.max(init.getSlots(), 1));
         agentDao.save(target);
+        agentRegistryManager.put(target);
 
         Settings settings = ObjectsHelper.copy(baseSettings);
         settings.setAgent(target);
@@ -108,10 +131,17 @@ public class AgentServiceImpl implements AgentService {
 
     @Override
     public Agent get(String id) {
+        Optional<Agent> cached = agentRegistryManager.get(id);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
         Optional<Agent> optional = agentDao.findById(id);
         if (!optional.isPresent()) {
             throw new NotFoundException("Agent {0} does not existed", id);
         }
+
+        agentRegistryManager.put(optional.get());
         return optional.get();
     }
 
@@ -151,21 +181,15 @@ public class AgentServiceImpl implements AgentService {
 
     @Override
     public List<Agent> find(Status status, Set<String> tags) {
-        List<Agent> agents;
-
-        if (Objects.isNull(tags) || tags.isEmpty()) {
-            agents = agentDao.findAllByStatus(status);
-        } else {
-            agents = agentDao.findAllByStatusAndTagsIn(status, tags);
-        }
-
-        return agents;
+        return agentRegistryManager.find(status, tags);
     }
 
     @Override
     public Agent delete(String token) {
         Agent agent = getByToken(token);
         agentDao.delete(agent);
+        agentRegistryManager.remove(agent.getId());
+        deleteSlotNodes(agent.getId(), Long.MAX_VALUE);
         log.debug("{} has been deleted", agent);
         return agent;
     }
@@ -175,42 +199,81 @@ public class AgentServiceImpl implements AgentService {
         Agent agent = getByToken(token);
         agent.setTags(tags);
         agentDao.save(agent);
+        agentRegistryManager.put(agent);
         return agent;
     }
 
     @Override
-    public Boolean tryLock(Agent agent) {
-        // check agent is available form db
-        Agent reload = get(agent.getId());
-        if (reload.isBusy()) {
+    public Boolean tryLock(Agent agent, Agent.Reservation reserved, Integer preferred) {
+        // check agent is available from registry
+        Optional<Status> cached = agentRegistryManager.getStatus(agent.getId());
+        if (!cached.isPresent() || cached.get() != Status.IDLE) {
             return false;
         }
 
-        try {
-            // check agent status from zk
-            Status status = getStatusFromZk(agent);
-            if (status != Status.IDLE) {
-                return false;
-            }
+        Optional<Integer> version = agentRegistryManager.getVersion(agent.getId());
+        if (!version.isPresent()) {
+            return false;
+        }
 
-            // lock and set status to busy
-            String zkLockPath = getLockPath(agent);
-            zk.lock(zkLockPath, path -> updateAgentStatus(agent, Status.BUSY));
+        Optional<Integer> slot = claimSlot(agent.getId(), new AgentSlot(agent.getJobId(), reserved), preferred);
+        if (!slot.isPresent()) {
+            return false;
+        }
+
+        Agent claimed = get(agent.getId());
+        agent.setJobSlots(claimed.getJobSlots());
+
+        // agent is still available for other jobs
+        if (hasFreeSlot(claimed)) {
+            agentDao.save(claimed);
             return true;
-        } catch (ZookeeperException e) {
-            log.debug(e);
+        }
+
+        Optional<Integer> busyVersion = setBusy(agent, version.get());
+        if (!busyVersion.isPresent()) {
+            tryRelease(claimed, agent.getJobId());
             return false;
         }
+
+        agentRegistryManager.setVersion(agent.getId(), busyVersion.get());
+        agent.setStatus(Status.BUSY);
+        saveAndPublishStatus(agent);
+
+        // slot released by other server before status set to busy
+        if (hasFreeSlot(claimed)) {
+            updateAgentStatus(agent, Status.IDLE);
+        }
+        return true;
     }
 
     @Override
-    public void tryRelease(Agent agent) {
+    public void tryRelease(Agent agent, String jobId) {
+        boolean released = releaseSlot(get(agent.getId()), jobId);
+
         Agent reload = get(agent.getId());
+
+        // slot released already, and the agent is occupied by other jobs
+        if (!released && !reload.getJobSlots().isEmpty()) {
+            return;
+        }
+
+        try {
+            // the cached status might not be synced if agent was set to busy by other server
+            reload.setStatus(getStatusFromZk(reload));
+        } catch (ZookeeperException e) {
+            log.debug(e);
+        }
+
         if (reload.isIdle()) {
+            // notify the freed slot of agent which is still idle
+            if (released) {
+                saveAndPublishStatus(reload);
+            }
             return;
         }
 
-        updateAgentStatus(agent, Status.IDLE);
+        updateAgentStatus(reload, Status.IDLE);
     }
 
     @Override
@@ -225,10 +288,11 @@ public class AgentServiceImpl implements AgentService {
         hostId.ifPresent(agent::setHostId);
 
         String dummyEmailForAgent = "agent." + name + "@flow.ci";
-        agent.setRsa(CipherHelper.RSA.gen(dummyEmailForAgent));
+        agent.setRsa(rsaKeyManager.gen(dummyEmailForAgent));
 
         try {
             agentDao.insert(agent);
+            agentRegistryManager.put(agent);
             agentQueueManager.declare(agent.getQueueName(), false);
             return agent;
         } catch (DuplicateKeyException e) {
@@ -246,7 +310,9 @@ public class AgentServiceImpl implements AgentService {
         agent.setTags(tags);
 
         try {
-            return agentDao.save(agent);
+            agentDao.save(agent);
+            agentRegistryManager.put(agent);
+            return agent;
         } catch (DuplicateKeyException e) {
             throw new DuplicateException("Agent name {0} is already defined", name);
         }
@@ -257,6 +323,7 @@ public class AgentServiceImpl implements AgentService {
         Agent agent = getByToken(token);
         agent.setResource(resource);
         agentDao.save(agent);
+        agentRegistryManager.put(agent);
         return agent;
     }
 
@@ -277,6 +344,33 @@ public class AgentServiceImpl implements AgentService {
         event.setCreated(agent);
     }
 
+    /**
+     * Release slots still held by the finished job, since the slot nodes are not removed with server session
+     */
+    @EventListener
+    public void onJobStatusChange(JobStatusChangeEvent event) {
+        Job job = event.getJob();
+        if (!job.isDone()) {
+            return;
+        }
+
+        Set<String> agentIds;
+        synchronized (job) {
+            agentIds = new HashSet<>(job.getStepAgents().values());
+        }
+
+        if (Objects.nonNull(job.getAgentId())) {
+            agentIds.add(job.getAgentId());
+        }
+
+        for (String agentId : agentIds) {
+            Optional<Agent> agent = agentRegistryManager.get(agentId);
+            if (agent.isPresent() && hasSlotNode(agent.get(), job.getId())) {
+                tryRelease(agent.get(), job.getId());
+            }
+        }
+    }
+
     /**
      * Get agent id from zookeeper path
      * <p>
@@ -287,6 +381,186 @@ public class AgentServiceImpl implements AgentService {
         return path.substring(index + 1);
     }
 
+    private String getSlotPath(String agentId, int slot) {
+        String root = zkProperties.getSlotRoot();
+        return root + Agent.PATH_SLASH + agentId + SlotSeparator + slot;
+    }
+
+    /**
+     * Claim slot from registry and confirm it by creating slot node, the next free slot will be claimed
+     * if the slot node has been created by other server
+     *
+     * @return slot index, or empty if no free slot
+     */
+    private Optional<Integer> claimSlot(String agentId, AgentSlot data, Integer preferred) {
+        byte[] bytes;
+        try {
+            bytes = objectMapper.writeValueAsBytes(data);
+        } catch (JsonProcessingException e) {
+            log.warn("Unable to write slot data: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        while (true) {
+            Optional<Integer> slot = agentRegistryManager.claimSlot(agentId, data.getJobId(), data.getReserved(),
+                    preferred);
+            if (!slot.isPresent()) {
+                return slot;
+            }
+
+            String path = getSlotPath(agentId, slot.get());
+            try {
+                zk.create(CreateMode.PERSISTENT, path, bytes);
+                return slot;
+            } catch (ZookeeperException e) {
+                agentRegistryManager.releaseSlot(agentId, data.getJobId());
+
+                Optional<AgentSlot> owner = getSlotData(path);
+                if (!owner.isPresent()) {
+                    log.debug("Unable to create slot node {}: {}", path, e.getMessage());
+                    return Optional.empty();
+                }
+
+                // slot node created by other server is not synced yet
+                agentRegistryManager.occupySlot(agentId, owner.get().getJobId(), slot.get(), owner.get().getReserved());
+            }
+        }
+    }
+
+    /**
+     * Release slot from registry and delete the slot node owned by the job
+     *
+     * @return true if slot released
+     */
+    private boolean releaseSlot(Agent agent, String jobId) {
+        boolean released = agentRegistryManager.releaseSlot(agent.getId(), jobId);
+
+        for (int i = 0; i < agent.getSlots(); i++) {
+            String path = getSlotPath(agent.getId(), i);
+            Optional<AgentSlot> owner = getSlotData(path);
+
+            if (owner.isPresent() && Objects.equals(owner.get().getJobId(), jobId)) {
+                try {
+                    zk.delete(path, false);
+                    return true;
+                } catch (ZookeeperException e) {
+                    log.warn("Unable to delete slot node {}: {}", path, e.getMessage());
+                }
+            }
+        }
+
+        return released;
+    }
+
+    /**
+     * Set agent node to busy by compare-and-set, retry with the latest version if the node was changed
+     * but agent is still idle
+     *
+     * @return version of agent node after set to busy, or empty if agent is not idle or cannot be set
+     */
+    private Optional<Integer> setBusy(Agent agent, int version) {
+        String path = getPath(agent);
+
+        try {
+            for (int i = 0; i < MaxBusyRetries; i++) {
+                if (zk.compareAndSet(path, version, Status.BUSY.getBytes())) {
+                    return Optional.of(version + 1);
+                }
+
+                Stat stat = new Stat();
+                Status status = Status.fromBytes(zk.get(path, stat));
+                if (status != Status.IDLE) {
+                    log.debug("Agent {} has been changed to {} since version {}", agent.getId(), status, version);
+                    return Optional.empty();
+                }
+
+                version = stat.getVersion();
+            }
+        } catch (ZookeeperException e) {
+            log.debug(e);
+        }
+
+        return Optional.empty();
+    }
+
+    private boolean hasSlotNode(Agent agent, String jobId) {
+        for (int i = 0; i < agent.getSlots(); i++) {
+            Optional<AgentSlot> owner = getSlotData(getSlotPath(agent.getId(), i));
+            if (owner.isPresent() && Objects.equals(owner.get().getJobId(), jobId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check free slot from slot nodes, since slots can be claimed by other servers
+     */
+    private boolean hasFreeSlot(Agent agent) {
+        for (int i = 0; i < agent.getSlots(); i++) {
+            try {
+                if (!zk.exist(getSlotPath(agent.getId(), i))) {
+                    return true;
+                }
+            } catch (ZookeeperException e) {
+                log.debug(e);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private Optional<AgentSlot> getSlotData(String path) {
+        try {
+            return readSlotData(zk.get(path));
+        } catch (ZookeeperException e) {
+            return Optional.empty();
+        }
+    }
+
+    private Optional<AgentSlot> readSlotData(byte[] bytes) {
+        try {
+            return Optional.of(objectMapper.readValue(bytes, AgentSlot.class));
+        } catch (IOException e) {
+            log.warn("Unable to read slot data: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Delete slot nodes of agent which are created before the agent node, since jobs on them were gone
+     */
+    private void deleteSlotNodes(String agentId, long beforeZxid) {
+        String root = zkProperties.getSlotRoot();
+        String prefix = agentId + SlotSeparator;
+
+        List<String> children;
+        try {
+            children = zk.children(root);
+        } catch (ZookeeperException e) {
+            log.warn(e.getMessage());
+            return;
+        }
+
+        for (String child : children) {
+            if (!child.startsWith(prefix)) {
+                continue;
+            }
+
+            String path = root + Agent.PATH_SLASH + child;
+            try {
+                Stat stat = new Stat();
+                zk.get(path, stat);
+
+                if (stat.getCzxid() < beforeZxid) {
+                    zk.delete(path, false);
+                }
+            } catch (ZookeeperException e) {
+                log.debug(e);
+            }
+        }
+    }
+
     private void initRootNode() {
         String root = zkProperties.getAgentRoot();
 
@@ -297,7 +571,23 @@ public class AgentServiceImpl implements AgentService {
         }
 
         try {
-            zk.watchChildren(root, new RootNodeListener());
+            zk.watchChildren(root, new RootNodeListener(), true);
+        } catch (ZookeeperException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    private void initSlotRootNode() {
+        String root = zkProperties.getSlotRoot();
+
+        try {
+            zk.create(CreateMode.PERSISTENT, root, null);
+        } catch (ZookeeperException ignore) {
+
+        }
+
+        try {
+            zk.watchChildren(root, new SlotNodeListener(), true);
         } catch (ZookeeperException e) {
             log.error(e.getMessage());
         }
@@ -306,21 +596,26 @@ public class AgentServiceImpl implements AgentService {
     private void initAgentsFromZk() {
         for (Agent agent : agentDao.findAll()) {
             String zkPath = getPath(agent);
-            String zkLockPath = getLockPath(agent);
+
+            // remove lock node created by previous version
+            zk.delete(zkPath + LockPathSuffix, false);
 
             // set to offline if zk node not exist
             if (!zk.exist(zkPath)) {
                 agent.setStatus(Status.OFFLINE);
                 agentDao.save(agent);
-                zk.delete(zkLockPath, false);
+                agentRegistryManager.put(agent);
                 continue;
             }
 
-            // sync status and lock node
-            Status status = getStatusFromZk(agent);
+            // sync status and node version
+            Stat stat = new Stat();
+            Status status = Status.fromBytes(zk.get(zkPath, stat));
             agent.setStatus(status);
             agentDao.save(agent);
-            syncLockNode(agent, Type.CHILD_ADDED);
+            agentRegistryManager.put(agent);
+            agentRegistryManager.setVersion(agent.getId(), stat.getVersion());
+            deleteSlotNodes(agent.getId(), stat.getCzxid());
         }
     }
 
@@ -339,44 +634,22 @@ public class AgentServiceImpl implements AgentService {
         agent.setStatus(status);
 
         try {
-            // try update zookeeper status if new status not same with zk
-            Status current = getStatusFromZk(agent);
-            if (current != status) {
-                zk.set(getPath(agent), status.getBytes());
-            }
+            int version = zk.set(getPath(agent), status.getBytes());
+            agentRegistryManager.setVersion(agent.getId(), version);
         } catch (ZookeeperException e) {
             // set agent to offline when zk exception
             agent.setStatus(Status.OFFLINE);
+            agentRegistryManager.setVersion(agent.getId(), null);
             log.warn("Unable to update status on zk node: {}", e.getMessage());
         } finally {
-            agentDao.save(agent);
-            eventManager.publish(new AgentStatusEvent(this, agent));
-        }
-    }
-
-    private void syncLockNode(Agent agent, Type type) {
-        String lockPath = getLockPath(agent);
-
-        if (type == Type.CHILD_ADDED || type == Type.CHILD_UPDATED || type == Type.CONNECTION_RECONNECTED) {
-            try {
-                zk.create(CreateMode.PERSISTENT, lockPath, null);
-            } catch (Throwable ignore) {
-
-            }
-            return;
-        }
-
-        if (type == Type.CHILD_REMOVED) {
-            try {
-                zk.delete(lockPath, true);
-            } catch (Throwable ignore) {
-
-            }
+            saveAndPublishStatus(agent);
         }
     }
 
-    private String getLockPath(Agent agent) {
-        return getPath(agent) + LockPathSuffix;
+    private void saveAndPublishStatus(Agent agent) {
+        agentDao.save(agent);
+        agentRegistryManager.put(agent);
+        eventManager.publish(new AgentStatusEvent(this, agent));
     }
 
     private Status getStatusFromZk(Agent agent) {
@@ -404,25 +677,48 @@ public class AgentServiceImpl implements AgentService {
         private void handleAgentStatusChange(PathChildrenCacheEvent event) {
             String path = event.getData().getPath();
 
-            // do not handle event from lock node
+            // do not handle event from lock node of previous version
             if (path.endsWith(LockPathSuffix)) {
                 log.debug("Lock node '{}' event '{}' received", path, event.getType());
                 return;
             }
 
             String agentId = getAgentIdFromPath(path);
+
+            // status changed by agent or other server, node data is cached within event
+            if (event.getType() == Type.CHILD_UPDATED) {
+                byte[] data = event.getData().getData();
+                if (data != null && data.length > 0) {
+                    int version = event.getData().getStat().getVersion();
+                    Status status = Status.fromBytes(data);
+                    Optional<Status> previous = agentRegistryManager.getStatus(agentId);
+
+                    // notify status changed by agent or other server, ex: agent released by other server
+                    if (agentRegistryManager.setStatus(agentId, status, version)
+                            && previous.isPresent() && previous.get() != status) {
+                        Optional<Agent> changed = agentRegistryManager.get(agentId);
+                        changed.ifPresent(a -> eventManager.publish(new AgentStatusEvent(AgentServiceImpl.this, a)));
+                    }
+                }
+                return;
+            }
+
             Agent agent = get(agentId);
 
             if (event.getType() == Type.CHILD_ADDED) {
-                syncLockNode(agent, Type.CHILD_ADDED);
+                agentRegistryManager.setVersion(agentId, event.getData().getStat().getVersion());
+                agentRegistryManager.clearSlots(agentId);
+                agent.getJobSlots().clear();
+                deleteSlotNodes(agentId, event.getData().getStat().getCzxid());
                 updateAgentStatus(agent, Status.IDLE);
                 log.debug("Event '{}' of agent '{}' with status '{}'", event.getType(), agent.getName(), Status.IDLE);
                 return;
             }
 
             if (event.getType() == Type.CHILD_REMOVED) {
-                syncLockNode(agent, Type.CHILD_REMOVED);
+                agentRegistryManager.setVersion(agentId, null);
                 updateAgentStatus(agent, Status.OFFLINE);
+                agentRegistryManager.clearSlots(agentId);
                 log.debug("Event '{}' of agent '{}' with status '{}'", event.getType(), agent.getName(),
                         Status.OFFLINE);
                 return;
@@ -435,4 +731,45 @@ public class AgentServiceImpl implements AgentService {
             }
         }
     }
+
+    /**
+     * Mirror slot nodes, which created or deleted by this or other servers, to registry
+     */
+    private class SlotNodeListener implements PathChildrenCacheListener {
+
+        @Override
+        public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+            ChildData data = event.getData();
+            if (data == null || data.getData() == null) {
+                return;
+            }
+
+            String name = getAgentIdFromPath(data.getPath());
+            int index = name.lastIndexOf(SlotSeparator);
+            if (index <= 0) {
+                return;
+            }
+
+            Optional<AgentSlot> slot = readSlotData(data.getData());
+            if (!slot.isPresent()) {
+                return;
+            }
+
+            String agentId = name.substring(0, index);
+            String jobId = slot.get().getJobId();
+
+            if (event.getType() == Type.CHILD_ADDED) {
+                int slotIndex = Integer.parseInt(name.substring(index + 1));
+                agentRegistryManager.occupySlot(agentId, jobId, slotIndex, slot.get().getReserved());
+                return;
+            }
+
+            if (event.getType() == Type.CHILD_REMOVED && agentRegistryManager.releaseSlot(agentId, jobId)) {
+                // notify the slot freed by other server
+                Optional<Agent> agent = agentRegistryManager.get(agentId);
+                agent.filter(Agent::isIdle)
+                        .ifPresent(a -> eventManager.publish(new AgentStatusEvent(AgentServiceImpl.this, a)));
+            }
+        }
+    }
 }
@@ -29,6 +29,7 @@ import com.flowci.core.flow.service.FlowService;
 import com.flowci.core.flow.service.StatsService;
 import com.flowci.core.job.dao.JobDao;
 import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.manager.RunningJobManager;
 import com.flowci.core.job.service.ArtifactService;
 import com.flowci.core.job.service.ReportService;
 import com.flowci.core.job.util.JobKeyBuilder;
@@ -50,6 +51,9 @@ public class OpenRestServiceImpl implements OpenRestService {
     @Autowired
     private JobDao jobDao;
 
+    @Autowired
+    private RunningJobManager runningJobManager;
+
     @Autowired
     private UserDao userDao;
 
@@ -98,8 +102,22 @@ public class OpenRestServiceImpl implements OpenRestService {
 
         // TODO: verify key value string
 
+        // update context of running job which is held in memory
+        Optional<Job> running = runningJobManager.get(job.getId());
+        if (running.isPresent()) {
+            job = running.get();
+
+            synchronized (job) {
+                job.getContext().putAll(vars);
+                if (!runningJobManager.update(job)) {
+                    jobDao.saveChanges(job);
+                }
+            }
+            return;
+        }
+
         job.getContext().putAll(vars);
-        jobDao.save(job);
+        jobDao.saveChanges(job);
     }
 
     @Override
@@ -74,6 +74,12 @@ public class ConfigProperties {
         return new Job();
     }
 
+    @Bean("agentProperties")
+    @ConfigurationProperties(prefix = "app.agent")
+    public Agent agent() {
+        return new Agent();
+    }
+
     @Bean("pluginProperties")
     @ConfigurationProperties(prefix = "app.plugin")
     public Plugin plugin() {
@@ -118,6 +124,34 @@ public class ConfigProperties {
         private Long expireInSeconds; // job queue up timeout
 
         private Long retryWaitingSeconds;
+
+        // cancel queued jobs of the same flow and branch once a newer push job queued
+        private Boolean supersedeQueued;
+
+        // cancel running jobs of the same flow and branch once a newer push job queued
+        private Boolean supersedeRunning;
+
+        // num of threads to create and start jobs of different flows in parallel
+        private Integer createPoolSize;
+
+        // max num of jobs waiting to be created, request will be rejected if exceeded
+        private Integer createQueueSize;
+
+        // max seconds to wait for the busy agent which ran the flow recently, 0 to disable
+        private Long affinityWaitInSeconds;
+
+        // hold running jobs in memory and flush changes periodically, for single core server only
+        private Boolean writeBehind;
+    }
+
+    @Data
+    public static class Agent {
+
+        // num of pre-generated rsa key pairs for agent creation, 0 to disable
+        private Integer rsaPoolSize;
+
+        // num of threads to generate rsa key pairs in background
+        private Integer rsaPoolThreads;
     }
 
     @Data
@@ -137,6 +171,8 @@ public class ConfigProperties {
 
         private String agentRoot;
 
+        private String slotRoot;
+
         private String cronRoot;
 
         private Integer timeout;
@@ -62,5 +62,8 @@ public abstract class Variables {
 
         // {step name}={status};{step name}={status}
         public static final String Steps = "FLOWCI_JOB_STEPS";
+
+        // {variable name}={value};{variable name}={value}
+        public static final String Matrix = "FLOWCI_JOB_MATRIX";
     }
 }
@@ -55,23 +55,39 @@ public abstract class CipherHelper {
         }
 
         public static SimpleKeyPair gen(String email) {
+            return gen(genKeyPair(), email);
+        }
+
+        /**
+         * Generate 2048 bits rsa key pair, the cpu intensive part of gen
+         */
+        public static KeyPair genKeyPair() {
+            try {
+                return KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+            } catch (JSchException e) {
+                throw new StatusException("Unable to generate RSA key pair");
+            }
+        }
+
+        /**
+         * Export key pair with email as public key comment, the key pair will be disposed
+         */
+        public static SimpleKeyPair gen(KeyPair kpair, String email) {
             try (ByteArrayOutputStream pubKeyOS = new ByteArrayOutputStream()) {
                 try (ByteArrayOutputStream prvKeyOS = new ByteArrayOutputStream()) {
-                    JSch jsch = new JSch();
                     SimpleKeyPair rsa = new SimpleKeyPair();
 
-                    KeyPair kpair = KeyPair.genKeyPair(jsch, KeyPair.RSA, 2048);
                     kpair.writePrivateKey(prvKeyOS);
                     kpair.writePublicKey(pubKeyOS, email);
 
                     rsa.setPublicKey(pubKeyOS.toString());
                     rsa.setPrivateKey(prvKeyOS.toString());
-
-                    kpair.dispose();
                     return rsa;
                 }
-            } catch (IOException | JSchException e) {
+            } catch (IOException e) {
                 throw new StatusException("Unable to generate RSA key pair");
+            } finally {
+                kpair.dispose();
             }
         }
 
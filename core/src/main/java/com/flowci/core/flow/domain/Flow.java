@@ -79,6 +79,12 @@ public final class Flow extends Mongoable implements Pathable {
 
     private WebhookStatus webhookStatus;
 
+    // share of agents against other flows while jobs are waiting for agent
+    private int weight = 1;
+
+    // max num of running jobs, 0 as unlimited
+    private int maxConcurrentJobs = 0;
+
     public Flow(String name) {
         this.name = name;
     }
@@ -19,6 +19,7 @@ package com.flowci.core.flow.domain;
 import lombok.Getter;
 import lombok.Setter;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 
@@ -35,9 +36,23 @@ public class UpdateFlow {
     @NotEmpty
     private String yamlRepoBranch;
 
+    @Min(1)
+    private Integer weight;
+
+    @Min(0)
+    private Integer maxConcurrentJobs;
+
     public void update(Flow flow) {
         flow.setName(name);
         flow.setYamlFromRepo(isYamlFromRepo);
         flow.setYamlRepoBranch(yamlRepoBranch);
+
+        if (weight != null) {
+            flow.setWeight(weight);
+        }
+
+        if (maxConcurrentJobs != null) {
+            flow.setMaxConcurrentJobs(maxConcurrentJobs);
+        }
     }
 }
@@ -113,9 +113,14 @@ public class CronServiceImpl implements CronService {
         @Override
         public void run() {
             if (lock()) {
-                log.info("Start flow '{}' from cron task", flow.getName());
-                eventManager.publish(new CreateNewJobEvent(this, flow, yml.getRaw(), Trigger.SCHEDULER, null));
-                clean();
+                try {
+                    log.info("Start flow '{}' from cron task", flow.getName());
+                    eventManager.publish(new CreateNewJobEvent(this, flow, yml.getRaw(), Trigger.SCHEDULER, null));
+                } catch (Throwable e) {
+                    log.warn("Unable to start flow '{}' from cron task: {}", flow.getName(), e.getMessage());
+                } finally {
+                    clean();
+                }
             }
 
             scheduleNext();
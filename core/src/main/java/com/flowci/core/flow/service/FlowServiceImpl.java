@@ -33,6 +33,7 @@ import com.flowci.core.flow.event.FlowConfirmedEvent;
 import com.flowci.core.flow.event.FlowCreatedEvent;
 import com.flowci.core.flow.event.FlowDeletedEvent;
 import com.flowci.core.flow.event.FlowInitEvent;
+import com.flowci.core.flow.event.FlowUpdatedEvent;
 import com.flowci.core.job.domain.Job.Trigger;
 import com.flowci.core.job.event.CreateNewJobEvent;
 import com.flowci.core.trigger.domain.GitPingTrigger;
@@ -255,6 +256,7 @@ public class FlowServiceImpl implements FlowService {
     public void update(Flow flow) {
         flow.setUpdatedAt(Date.from(Instant.now()));
         flowDao.save(flow);
+        eventManager.publish(new FlowUpdatedEvent(this, flow));
     }
 
     @Override
@@ -24,6 +24,7 @@ import com.flowci.core.flow.service.FlowService;
 import com.flowci.core.flow.service.YmlService;
 import com.flowci.core.job.domain.*;
 import com.flowci.core.job.domain.Job.Trigger;
+import com.flowci.core.job.manager.JobCreateManager;
 import com.flowci.core.job.service.*;
 import com.flowci.core.user.domain.User;
 import com.flowci.domain.CmdId;
@@ -39,7 +40,6 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
@@ -85,7 +85,7 @@ public class JobController {
     private ArtifactService artifactService;
 
     @Autowired
-    private ThreadPoolTaskExecutor jobRunExecutor;
+    private JobCreateManager jobCreateManager;
 
     @GetMapping("/{flow}")
     @Action(JobAction.LIST)
@@ -122,6 +122,13 @@ public class JobController {
         return Base64.getEncoder().encodeToString(yml.getRaw().getBytes());
     }
 
+    @GetMapping("/{flow}/{buildNumber}/children")
+    @Action(JobAction.GET)
+    public List<Job> listChildren(@PathVariable String flow, @PathVariable String buildNumber) {
+        Job job = get(flow, buildNumber);
+        return jobService.listChildren(job);
+    }
+
     @GetMapping("/{flow}/{buildNumberOrLatest}/steps")
     @Action(JobAction.LIST_STEPS)
     public List<ExecutedCmd> listSteps(@PathVariable String flow,
@@ -174,10 +181,11 @@ public class JobController {
     @Action(JobAction.RUN)
     public void createAndRun(@Validated @RequestBody CreateJob data) {
         final User current = sessionManager.get();
-        jobRunExecutor.execute(() -> {
+        final Flow flow = flowService.get(data.getFlow());
+
+        jobCreateManager.submit(flow.getId(), () -> {
             try {
                 sessionManager.set(current);
-                Flow flow = flowService.get(data.getFlow());
                 Yml yml = ymlService.getYml(flow);
                 Job job = jobService.create(flow, yml.getRaw(), Trigger.API, data.getInputs());
                 jobService.start(job);
@@ -188,6 +196,18 @@ public class JobController {
         });
     }
 
+    @PostMapping("/{flow}/{buildNumber}/rerun")
+    @Action(JobAction.RUN)
+    public Job rerun(@PathVariable("flow") String name,
+                     @PathVariable String buildNumber,
+                     @Validated @RequestBody RerunJob data) {
+        Flow flow = flowService.get(name);
+        Job job = get(name, buildNumber);
+
+        Job rerun = jobService.rerun(flow, job, NodePath.create(data.getPath()));
+        return jobService.start(rerun);
+    }
+
     @PostMapping("/{flow}/{buildNumber}/cancel")
     @Action(JobAction.CANCEL)
     public Job cancel(@PathVariable String flow, @PathVariable String buildNumber) {
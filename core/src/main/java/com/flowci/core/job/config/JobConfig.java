@@ -20,14 +20,21 @@ import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.helper.CacheHelper;
 import com.flowci.core.common.helper.ThreadHelper;
 import com.flowci.domain.ExecutedCmd;
+import com.flowci.tree.GroovyRunner;
+import com.flowci.tree.GroovyRunner.Stats;
 import com.flowci.tree.NodeTree;
 import com.flowci.util.FileHelper;
 import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.function.ToDoubleFunction;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -44,12 +51,48 @@ public class JobConfig {
     @Autowired
     private ConfigProperties appProperties;
 
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Expose statistics of groovy scripts evaluated for step condition
+     */
+    @PostConstruct
+    public void registerGroovyMetrics() {
+        if (meterRegistry == null) {
+            return;
+        }
+
+        counter("flowci.groovy.run", Stats::getNumOfRun);
+        counter("flowci.groovy.failure", Stats::getNumOfFailure);
+        counter("flowci.groovy.timeout", Stats::getNumOfTimeout);
+        counter("flowci.groovy.cache.hit", Stats::getNumOfCacheHit);
+        counter("flowci.groovy.compile", Stats::getNumOfCompile);
+        gauge("flowci.groovy.run.avg.micros", Stats::getAvgRunMicros);
+        gauge("flowci.groovy.cached", Stats::getNumOfCachedScripts);
+        gauge("flowci.groovy.active", Stats::getNumOfActiveThreads);
+        gauge("flowci.groovy.queued", Stats::getNumOfQueuedScripts);
+    }
+
+    private void counter(String name, ToDoubleFunction<Stats> value) {
+        FunctionCounter.builder(name, this, c -> value.applyAsDouble(GroovyRunner.stats())).register(meterRegistry);
+    }
+
+    private void gauge(String name, ToDoubleFunction<Stats> value) {
+        Gauge.builder(name, this, c -> value.applyAsDouble(GroovyRunner.stats())).register(meterRegistry);
+    }
+
     /**
-     * Consume http request
+     * Create and start job from http request or git trigger, ordered per flow by JobCreateManager
      */
     @Bean("jobRunExecutor")
     public ThreadPoolTaskExecutor jobRunExecutor() {
-        return ThreadHelper.createTaskExecutor(1, 1, 100, "job-run-");
+        int poolSize = jobProperties.getCreatePoolSize();
+        int queueSize = jobProperties.getCreateQueueSize();
+        return ThreadHelper.createTaskExecutor(poolSize, poolSize, queueSize, "job-run-");
     }
 
     @Bean("jobDeleteExecutor")
@@ -0,0 +1,45 @@
+/*
+ *   Copyright (c) 2020 flow.ci
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.flowci.core.job.dao;
+
+import com.flowci.core.job.domain.Job;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface CustomJobDao {
+
+    /**
+     * Save the changed fields since job loaded or saved by $set,
+     * the whole job will be saved if no snapshot of job
+     */
+    Job saveChanges(Job job);
+
+    /**
+     * Increase sequence of step status changes of job atomically
+     *
+     * @return increased sequence, or 0 if job not found
+     */
+    long increaseStepSeq(String jobId);
+
+    /**
+     * Find jobs of flow which are created before the build number, with the context value and in the status,
+     * the child jobs of matrix are not included
+     */
+    List<Job> findPrevious(String flowId, Long buildNumber, String contextKey, String contextValue,
+                           Collection<Job.Status> status);
+}
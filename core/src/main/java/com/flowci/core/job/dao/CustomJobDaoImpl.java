@@ -0,0 +1,195 @@
+/*
+ *   Copyright (c) 2020 flow.ci
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.flowci.core.job.dao;
+
+import com.flowci.core.job.domain.Job;
+import com.flowci.domain.Vars;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+public class CustomJobDaoImpl implements CustomJobDao {
+
+    private static final String ContextField = "context";
+
+    private static final String UpdatedAtField = "updatedAt";
+
+    private static final String StepSeqField = "stepSeq";
+
+    // fields not changed by partial update, updatedAt is set on each update and stepSeq is increased only
+    private static final Set<String> IgnoredFields = ImmutableSet.of("_id", UpdatedAtField, StepSeqField);
+
+    @Autowired
+    private MongoOperations operations;
+
+    @Override
+    public Job saveChanges(Job job) {
+        Document snapshot = job.getSnapshot();
+        if (Objects.isNull(snapshot) || Objects.isNull(job.getId())) {
+            operations.save(job);
+            return job;
+        }
+
+        MongoConverter converter = operations.getConverter();
+
+        // convert both from entity, so the values of persisted and current are comparable
+        Document persisted = new Document();
+        converter.write(converter.read(Job.class, snapshot), persisted);
+
+        Document current = new Document();
+        converter.write(job, current);
+
+        Set<String> fields = new HashSet<>(persisted.keySet());
+        fields.addAll(current.keySet());
+
+        Update update = new Update();
+        for (String field : fields) {
+            if (IgnoredFields.contains(field)) {
+                continue;
+            }
+
+            if (field.equals(ContextField)) {
+                setContextChanges(update, toMap(persisted.get(field)), toMap(current.get(field)));
+                continue;
+            }
+
+            setIfChanged(update, field, persisted.get(field), current.get(field));
+        }
+
+        if (update.getUpdateObject().isEmpty()) {
+            return job;
+        }
+
+        // auditing is not applied on update
+        Date now = new Date();
+        update.set(UpdatedAtField, now);
+
+        operations.updateFirst(query(where("_id").is(job.getId())), update, Job.class);
+
+        job.setUpdatedAt(now);
+        current.put(UpdatedAtField, now);
+        job.setSnapshot(current);
+        return job;
+    }
+
+    @Override
+    public long increaseStepSeq(String jobId) {
+        Query query = query(where("_id").is(jobId));
+        query.fields().include(StepSeqField);
+
+        Update update = new Update().inc(StepSeqField, 1);
+        Job job = operations.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Job.class);
+        return Objects.isNull(job) ? 0 : job.getStepSeq();
+    }
+
+    @Override
+    public List<Job> findPrevious(String flowId, Long buildNumber, String contextKey, String contextValue,
+                                  Collection<Job.Status> status) {
+        Criteria criteria = where("flowId").is(flowId)
+                .and("buildNumber").lt(buildNumber)
+                .and("parentId").exists(false)
+                .and(ContextField + "." + contextKey).is(contextValue)
+                .and("status").in(status);
+
+        return operations.find(query(criteria), Job.class);
+    }
+
+    private static void setIfChanged(Update update, String field, Object persisted, Object current) {
+        if (Objects.equals(persisted, current)) {
+            return;
+        }
+
+        if (Objects.isNull(current)) {
+            update.unset(field);
+            return;
+        }
+
+        update.set(field, current);
+    }
+
+    /**
+     * Set changed context keys individually, or set whole context if key cannot be used in field path
+     */
+    private static void setContextChanges(Update update, Map<String, Object> persisted,
+                                          Map<String, Object> current) {
+        if (Objects.isNull(current)) {
+            update.unset(ContextField);
+            return;
+        }
+
+        if (Objects.isNull(persisted)) {
+            update.set(ContextField, current);
+            return;
+        }
+
+        Map<String, Object> changed = new HashMap<>();
+        List<String> removed = new LinkedList<>();
+
+        for (Map.Entry<String, Object> entry : current.entrySet()) {
+            String key = entry.getKey();
+            if (persisted.containsKey(key) && Objects.equals(persisted.get(key), entry.getValue())) {
+                continue;
+            }
+            changed.put(key, entry.getValue());
+        }
+
+        for (String key : persisted.keySet()) {
+            if (!current.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+
+        for (String key : Iterables.concat(changed.keySet(), removed)) {
+            if (!isValidKey(key)) {
+                update.set(ContextField, current);
+                return;
+            }
+        }
+
+        changed.forEach((key, value) -> update.set(ContextField + "." + key, value));
+        removed.forEach(key -> update.unset(ContextField + "." + key));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toMap(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    private static boolean isValidKey(String key) {
+        return !key.isEmpty() && !key.contains(".") && !key.startsWith("$") && !key.equals(Vars.JSON_TYPE_FIELD);
+    }
+}
@@ -21,6 +21,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * @author yang
@@ -31,4 +32,10 @@ public interface ExecutedCmdDao extends MongoRepository<ExecutedCmd, String> {
     Long deleteByFlowId(String flowId);
 
     List<ExecutedCmd> findByFlowIdAndBuildNumber(String flowId, long buildNumber);
+
+    Optional<ExecutedCmd> findFirstByFlowIdAndCacheKeyAndStatusOrderByFinishAtDesc(String flowId,
+                                                                                  String cacheKey,
+                                                                                  ExecutedCmd.Status status);
+
+    List<ExecutedCmd> findAllByStatus(ExecutedCmd.Status status);
 }
@@ -17,6 +17,8 @@
 package com.flowci.core.job.dao;
 
 import com.flowci.core.job.domain.Job;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -27,9 +29,11 @@ import org.springframework.stereotype.Repository;
  * @author yang
  */
 @Repository
-public interface JobDao extends MongoRepository<Job, String> {
+public interface JobDao extends MongoRepository<Job, String>, CustomJobDao {
 
     Optional<Job> findByKey(String key);
 
     Long deleteByFlowId(String flowId);
+
+    List<Job> findAllByStatusIn(Collection<Job.Status> statuses);
 }
\ No newline at end of file
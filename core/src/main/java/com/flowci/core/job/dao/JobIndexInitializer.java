@@ -18,8 +18,10 @@ package com.flowci.core.job.dao;
 
 import com.flowci.domain.ExecutedCmd;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.index.CompoundIndexDefinition;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
@@ -39,5 +41,16 @@ public class JobIndexInitializer {
 
         mongoOps.indexOps(ExecutedCmd.class)
                 .ensureIndex(new CompoundIndexDefinition(fields));
+
+        Document cacheKeyFields = new Document();
+        cacheKeyFields.put("flowId", 1);
+        cacheKeyFields.put("cacheKey", 1);
+
+        mongoOps.indexOps(ExecutedCmd.class)
+                .ensureIndex(new CompoundIndexDefinition(cacheKeyFields));
+
+        // to load running steps for timeout
+        mongoOps.indexOps(ExecutedCmd.class)
+                .ensureIndex(new Index().on("status", Sort.Direction.ASC));
     }
 }
@@ -28,6 +28,6 @@ import org.springframework.stereotype.Repository;
 @Repository
 public interface JobItemDao extends MongoRepository<JobItem, String> {
 
-    Page<JobItem> findAllByFlowId(String flowId, Pageable pageable);
+    Page<JobItem> findAllByFlowIdAndParentIdIsNull(String flowId, Pageable pageable);
 
 }
@@ -0,0 +1,40 @@
+/*
+ *   Copyright (c) 2020 flow.ci
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.flowci.core.job.dao;
+
+import com.flowci.core.job.domain.Job;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Take snapshot of job once loaded or saved, which is used to find changed fields
+ */
+@Component
+public class JobSnapshotListener extends AbstractMongoEventListener<Job> {
+
+    @Override
+    public void onAfterConvert(AfterConvertEvent<Job> event) {
+        event.getSource().setSnapshot(event.getDocument());
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Job> event) {
+        event.getSource().setSnapshot(event.getDocument());
+    }
+}
@@ -26,13 +26,19 @@ import com.flowci.store.Pathable;
 import com.flowci.tree.Selector;
 import com.flowci.util.StringHelper;
 import com.google.common.collect.ImmutableSet;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -79,7 +85,12 @@ public class Job extends Mongoable implements Pathable {
         /**
          * Git tag event
          */
-        TAG
+        TAG,
+
+        /**
+         * Rerun from step of finished job
+         */
+        RERUN
     }
 
     public enum Status {
@@ -135,6 +146,7 @@ public class Job extends Mongoable implements Pathable {
      */
     @Getter
     @Setter
+    @EqualsAndHashCode
     public static class AgentInfo {
 
         private String name;
@@ -150,6 +162,18 @@ public class Job extends Mongoable implements Pathable {
         private int totalDisk;
 
         private int freeDisk;
+
+        public AgentInfo copy() {
+            AgentInfo info = new AgentInfo();
+            info.setName(name);
+            info.setOs(os);
+            info.setCpu(cpu);
+            info.setTotalMemory(totalMemory);
+            info.setFreeMemory(freeMemory);
+            info.setTotalDisk(totalDisk);
+            info.setFreeDisk(freeDisk);
+            return info;
+        }
     }
 
     public static Pathable path(Long buildNumber) {
@@ -182,6 +206,22 @@ public class Job extends Mongoable implements Pathable {
 
     private Long buildNumber;
 
+    /**
+     * Parent job id if it's expanded from matrix
+     */
+    @Indexed(name = "index_parent_id", sparse = true)
+    private String parentId;
+
+    /**
+     * Index start from 1 if it's expanded from matrix
+     */
+    private Integer matrixIndex;
+
+    /**
+     * Child job ids expanded from matrix
+     */
+    private List<String> children = new LinkedList<>();
+
     private Trigger trigger;
 
     private Status status = Status.PENDING;
@@ -194,6 +234,12 @@ public class Job extends Mongoable implements Pathable {
 
     private String currentPath;
 
+    /**
+     * Agent id of dispatched but not finished steps, key as node path,
+     * it's only applied on the steps run as graph
+     */
+    private Map<String, String> stepAgents = new HashMap<>();
+
     private Vars<String> context = new StringVars();
 
     private String message;
@@ -229,6 +275,18 @@ public class Job extends Mongoable implements Pathable {
      */
     private Date finishAt;
 
+    /**
+     * Sequence of step status changes, it's increased on database only
+     */
+    private long stepSeq;
+
+    /**
+     * Persisted document of job, taken when job loaded or saved, which is used to find changed fields
+     */
+    @Transient
+    @JsonIgnore
+    private transient org.bson.Document snapshot;
+
     @JsonIgnore
     public boolean isRunning() {
         return status == Status.RUNNING;
@@ -244,6 +302,16 @@ public class Job extends Mongoable implements Pathable {
         return FINISH_STATUS.contains(status);
     }
 
+    @JsonIgnore
+    public boolean hasParent() {
+        return parentId != null;
+    }
+
+    @JsonIgnore
+    public boolean isParent() {
+        return children != null && !children.isEmpty();
+    }
+
     @JsonIgnore
     public String getQueueName() {
         return "flow.q." + flowId + ".job";
@@ -252,6 +320,9 @@ public class Job extends Mongoable implements Pathable {
     @JsonIgnore
     @Override
     public String pathName() {
+        if (hasParent()) {
+            return getBuildNumber() + "-" + matrixIndex;
+        }
         return getBuildNumber().toString();
     }
 
@@ -289,6 +360,44 @@ public class Job extends Mongoable implements Pathable {
         agentInfo.setFreeDisk(agent.getResource().getFreeDisk());
     }
 
+    /**
+     * Copy job with its own collections, the snapshot is shared since it's not changed once taken
+     */
+    public Job copy() {
+        Job job = new Job();
+        job.setId(id);
+        job.setCreatedAt(createdAt);
+        job.setUpdatedAt(updatedAt);
+        job.setCreatedBy(createdBy);
+        job.setUpdatedBy(updatedBy);
+        job.setKey(key);
+        job.setFlowId(flowId);
+        job.setBuildNumber(buildNumber);
+        job.setParentId(parentId);
+        job.setMatrixIndex(matrixIndex);
+        job.setChildren(children == null ? null : new LinkedList<>(children));
+        job.setTrigger(trigger);
+        job.setStatus(status);
+        job.setAgentSelector(agentSelector);
+        job.setAgentId(agentId);
+        job.setAgentInfo(agentInfo == null ? null : agentInfo.copy());
+        job.setCurrentPath(currentPath);
+        job.setStepAgents(stepAgents == null ? null : new HashMap<>(stepAgents));
+        job.setContext(context == null ? null : new StringVars(context));
+        job.setMessage(message);
+        job.setPriority(priority);
+        job.setYamlFromRepo(isYamlFromRepo);
+        job.setYamlRepoBranch(yamlRepoBranch);
+        job.setTimeout(timeout);
+        job.setExpire(expire);
+        job.setExpireAt(expireAt);
+        job.setStartAt(startAt);
+        job.setFinishAt(finishAt);
+        job.setStepSeq(stepSeq);
+        job.snapshot = snapshot;
+        return job;
+    }
+
     @Override
     public boolean equals(Object o) {
         return super.equals(o);
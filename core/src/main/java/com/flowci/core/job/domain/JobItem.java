@@ -97,6 +97,9 @@ public class JobItem {
 
     private Long buildNumber;
 
+    @JsonIgnore
+    private String parentId;
+
     @JsonIgnore
     private String flowId;
 
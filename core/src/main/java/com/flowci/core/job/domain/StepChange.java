@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.job.domain;
+
+import com.flowci.domain.ExecutedCmd;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Pushed when step status changed, the seq is increased by one for each change of the job,
+ * so client is able to detect missing changes and reload the step list
+ */
+@Getter
+@AllArgsConstructor
+public class StepChange {
+
+    private final String jobId;
+
+    private final long seq;
+
+    private final ExecutedCmd step;
+}
@@ -16,6 +16,7 @@
 
 package com.flowci.core.job.event;
 
+import com.flowci.core.common.domain.SyncEvent;
 import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.job.domain.Job.Trigger;
 import com.flowci.domain.StringVars;
@@ -23,10 +24,13 @@ import lombok.Getter;
 import org.springframework.context.ApplicationEvent;
 
 /**
+ * Delivered in the trigger thread, so jobs of flow are submitted in trigger order,
+ * and the rejection of job creation is thrown to the trigger
+ *
  * @author yang
  */
 @Getter
-public class CreateNewJobEvent extends ApplicationEvent {
+public class CreateNewJobEvent extends ApplicationEvent implements SyncEvent {
 
     private final Flow flow;
 
@@ -20,9 +20,9 @@ import com.flowci.domain.ExecutedCmd;
 import lombok.Getter;
 import org.springframework.context.ApplicationEvent;
 
-import java.util.List;
-
 /**
+ * Status changed step of job, with sequence number of step changes in the job
+ *
  * @author yang
  */
 @Getter
@@ -30,11 +30,14 @@ public class StepStatusChangeEvent extends ApplicationEvent {
 
     private final String jobId;
 
-    private final List<ExecutedCmd> steps;
+    private final ExecutedCmd step;
+
+    private final long seq;
 
-    public StepStatusChangeEvent(Object source, String jobId, List<ExecutedCmd> steps) {
+    public StepStatusChangeEvent(Object source, String jobId, ExecutedCmd step, long seq) {
         super(source);
         this.jobId = jobId;
-        this.steps = steps;
+        this.step = step;
+        this.seq = seq;
     }
 }
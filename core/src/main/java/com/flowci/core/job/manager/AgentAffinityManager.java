@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.flow.event.FlowDeletedEvent;
+import com.flowci.domain.Agent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Track the agents which ran the flow recently, the work dir of flow on the agents is warm,
+ * ex: the git clone and the dependency caches can be reused.
+ * <p>
+ * The work dir is separated by slot of agent, so the slot is recorded with agent.
+ */
+@Component
+public class AgentAffinityManager {
+
+    private static final int MaxAgentsPerFlow = 3;
+
+    // key as flow id, value as agent and slot in the order of most recently used
+    private final Map<String, LinkedList<Warm>> recent = new HashMap<>();
+
+    @EventListener
+    public void onFlowDeleted(FlowDeletedEvent event) {
+        remove(event.getFlow().getId());
+    }
+
+    /**
+     * Record the agent and the slot as the most recent agent of the flow
+     */
+    public synchronized void record(String flowId, String agentId, int slot) {
+        LinkedList<Warm> agents = recent.computeIfAbsent(flowId, k -> new LinkedList<>());
+        agents.removeIf(warm -> warm.agentId.equals(agentId));
+        agents.addFirst(new Warm(agentId, slot));
+
+        while (agents.size() > MaxAgentsPerFlow) {
+            agents.removeLast();
+        }
+    }
+
+    /**
+     * Agent ids which ran the flow, most recent first
+     */
+    public synchronized List<String> list(String flowId) {
+        LinkedList<Warm> agents = recent.get(flowId);
+        if (agents == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> ids = new ArrayList<>(agents.size());
+        for (Warm warm : agents) {
+            ids.add(warm.agentId);
+        }
+        return ids;
+    }
+
+    /**
+     * Slot of the agent which ran the flow recently
+     */
+    public synchronized Optional<Integer> slot(String flowId, String agentId) {
+        LinkedList<Warm> agents = recent.get(flowId);
+        if (agents == null) {
+            return Optional.empty();
+        }
+
+        for (Warm warm : agents) {
+            if (warm.agentId.equals(agentId)) {
+                return Optional.of(warm.slot);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public synchronized void remove(String flowId) {
+        recent.remove(flowId);
+    }
+
+    /**
+     * Move the agents which ran the flow to the front in the order of most recent,
+     * the order of the other agents is kept
+     */
+    public List<Agent> sort(String flowId, List<Agent> agents) {
+        List<String> warm = list(flowId);
+        if (warm.isEmpty()) {
+            return agents;
+        }
+
+        List<Agent> sorted = new ArrayList<>(agents);
+        sorted.sort(Comparator.comparingInt(agent -> {
+            int index = warm.indexOf(agent.getId());
+            return index < 0 ? MaxAgentsPerFlow : index;
+        }));
+        return sorted;
+    }
+
+    private static class Warm {
+
+        private final String agentId;
+
+        private final int slot;
+
+        Warm(String agentId, int slot) {
+            this.agentId = agentId;
+            this.slot = slot;
+        }
+    }
+}
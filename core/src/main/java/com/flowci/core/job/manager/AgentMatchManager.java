@@ -0,0 +1,374 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.common.rabbit.RabbitOperation;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.util.PlacementHelper;
+import com.flowci.domain.Agent;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hold the jobs which are waiting for an idle agent, indexed by selector tags,
+ * and pair them with agents once the agent becomes idle.
+ * <p>
+ * The job message will not be ack until the job is matched, so the flow queue (prefetch = 1)
+ * will not deliver the next job of the same flow, and the consumer thread is not blocked.
+ * <p>
+ * Agents are shared by flows in weighted fair order: each flow has a pass which is increased by
+ * Stride / weight once its job is matched, the waiting job of flow with the smallest pass is matched first,
+ * then higher Job.priority and earlier arrival. The num of running jobs of flow is limited by max concurrent
+ * jobs of the flow, it's reserved once job is matched and released when job is done.
+ * <p>
+ * The waiting job could prefer the agents which ran the flow recently, only the preferred agents
+ * can take it until the end of the prefer window.
+ */
+@Component
+public class AgentMatchManager {
+
+    /**
+     * Index key for jobs without selector tags, can be matched by any agent
+     */
+    private static final String AnyTag = "*";
+
+    private static final long Stride = 1 << 20;
+
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    // key as flow id
+    private final Map<String, Share> shares = new HashMap<>();
+
+    // pass of the flow of last matched job
+    private long virtualPass = 0;
+
+    // key as tag, value as waiting jobs in arrival order
+    private final Map<String, NavigableSet<Waiting>> index = new HashMap<>();
+
+    // key as job id
+    private final Map<String, Waiting> waitings = new HashMap<>();
+
+    /**
+     * Put job to waiting list
+     */
+    public synchronized Waiting add(Job job, RabbitOperation.Message message) {
+        Waiting waiting = new Waiting(sequence.incrementAndGet(), job, message);
+        put(waiting);
+        return waiting;
+    }
+
+    /**
+     * Put the waiting job back with its original sequence and share of flow, ex: agent lock failure
+     */
+    public synchronized void putBack(Waiting waiting) {
+        Share share = share(waiting.getJob().getFlowId());
+        if (share.running.remove(waiting.getJob().getId())) {
+            share.pass -= Stride / share.weight;
+        }
+
+        put(waiting);
+    }
+
+    /**
+     * Let the waiting job be taken by the agents only until the deadline
+     */
+    public synchronized void prefer(Waiting waiting, Set<String> agentIds, long untilInMillis) {
+        waiting.preferred = agentIds;
+        waiting.preferUntil = untilInMillis;
+    }
+
+    /**
+     * Check the waiting job is still within the prefer window
+     */
+    public synchronized boolean isPreferring(Waiting waiting) {
+        return !waiting.preferred.isEmpty() && System.currentTimeMillis() < waiting.preferUntil;
+    }
+
+    /**
+     * Set weight and max concurrent jobs (0 as unlimited) of flow
+     */
+    public synchronized void setShare(String flowId, int weight, int maxConcurrent) {
+        Share share = share(flowId);
+        share.weight = Math.max(weight, 1);
+        share.maxConcurrent = Math.max(maxConcurrent, 0);
+    }
+
+    /**
+     * Reserve a running job of flow if max concurrent jobs not reached
+     *
+     * @return false if flow is full
+     */
+    public synchronized boolean reserve(Job job) {
+        Share share = share(job.getFlowId());
+        if (share.running.contains(job.getId())) {
+            return true;
+        }
+
+        if (share.isFull()) {
+            return false;
+        }
+
+        share.running.add(job.getId());
+        share.pass = Math.max(share.pass, virtualPass);
+        virtualPass = share.pass;
+        share.pass += Stride / share.weight;
+        return true;
+    }
+
+    /**
+     * Release the reserved running job of flow, ex: job is done
+     */
+    public synchronized void release(Job job) {
+        Share share = shares.get(job.getFlowId());
+        if (share != null) {
+            share.running.remove(job.getId());
+        }
+    }
+
+    /**
+     * Undo the reservation of job which is not dispatched, the share of flow is refunded
+     * so the job will not be charged again once it's matched later
+     */
+    public synchronized void unreserve(Job job) {
+        Share share = shares.get(job.getFlowId());
+        if (share != null && share.running.remove(job.getId())) {
+            share.pass -= Stride / share.weight;
+        }
+    }
+
+    public synchronized boolean isFull(String flowId) {
+        Share share = shares.get(flowId);
+        return share != null && share.isFull();
+    }
+
+    public synchronized int numOfRunning(String flowId) {
+        Share share = shares.get(flowId);
+        return share == null ? 0 : share.running.size();
+    }
+
+    /**
+     * Find, remove and reserve the waiting job which can be run on the agent in fair share order,
+     * the job is skipped if agent has not enough resource
+     */
+    public synchronized Optional<Waiting> poll(Agent agent) {
+        Set<String> keys = new HashSet<>();
+        keys.add(AnyTag);
+
+        if (agent.getTags() != null) {
+            keys.addAll(agent.getTags());
+        }
+
+        Waiting selected = null;
+
+        for (String key : keys) {
+            NavigableSet<Waiting> set = index.get(key);
+            if (set == null) {
+                continue;
+            }
+
+            for (Waiting candidate : set) {
+                if (share(candidate.getJob().getFlowId()).isFull()) {
+                    continue;
+                }
+
+                if (!PlacementHelper.fits(agent, candidate.getJob().getAgentSelector())) {
+                    continue;
+                }
+
+                if (isPreferring(candidate) && !candidate.preferred.contains(agent.getId())) {
+                    continue;
+                }
+
+                if (selected == null || compare(candidate, selected) < 0) {
+                    selected = candidate;
+                }
+            }
+        }
+
+        if (selected == null) {
+            return Optional.empty();
+        }
+
+        remove(selected);
+        reserve(selected.getJob());
+        return Optional.of(selected);
+    }
+
+    /**
+     * Remove and reserve the waiting job
+     *
+     * @return false if waiting job has been matched or removed, or flow is full
+     */
+    public synchronized boolean take(Waiting waiting) {
+        if (!waitings.containsKey(waiting.getJob().getId())) {
+            return false;
+        }
+
+        if (!reserve(waiting.getJob())) {
+            return false;
+        }
+
+        return remove(waiting);
+    }
+
+    /**
+     * Remove waiting job
+     *
+     * @return false if waiting job has been matched or removed
+     */
+    public synchronized boolean remove(Waiting waiting) {
+        if (waitings.remove(waiting.getJob().getId()) == null) {
+            return false;
+        }
+
+        for (String key : keys(waiting.getJob())) {
+            NavigableSet<Waiting> set = index.get(key);
+            if (set == null) {
+                continue;
+            }
+
+            set.remove(waiting);
+            if (set.isEmpty()) {
+                index.remove(key);
+            }
+        }
+
+        return true;
+    }
+
+    public synchronized Optional<Waiting> get(String jobId) {
+        return Optional.ofNullable(waitings.get(jobId));
+    }
+
+    /**
+     * Remove all waiting jobs from flow job queue
+     */
+    public synchronized List<Waiting> remove(String queueName) {
+        List<Waiting> removed = new LinkedList<>();
+
+        for (Waiting waiting : list()) {
+            if (waiting.getJob().getQueueName().equals(queueName)) {
+                remove(waiting);
+                removed.add(waiting);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * List all waiting jobs in arrival order
+     */
+    public synchronized List<Waiting> list() {
+        List<Waiting> list = new ArrayList<>(waitings.values());
+        list.sort(Comparator.comparingLong(Waiting::getSeq));
+        return list;
+    }
+
+    public synchronized int size() {
+        return waitings.size();
+    }
+
+    private void put(Waiting waiting) {
+        waitings.put(waiting.getJob().getId(), waiting);
+
+        // flow has been idle should not take the accumulated share
+        Share share = share(waiting.getJob().getFlowId());
+        share.pass = Math.max(share.pass, virtualPass);
+
+        for (String key : keys(waiting.getJob())) {
+            index.computeIfAbsent(key, k -> new TreeSet<>(Comparator.comparingLong(Waiting::getSeq)))
+                    .add(waiting);
+        }
+    }
+
+    private static Set<String> keys(Job job) {
+        if (job.getAgentSelector() == null) {
+            return Collections.singleton(AnyTag);
+        }
+
+        Set<String> tags = job.getAgentSelector().getTags();
+        if (tags == null || tags.isEmpty()) {
+            return Collections.singleton(AnyTag);
+        }
+
+        return tags;
+    }
+
+    private Share share(String flowId) {
+        return shares.computeIfAbsent(flowId, k -> new Share());
+    }
+
+    /**
+     * Compare by pass of flow, then higher job priority, then arrival order
+     */
+    private int compare(Waiting w1, Waiting w2) {
+        long pass1 = share(w1.getJob().getFlowId()).pass;
+        long pass2 = share(w2.getJob().getFlowId()).pass;
+        if (pass1 != pass2) {
+            return Long.compare(pass1, pass2);
+        }
+
+        int priority1 = w1.getJob().getPriority() == null ? 0 : w1.getJob().getPriority();
+        int priority2 = w2.getJob().getPriority() == null ? 0 : w2.getJob().getPriority();
+        if (priority1 != priority2) {
+            return Integer.compare(priority2, priority1);
+        }
+
+        return Long.compare(w1.getSeq(), w2.getSeq());
+    }
+
+    private static class Share {
+
+        private int weight = 1;
+
+        private int maxConcurrent = 0;
+
+        private long pass = 0;
+
+        // running job ids
+        private final Set<String> running = new HashSet<>();
+
+        boolean isFull() {
+            return maxConcurrent > 0 && running.size() >= maxConcurrent;
+        }
+    }
+
+    @Getter
+    public static class Waiting {
+
+        private final long seq;
+
+        private final Job job;
+
+        private final RabbitOperation.Message message;
+
+        // agent ids can take the job before prefer until
+        private Set<String> preferred = Collections.emptySet();
+
+        private long preferUntil;
+
+        private Waiting(long seq, Job job, RabbitOperation.Message message) {
+            this.seq = seq;
+            this.job = job;
+            this.message = message;
+        }
+    }
+}
@@ -21,6 +21,8 @@ import com.flowci.core.job.domain.Job;
 import com.flowci.domain.CmdIn;
 import com.flowci.tree.Node;
 
+import java.util.Optional;
+
 /**
  * @author yang
  */
@@ -30,5 +32,12 @@ public interface CmdManager {
 
     CmdIn createShellCmd(Job job, Node node);
 
+    /**
+     * Create cache key of node result from script, plugin, inputs and git commit
+     *
+     * @return empty if cache result is not enabled on node
+     */
+    Optional<String> createCacheKey(Job job, Node node);
+
     CmdIn createKillCmd();
 }
@@ -16,6 +16,7 @@
 
 package com.flowci.core.job.manager;
 
+import com.flowci.core.common.domain.Variables;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.plugin.domain.*;
 import com.flowci.core.plugin.service.PluginService;
@@ -23,14 +24,22 @@ import com.flowci.domain.*;
 import com.flowci.exception.ArgumentException;
 import com.flowci.exception.NotAvailableException;
 import com.flowci.tree.Node;
+import com.flowci.util.HashingHelper;
 import com.flowci.util.StringHelper;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
 
+import static com.flowci.core.trigger.domain.Variables.GIT_COMMIT_ID;
+
 /**
  * @author yang
  */
@@ -72,6 +81,52 @@ public class CmdManagerImpl implements CmdManager {
         return cmd;
     }
 
+    @Override
+    public Optional<String> createCacheKey(Job job, Node node) {
+        if (!node.isCacheResult()) {
+            return Optional.empty();
+        }
+
+        Vars<String> context = new StringVars()
+                .merge(job.getContext())
+                .merge(node.getEnvironments());
+
+        // result cannot be identified without git commit, ex: triggered manually or by scheduler
+        String commitId = context.get(GIT_COMMIT_ID);
+        if (Strings.isNullOrEmpty(commitId)) {
+            return Optional.empty();
+        }
+
+        // inputs declared in yml and plugin, sorted by name
+        Map<String, String> inputs = new TreeMap<>();
+        if (Objects.nonNull(node.getParent())) {
+            inputs.putAll(node.getParent().getEnvironments());
+        }
+        inputs.putAll(node.getEnvironments());
+
+        StringBuilder builder = new StringBuilder()
+                .append(job.getFlowId()).append('\n')
+                .append(node.getPathAsString()).append('\n')
+                .append(commitId).append('\n')
+                .append(context.get(Variables.Job.Matrix, StringHelper.EMPTY)).append('\n')
+                .append(Strings.nullToEmpty(node.getScript())).append('\n');
+
+        if (node.hasPlugin()) {
+            Plugin plugin = pluginService.get(node.getPlugin());
+            builder.append(plugin.getName()).append('@').append(plugin.getVersion()).append('\n');
+
+            for (Input input : plugin.getInputs()) {
+                inputs.put(input.getName(), context.get(input.getName(), StringHelper.EMPTY));
+            }
+        }
+
+        for (Map.Entry<String, String> entry : inputs.entrySet()) {
+            builder.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+
+        return Optional.of(HashingHelper.md5(builder.toString()));
+    }
+
     @Override
     public CmdIn createKillCmd() {
         return new CmdIn(UUID.randomUUID().toString(), CmdType.KILL);
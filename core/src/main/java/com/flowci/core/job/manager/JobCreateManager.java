@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.exception.NotAvailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run job creation tasks of different flows in parallel, and tasks of the same flow one by one
+ * in the submitted order, so the build number is in order of request.
+ * <p>
+ * The num of pending tasks is limited, the caller will wait for a while and get
+ * NotAvailableException if it's still full.
+ */
+@Log4j2
+@Component
+public class JobCreateManager {
+
+    private static final long SubmitTimeoutInMillis = 5 * 1000;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    @Autowired
+    private ThreadPoolTaskExecutor jobRunExecutor;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // key as flow id, value as tasks in submitted order, the first task is running or scheduled
+    private final Map<String, Deque<Runnable>> queues = new HashMap<>();
+
+    // flow ids of which the first task is rejected by executor, guarded by queues
+    private final Set<String> unscheduled = new LinkedHashSet<>();
+
+    private final AtomicLong numOfRejected = new AtomicLong(0);
+
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(jobProperties.getCreateQueueSize());
+
+        if (meterRegistry != null) {
+            Gauge.builder("flowci.job.create.pending", this, m -> m.stats().getNumOfPending()).register(meterRegistry);
+            Gauge.builder("flowci.job.create.flows", this, m -> m.stats().getNumOfFlows()).register(meterRegistry);
+            FunctionCounter.builder("flowci.job.create.rejected", this, m -> m.stats().getNumOfRejected())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Submit job creation task of flow
+     *
+     * @throws NotAvailableException if too many tasks are pending
+     */
+    public void submit(String flowId, Runnable task) {
+        if (!tryAcquire()) {
+            numOfRejected.incrementAndGet();
+            throw new NotAvailableException("Too many jobs are waiting to be created, please try again later");
+        }
+
+        synchronized (queues) {
+            Deque<Runnable> queue = queues.computeIfAbsent(flowId, k -> new ArrayDeque<>());
+            queue.add(task);
+
+            if (queue.size() == 1) {
+                schedule(flowId);
+            }
+        }
+
+        scheduleRejected();
+    }
+
+    public Stats stats() {
+        synchronized (queues) {
+            int numOfPending = jobProperties.getCreateQueueSize() - permits.availablePermits();
+            return new Stats(numOfPending, queues.size(), jobRunExecutor.getActiveCount(), numOfRejected.get());
+        }
+    }
+
+    private boolean tryAcquire() {
+        try {
+            return permits.tryAcquire(SubmitTimeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Run the first task of flow, and schedule the next task of flow once it's done,
+     * rather than run all tasks of flow in a row, so the flows are processed in turn.
+     * <p>
+     * The task is left in queue if it's rejected by executor, and rescheduled after any task done
+     */
+    private void schedule(String flowId) {
+        if (!trySchedule(flowId)) {
+            unscheduled.add(flowId);
+        }
+    }
+
+    private boolean trySchedule(String flowId) {
+        try {
+            jobRunExecutor.execute(() -> runNext(flowId));
+            return true;
+        } catch (TaskRejectedException e) {
+            // should not happen since executor queue size is same as num of permits
+            log.warn("Job creation task of flow {} is rejected, will be rescheduled later", flowId);
+            return false;
+        }
+    }
+
+    private void scheduleRejected() {
+        synchronized (queues) {
+            Iterator<String> iterator = unscheduled.iterator();
+            while (iterator.hasNext()) {
+                if (!trySchedule(iterator.next())) {
+                    return;
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private void runNext(String flowId) {
+        Runnable task;
+        synchronized (queues) {
+            task = queues.get(flowId).peek();
+        }
+
+        try {
+            task.run();
+        } catch (Throwable e) {
+            log.warn("Unexpected error on job creation of flow {}", flowId, e);
+        } finally {
+            permits.release();
+        }
+
+        synchronized (queues) {
+            Deque<Runnable> queue = queues.get(flowId);
+            queue.poll();
+
+            if (queue.isEmpty()) {
+                queues.remove(flowId);
+            } else {
+                schedule(flowId);
+            }
+        }
+
+        scheduleRejected();
+    }
+
+    @Getter
+    public static class Stats {
+
+        private final int numOfPending;
+
+        private final int numOfFlows;
+
+        private final int numOfActiveThreads;
+
+        private final long numOfRejected;
+
+        private Stats(int numOfPending, int numOfFlows, int numOfActiveThreads, long numOfRejected) {
+            this.numOfPending = numOfPending;
+            this.numOfFlows = numOfFlows;
+            this.numOfActiveThreads = numOfActiveThreads;
+            this.numOfRejected = numOfRejected;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.job.dao.ExecutedCmdDao;
+import com.flowci.core.job.dao.JobDao;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.event.JobStatusChangeEvent;
+import com.flowci.core.job.event.StepStatusChangeEvent;
+import com.flowci.core.job.util.TimingWheel;
+import com.flowci.domain.CmdIn;
+import com.flowci.domain.ExecutedCmd;
+import com.google.common.collect.ImmutableList;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Track the deadline of queued jobs, running jobs and running steps,
+ * which is updated from job and step status change events, and loaded from database on start up.
+ * <p>
+ * - queued job: expire seconds after created
+ * - running job: expire at of job, which includes the expire and timeout seconds
+ * - running step: timeout seconds of cmd after dispatched
+ * - affinity: the end of window to wait for the agent which ran the flow recently
+ */
+@Log4j2
+@Component
+public class JobTimeoutManager {
+
+    private static final long TickInMillis = 1000; // 1 seconds
+
+    @Autowired
+    private JobDao jobDao;
+
+    @Autowired
+    private ExecutedCmdDao executedCmdDao;
+
+    private final TimingWheel<Timeout> wheel = new TimingWheel<>(TickInMillis, System.currentTimeMillis());
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void load() {
+        List<Job> jobs = jobDao.findAllByStatusIn(ImmutableList.of(Job.Status.QUEUED, Job.Status.RUNNING));
+        for (Job job : jobs) {
+            add(job);
+        }
+
+        List<ExecutedCmd> steps = executedCmdDao.findAllByStatus(ExecutedCmd.Status.RUNNING);
+        for (ExecutedCmd step : steps) {
+            add(step);
+        }
+
+        log.info("{} job and step timeout been loaded", size());
+    }
+
+    @EventListener
+    public void onJobStatusChange(JobStatusChangeEvent event) {
+        add(event.getJob());
+    }
+
+    @EventListener
+    public void onStepStatusChange(StepStatusChangeEvent event) {
+        add(event.getStep());
+    }
+
+    /**
+     * Get timeouts which are over the deadline, they will not be returned again
+     */
+    public synchronized List<Timeout> expired() {
+        return wheel.advance(System.currentTimeMillis());
+    }
+
+    public synchronized int size() {
+        return wheel.size();
+    }
+
+    /**
+     * Add deadline of the job waiting for the agent which ran the flow recently
+     */
+    public synchronized void addAffinity(String jobId, long deadlineInMillis) {
+        wheel.add(new Timeout(Type.AFFINITY, jobId), deadlineInMillis);
+    }
+
+    private synchronized void add(Job job) {
+        // parent of matrix will be finished by child jobs
+        if (job.isParent() || Objects.isNull(job.getExpireAt())) {
+            return;
+        }
+
+        Timeout queued = new Timeout(Type.QUEUED, job.getId());
+        Timeout running = new Timeout(Type.RUNNING, job.getId());
+        long expireAt = job.getExpireAt().getTime();
+
+        if (job.isQueuing()) {
+            wheel.add(queued, expireAt - job.getTimeout() * 1000);
+            return;
+        }
+
+        wheel.remove(queued);
+
+        if (job.isRunning()) {
+            wheel.add(running, expireAt);
+            return;
+        }
+
+        wheel.remove(running);
+    }
+
+    private synchronized void add(ExecutedCmd step) {
+        Timeout timeout = new Timeout(Type.STEP, step.getId());
+
+        if (!step.isRunning()) {
+            wheel.remove(timeout);
+            return;
+        }
+
+        long startAt = Objects.isNull(step.getStartAt()) ? System.currentTimeMillis() : step.getStartAt().getTime();
+        int seconds = Objects.isNull(step.getTimeout()) ? CmdIn.DEFAULT_TIMEOUT : step.getTimeout();
+        wheel.add(timeout, startAt + seconds * 1000L);
+    }
+
+    public enum Type {
+
+        QUEUED,
+
+        RUNNING,
+
+        STEP,
+
+        AFFINITY
+    }
+
+    /**
+     * Id as job id for QUEUED, RUNNING and AFFINITY, cmd id for STEP
+     */
+    @Getter
+    @ToString
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    public static class Timeout {
+
+        private final Type type;
+
+        private final String id;
+    }
+}
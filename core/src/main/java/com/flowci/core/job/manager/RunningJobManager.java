@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.job.dao.JobDao;
+import com.flowci.core.job.domain.Job;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hold running jobs in memory as write-behind cache for the cmd callback,
+ * the changes of running job are flushed to database periodically,
+ * and the job is saved synchronously and evicted once it's finished.
+ * <p>
+ * The job instance is the lock of itself, it should be modified within synchronized (job) block
+ * <p>
+ * The running job is owned by the server which holds it, so it assumes a single core server,
+ * since the cmd callback or cancel request received by other server would read the job not flushed yet.
+ * It should be disabled by app.job.write-behind=false if multiple core servers are deployed,
+ * then running jobs are not held and all changes are written to database directly.
+ */
+@Log4j2
+@Component
+public class RunningJobManager {
+
+    private static final long FlushInterval = 1000; // 1 seconds
+
+    @Autowired
+    private JobDao jobDao;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    // key as job id
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    // job ids with changes not yet flushed
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Get the held instance of running job, it's for update only
+     */
+    public Optional<Job> get(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * Get a copy of running job taken within lock, it's for read
+     */
+    public Optional<Job> copy(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        synchronized (job) {
+            return Optional.of(job.copy());
+        }
+    }
+
+    /**
+     * Hold the running job which has been saved, it's ignored if write-behind disabled
+     */
+    public void add(Job job) {
+        if (!isWriteBehind()) {
+            return;
+        }
+        jobs.put(job.getId(), job);
+    }
+
+    public boolean isWriteBehind() {
+        return !Boolean.FALSE.equals(jobProperties.getWriteBehind());
+    }
+
+    /**
+     * Mark running job as changed, it will be saved in next flush
+     *
+     * @return false if job instance not held, ex: job has been finished
+     */
+    public boolean update(Job job) {
+        synchronized (job) {
+            if (jobs.get(job.getId()) != job) {
+                return false;
+            }
+
+            dirty.add(job.getId());
+            return true;
+        }
+    }
+
+    /**
+     * Save job synchronously and remove it from memory
+     */
+    public Job remove(Job job) {
+        synchronized (job) {
+            dirty.remove(job.getId());
+            jobs.remove(job.getId());
+            return jobDao.saveChanges(job);
+        }
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Save changed jobs
+     */
+    @Scheduled(fixedDelay = FlushInterval)
+    public void flush() {
+        for (String jobId : new ArrayList<>(dirty)) {
+            dirty.remove(jobId);
+
+            Job job = jobs.get(jobId);
+            if (job == null) {
+                continue;
+            }
+
+            try {
+                synchronized (job) {
+                    if (jobs.containsKey(jobId)) {
+                        jobDao.saveChanges(job);
+                    }
+                }
+            } catch (Throwable e) {
+                dirty.add(jobId);
+                log.warn("Unable to flush job {}: {}", job.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+}
@@ -46,7 +46,7 @@ public class YmlManagerImpl implements YmlManager {
 
     @Override
     public JobYml get(Job job) {
-        Optional<JobYml> optional = jobYmlDao.findById(job.getId());
+        Optional<JobYml> optional = jobYmlDao.findById(ymlId(job));
 
         if (optional.isPresent()) {
             return optional.get();
@@ -63,11 +63,18 @@ public class YmlManagerImpl implements YmlManager {
 
     @Override
     public NodeTree getTree(Job job) {
-        return jobTreeCache.get(job.getId(), s -> {
-            log.debug("Cache tree for job: {}", job.getId());
-            JobYml yml = jobYmlDao.findById(job.getId()).get();
+        return jobTreeCache.get(ymlId(job), id -> {
+            log.debug("Cache tree for job: {}", id);
+            JobYml yml = jobYmlDao.findById(id).get();
             Node root = YmlParser.load(yml.getName(), yml.getRaw());
             return NodeTree.create(root);
         });
     }
+
+    /**
+     * Child jobs of matrix share the yml of parent
+     */
+    private static String ymlId(Job job) {
+        return job.hasParent() ? job.getParentId() : job.getId();
+    }
 }
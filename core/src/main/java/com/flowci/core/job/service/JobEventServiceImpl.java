@@ -19,8 +19,8 @@ package com.flowci.core.job.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flowci.core.agent.event.AgentStatusEvent;
 import com.flowci.core.agent.service.AgentService;
+import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.domain.Variables;
-import com.flowci.core.common.helper.ThreadHelper;
 import com.flowci.core.common.manager.SpringEventManager;
 import com.flowci.core.common.rabbit.RabbitChannelOperation;
 import com.flowci.core.common.rabbit.RabbitOperation;
@@ -29,33 +29,46 @@ import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.flow.event.FlowCreatedEvent;
 import com.flowci.core.flow.event.FlowDeletedEvent;
 import com.flowci.core.flow.event.FlowInitEvent;
+import com.flowci.core.flow.event.FlowUpdatedEvent;
+import com.flowci.core.job.dao.JobDao;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.event.CreateNewJobEvent;
 import com.flowci.core.job.event.JobReceivedEvent;
+import com.flowci.core.job.event.JobStatusChangeEvent;
 import com.flowci.core.job.event.NoIdleAgentEvent;
+import com.flowci.core.job.manager.AgentAffinityManager;
+import com.flowci.core.job.manager.AgentMatchManager;
+import com.flowci.core.job.manager.AgentMatchManager.Waiting;
 import com.flowci.core.job.manager.CmdManager;
 import com.flowci.core.job.manager.FlowJobQueueManager;
+import com.flowci.core.job.manager.JobCreateManager;
+import com.flowci.core.job.manager.JobTimeoutManager;
+import com.flowci.core.job.manager.JobTimeoutManager.Timeout;
+import com.flowci.core.job.manager.RunningJobManager;
 import com.flowci.core.job.manager.YmlManager;
+import com.flowci.core.job.util.PlacementHelper;
 import com.flowci.core.job.util.StatusHelper;
 import com.flowci.domain.*;
 import com.flowci.exception.NotAvailableException;
+import com.flowci.exception.NotFoundException;
 import com.flowci.tree.GroovyRunner;
 import com.flowci.tree.Node;
 import com.flowci.tree.NodePath;
 import com.flowci.tree.NodeTree;
+import com.flowci.tree.Selector;
+import com.flowci.tree.SimpleExpression;
 import groovy.util.ScriptException;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 @Log4j2
@@ -64,6 +77,10 @@ public class JobEventServiceImpl implements JobEventService {
 
     private static final Integer DefaultBeforeTimeout = 5;
 
+    private static final long WaitingCheckInterval = 30 * 1000; // 30 seconds
+
+    private static final long TimeoutCheckInterval = 1000; // 1 seconds
+
     @Autowired
     private SpringEventManager eventManager;
 
@@ -79,15 +96,24 @@ public class JobEventServiceImpl implements JobEventService {
     @Autowired
     private FlowJobQueueManager flowJobQueueManager;
 
+    @Autowired
+    private AgentMatchManager agentMatchManager;
+
     @Autowired
     private RabbitQueueOperation callbackQueueManager;
 
     @Autowired
     private RabbitQueueOperation deadLetterQueueManager;
 
+    @Autowired
+    private JobDao jobDao;
+
     @Autowired
     private JobService jobService;
 
+    @Autowired
+    private RunningJobManager runningJobManager;
+
     @Autowired
     private AgentService agentService;
 
@@ -95,9 +121,16 @@ public class JobEventServiceImpl implements JobEventService {
     private StepService stepService;
 
     @Autowired
-    private ThreadPoolTaskExecutor jobRunExecutor;
+    private JobCreateManager jobCreateManager;
+
+    @Autowired
+    private JobTimeoutManager jobTimeoutManager;
+
+    @Autowired
+    private AgentAffinityManager agentAffinityManager;
 
-    private final Map<String, JobConsumerHandler> consumeHandlers = new ConcurrentHashMap<>();
+    @Autowired
+    private ConfigProperties.Job jobProperties;
 
     //====================================================================
     //        %% Internal events
@@ -153,6 +186,24 @@ public class JobEventServiceImpl implements JobEventService {
         consumer.start(true);
     }
 
+    /**
+     * Reserve the running jobs of flow, they will be released once job is done
+     */
+    @EventListener(value = ContextRefreshedEvent.class)
+    public void loadRunningJobs(ContextRefreshedEvent e) {
+        for (Job job : jobDao.findAllByStatusIn(Collections.singleton(Job.Status.RUNNING))) {
+            if (!job.isParent()) {
+                agentMatchManager.reserve(job);
+            }
+        }
+    }
+
+    @EventListener
+    public void updateFlowShare(FlowUpdatedEvent event) {
+        Flow flow = event.getFlow();
+        agentMatchManager.setShare(flow.getId(), flow.getWeight(), flow.getMaxConcurrentJobs());
+    }
+
     @EventListener
     public void deleteJob(FlowDeletedEvent event) {
         stopJobConsumer(event.getFlow());
@@ -164,17 +215,22 @@ public class JobEventServiceImpl implements JobEventService {
         startJobConsumer(event.getFlow());
     }
 
+    /**
+     * Submit job creation of flow, the rejection is thrown to the trigger,
+     * or kept as failure job if it's triggered by scheduler since no one to respond
+     */
     @EventListener
     public void startNewJob(CreateNewJobEvent event) {
-        jobRunExecutor.execute(() -> {
-            try {
-                Job job = jobService.create(event.getFlow(), event.getYml(), event.getTrigger(), event.getInput());
-                jobService.start(job);
-            } catch (NotAvailableException e) {
-                Job job = (Job) e.getExtra();
-                jobService.setJobStatusAndSave(job, Job.Status.FAILURE, e.getMessage());
+        try {
+            jobCreateManager.submit(event.getFlow().getId(), () -> createJob(event, null));
+        } catch (NotAvailableException e) {
+            if (event.getTrigger() != Job.Trigger.SCHEDULER) {
+                throw e;
             }
-        });
+
+            log.warn("Scheduled job of flow {} is rejected: {}", event.getFlow().getName(), e.getMessage());
+            createJob(event, e.getMessage());
+        }
     }
 
     @EventListener
@@ -185,37 +241,129 @@ public class JobEventServiceImpl implements JobEventService {
             return;
         }
 
-        if (!agent.hasJob()) {
-            return;
+        matchWaitingJob(agent);
+    }
+
+    /**
+     * Double check waiting jobs in case of missing agent status event,
+     * and time out the jobs which are expired while waiting for agent
+     */
+    @Scheduled(fixedDelay = WaitingCheckInterval)
+    public void scheduleWaitingJobs() {
+        for (Waiting waiting : agentMatchManager.list()) {
+            Job job = waiting.getJob();
+
+            if (jobService.isExpired(job)) {
+                if (agentMatchManager.remove(waiting)) {
+                    jobService.setJobStatusAndSave(job, Job.Status.TIMEOUT, "expired while waiting for agent");
+                    waiting.getMessage().sendAck();
+                    logInfo(job, "expired");
+                }
+                continue;
+            }
+
+            dispatchWaitingJob(waiting);
         }
+    }
 
-        // notify all consumer to find agent
-        consumeHandlers.forEach((s, handler) -> handler.resume());
+    /**
+     * Time out the queued jobs, running jobs and running steps which are over the deadline
+     */
+    @Scheduled(fixedDelay = TimeoutCheckInterval)
+    public void scheduleTimeout() {
+        for (Timeout timeout : jobTimeoutManager.expired()) {
+            try {
+                switch (timeout.getType()) {
+                    case QUEUED:
+                        timeoutQueuedJob(timeout.getId());
+                        break;
+                    case RUNNING:
+                        timeoutRunningJob(timeout.getId());
+                        break;
+                    case STEP:
+                        timeoutStep(timeout.getId());
+                        break;
+                    case AFFINITY:
+                        agentMatchManager.get(timeout.getId()).ifPresent(this::dispatchWaitingJob);
+                        break;
+                }
+            } catch (Throwable e) {
+                log.warn("Unable to handle {}: {}", timeout, e.getMessage());
+            }
+        }
     }
 
     @EventListener(value = AgentStatusEvent.class)
     public void updateJobAndStep(AgentStatusEvent event) {
         Agent agent = event.getAgent();
 
-        if (agent.getStatus() != Agent.Status.OFFLINE || Objects.isNull(agent.getJobId())) {
+        if (agent.getStatus() != Agent.Status.OFFLINE) {
             return;
         }
 
-        Job job = jobService.get(agent.getJobId());
-        if (job.isDone()) {
+        // jobs of all slots on the agent
+        Set<String> jobIds = new LinkedHashSet<>(agent.getJobSlots().keySet());
+        if (agent.hasJob()) {
+            jobIds.add(agent.getJobId());
+        }
+
+        for (String jobId : jobIds) {
+            cancelJobOnOfflineAgent(getJob(jobId), agent);
+        }
+    }
+
+    /**
+     * Release the job message if job cancelled or superseded while waiting for agent
+     */
+    @EventListener
+    public void removeWaitingJob(JobStatusChangeEvent event) {
+        Job job = event.getJob();
+
+        if (!job.isDone()) {
             return;
         }
 
-        // update step status
-        List<ExecutedCmd> steps = stepService.list(job);
-        for (ExecutedCmd step : steps) {
-            if (step.isRunning() || step.isPending()) {
-                stepService.statusChange(step, ExecutedCmd.Status.SKIPPED, null);
+        Optional<Waiting> waiting = agentMatchManager.get(job.getId());
+        if (waiting.isPresent() && agentMatchManager.remove(waiting.get())) {
+            waiting.get().getMessage().sendAck();
+            logInfo(job, "removed from waiting list since {}", job.getStatus());
+        }
+    }
+
+    /**
+     * Release the running job of flow, and dispatch the waiting job of flow which was limited by max concurrent jobs
+     */
+    @EventListener
+    public void releaseFlowShare(JobStatusChangeEvent event) {
+        Job job = event.getJob();
+
+        if (!job.isDone() || job.isParent()) {
+            return;
+        }
+
+        boolean isFull = agentMatchManager.isFull(job.getFlowId());
+        agentMatchManager.release(job);
+
+        if (!isFull) {
+            return;
+        }
+
+        for (Waiting waiting : agentMatchManager.list()) {
+            if (waiting.getJob().getFlowId().equals(job.getFlowId())) {
+                dispatchWaitingJob(waiting);
             }
         }
+    }
 
-        // update job status
-        jobService.setJobStatusAndSave(job, Job.Status.CANCELLED, "Agent unexpected offline");
+    @EventListener
+    public void updateMatrixJob(JobStatusChangeEvent event) {
+        Job job = event.getJob();
+
+        if (!job.hasParent()) {
+            return;
+        }
+
+        updateParentStatus(job.getParentId());
     }
 
     //====================================================================
@@ -231,67 +379,145 @@ public class JobEventServiceImpl implements JobEventService {
         }
 
         // get cmd related job
-        Job job = jobService.get(cmdId.getJobId());
-        NodePath currentPath = NodePath.create(cmdId.getNodePath());
+        Job job = getJob(cmdId.getJobId());
 
-        // verify job node path is match cmd node path
-        if (!currentPath.equals(currentNodePath(job))) {
-            log.error("Invalid executed cmd callback: does not match job current node path");
-            return;
-        }
+        // the running job is held in memory, lock it while changing
+        synchronized (job) {
+            NodePath currentPath = NodePath.create(cmdId.getNodePath());
+            NodeTree tree = ymlManager.getTree(job);
 
-        // verify job status
-        if (!job.isRunning()) {
-            log.error("Cannot handle cmd callback since job is not running: {}", job.getStatus());
-            return;
-        }
+            // verify job node path is match cmd node path
+            if (!isDispatched(job, tree, currentPath)) {
+                log.error("Invalid executed cmd callback: does not match job current node path");
+                return;
+            }
 
-        NodeTree tree = ymlManager.getTree(job);
-        Node node = tree.get(currentPath);
+            // verify job status
+            if (!job.isRunning()) {
+                log.error("Cannot handle cmd callback since job is not running: {}", job.getStatus());
+                return;
+            }
 
-        // save executed cmd
-        stepService.resultUpdate(execCmd);
-        log.debug("Executed cmd {} been recorded", execCmd);
+            Node node = tree.get(currentPath);
 
-        updateJobTime(job, tree, node, execCmd);
+            // save executed cmd
+            stepService.resultUpdate(execCmd);
+            log.debug("Executed cmd {} been recorded", execCmd);
 
-        setJobContext(job, node, execCmd);
+            updateJobTime(job, tree, node, execCmd);
 
-        // find next node
-        Node next = findNext(job, tree, node, execCmd.isSuccess());
-        Agent current = agentService.get(job.getAgentId());
+            setJobContext(job, node, execCmd);
 
-        // job finished
-        if (Objects.isNull(next)) {
-            Job.Status statusFromContext = Job.Status.valueOf(job.getContext().get(Variables.Job.Status));
-            jobService.setJobStatusAndSave(job, statusFromContext, execCmd.getError());
+            // steps of graph are dispatched to multiple agents
+            if (tree.isGraph()) {
+                String agentId = job.getStepAgents().remove(currentPath.getPathInStr());
+                dispatchGraph(job, tree, node, agentService.get(agentId));
+                return;
+            }
 
-            agentService.tryRelease(current);
-            logInfo(job, "finished with status {}", statusFromContext);
-            return;
-        }
+            // find next node
+            Node next = findNext(job, tree, node, execCmd.isSuccess());
+            Agent current = agentService.get(job.getAgentId());
 
-        // continue to run next node
-        job.setCurrentPath(next.getPathAsString());
+            // job finished
+            if (Objects.isNull(next)) {
+                Job.Status statusFromContext = Job.Status.valueOf(job.getContext().get(Variables.Job.Status));
+                jobService.setJobStatusAndSave(job, statusFromContext, execCmd.getError());
+
+                agentService.tryRelease(current, job.getId());
+                logInfo(job, "finished with status {}", statusFromContext);
+                return;
+            }
 
-        log.debug("Send job {} step {} to agent", job.getKey(), node.getName());
-        saveJobAndSendToAgent(job, next, current);
+            // continue to run next node
+            job.setCurrentPath(next.getPathAsString());
+
+            log.debug("Send job {} step {} to agent", job.getKey(), node.getName());
+            saveJobAndSendToAgent(job, next, current);
+        }
     }
 
     //====================================================================
     //        %% Utils
     //====================================================================
 
+    /**
+     * Create and start job, or create job as failure if rejected message is given
+     */
+    private void createJob(CreateNewJobEvent event, @Nullable String rejected) {
+        try {
+            Job job = jobService.create(event.getFlow(), event.getYml(), event.getTrigger(), event.getInput());
+
+            if (rejected != null) {
+                jobService.setJobStatusAndSave(job, Job.Status.FAILURE, rejected);
+                return;
+            }
+
+            jobService.start(job);
+        } catch (NotAvailableException e) {
+            Job job = (Job) e.getExtra();
+            jobService.setJobStatusAndSave(job, Job.Status.FAILURE, e.getMessage());
+        }
+    }
+
+    /**
+     * Get the held instance of running job to update, or load job from database
+     */
+    private Job getJob(String jobId) {
+        Optional<Job> running = runningJobManager.get(jobId);
+        return running.orElseGet(() -> jobService.get(jobId));
+    }
+
+    /**
+     * Aggregate status of child jobs to the parent job which has been started
+     */
+    private synchronized void updateParentStatus(String parentId) {
+        Job parent = getJob(parentId);
+
+        if (!parent.isQueuing() && !parent.isRunning()) {
+            return;
+        }
+
+        List<Job.Status> statuses = new ArrayList<>(parent.getChildren().size());
+        for (Job child : jobService.listChildren(parent)) {
+            statuses.add(child.getStatus());
+        }
+
+        Job.Status status = StatusHelper.aggregate(statuses);
+        if (status == parent.getStatus()) {
+            return;
+        }
+
+        if (status == Job.Status.RUNNING) {
+            parent.setStartAt(new Date());
+        }
+
+        jobService.setJobStatusAndSave(parent, status, null);
+        logInfo(parent, "matrix status changed to {}", status);
+    }
+
     private void logInfo(Job job, String message, Object... params) {
         log.info("[Job] " + job.getKey() + " " + message, params);
     }
 
     private void updateJobTime(Job job, NodeTree tree, Node node, ExecutedCmd cmd) {
-        if (tree.isFirst(node.getPath())) {
+        if (!tree.isGraph()) {
+            if (tree.isFirst(node.getPath())) {
+                job.setStartAt(cmd.getStartAt());
+            }
+
+            job.setFinishAt(cmd.getFinishAt());
+            return;
+        }
+
+        // steps of graph are not finished in order
+        if (isBefore(cmd.getStartAt(), job.getStartAt())) {
             job.setStartAt(cmd.getStartAt());
         }
 
-        job.setFinishAt(cmd.getFinishAt());
+        if (isBefore(job.getFinishAt(), cmd.getFinishAt())) {
+            job.setFinishAt(cmd.getFinishAt());
+        }
     }
 
     private void setJobContext(Job job, Node node, ExecutedCmd cmd) {
@@ -303,7 +529,8 @@ public class JobEventServiceImpl implements JobEventService {
         context.put(Variables.Job.FinishAt, job.finishAtInStr());
         context.put(Variables.Job.Steps, stepService.toVarString(job, node));
 
-        if (!node.isTail()) {
+        // do not override the failure from the step run in parallel
+        if (!node.isTail() && !isFailed(job)) {
             context.put(Variables.Job.Status, StatusHelper.convert(cmd).name());
         }
     }
@@ -325,9 +552,9 @@ public class JobEventServiceImpl implements JobEventService {
 
     private void startJobConsumer(Flow flow) {
         String queueName = flow.getQueueName();
+        agentMatchManager.setShare(flow.getId(), flow.getWeight(), flow.getMaxConcurrentJobs());
 
         JobConsumerHandler handler = new JobConsumerHandler(queueName);
-        consumeHandlers.put(queueName, handler);
 
         RabbitQueueOperation manager = flowJobQueueManager.create(queueName);
         RabbitOperation.QueueConsumer consumer = manager.createConsumer(queueName, handler);
@@ -350,6 +577,18 @@ public class JobEventServiceImpl implements JobEventService {
         }
 
         log.debug("Next step of job {} is {}", job.getId(), next.getName());
+        Integer slot = available.getJobSlots().get(job.getId());
+        agentAffinityManager.record(job.getFlowId(), available.getId(), Objects.isNull(slot) ? 0 : slot);
+
+        if (tree.isGraph()) {
+            synchronized (job) {
+                job.setAgentId(available.getId());
+                job.setAgentSnapshot(available);
+                jobService.setJobStatusAndSave(job, Job.Status.RUNNING, null);
+                dispatchGraph(job, tree, null, available);
+            }
+            return;
+        }
 
         // set path, agent id, agent name and status to job
         job.setCurrentPath(next.getPathAsString());
@@ -369,6 +608,177 @@ public class JobEventServiceImpl implements JobEventService {
         saveJobAndSendToAgent(job, next, available);
     }
 
+    /**
+     * Dispatch ready steps to the agent and other idle agents, the ready steps without agent
+     * will be dispatched once a running step finished. Tail steps are run one by one on the agent
+     * after all regular steps finished.
+     *
+     * @param current the finished node, null if job just started
+     */
+    private void dispatchGraph(Job job, NodeTree tree, Node current, Agent agent) {
+        if (Objects.nonNull(current) && current.isTail()) {
+            Node next = findNext(job, tree, current, true);
+
+            if (Objects.isNull(next)) {
+                finishGraph(job, agent);
+                return;
+            }
+
+            sendGraphStep(job, next, agent);
+            return;
+        }
+
+        List<Node> ready = isFailed(job) ? Collections.emptyList() : findReadySteps(job, tree);
+
+        if (ready.isEmpty()) {
+            // wait for running steps
+            if (!job.getStepAgents().isEmpty()) {
+                agentService.tryRelease(agent, job.getId());
+                return;
+            }
+
+            Node tail = findNext(job, tree, tree.getRoot(), false);
+
+            if (Objects.isNull(tail)) {
+                finishGraph(job, agent);
+                return;
+            }
+
+            sendGraphStep(job, tail, agent);
+            return;
+        }
+
+        Iterator<Node> iterator = ready.iterator();
+        if (!sendGraphStep(job, iterator.next(), agent)) {
+            return;
+        }
+
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+
+            // could be dispatched by the step with cached result
+            if (job.getStepAgents().containsKey(node.getPathAsString()) || !stepService.get(job, node).isPending()) {
+                continue;
+            }
+
+            Agent other = findAvailableAgent(job);
+            if (Objects.isNull(other)) {
+                return;
+            }
+
+            if (!sendGraphStep(job, node, other)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find regular steps which are ready and not dispatched, the steps will be skipped if before condition not matched
+     */
+    private List<Node> findReadySteps(Job job, NodeTree tree) {
+        Set<NodePath> finished = new HashSet<>();
+        for (ExecutedCmd step : stepService.list(job)) {
+            if (!step.isPending() && !step.isRunning() && step.isSuccess()) {
+                finished.add(NodePath.create(step.getNodePath()));
+            }
+        }
+
+        List<Node> ready = new LinkedList<>();
+        for (Node node : tree.ready(finished)) {
+            if (job.getStepAgents().containsKey(node.getPathAsString())) {
+                continue;
+            }
+
+            if (!executeBeforeCondition(job, node)) {
+                // find again since the steps depend on the skipped step could be ready
+                return findReadySteps(job, tree);
+            }
+
+            ready.add(node);
+        }
+
+        return ready;
+    }
+
+    /**
+     * Send step of graph to agent
+     *
+     * @return false if job failed to dispatch
+     */
+    private boolean sendGraphStep(Job job, Node node, Agent agent) {
+        job.setCurrentPath(node.getPathAsString());
+        job.getStepAgents().put(node.getPathAsString(), agent.getId());
+
+        saveJobAndSendToAgent(job, node, agent);
+        return job.isRunning();
+    }
+
+    private void finishGraph(Job job, Agent agent) {
+        Job.Status statusFromContext = Job.Status.valueOf(job.getContext().get(Variables.Job.Status));
+
+        // status is not updated from step if all regular steps are skipped
+        if (statusFromContext == Job.Status.RUNNING) {
+            statusFromContext = Job.Status.SUCCESS;
+        }
+
+        jobService.setJobStatusAndSave(job, statusFromContext, null);
+
+        agentService.tryRelease(agent, job.getId());
+        logInfo(job, "finished with status {}", statusFromContext);
+    }
+
+    private void cancelJobOnOfflineAgent(Job job, Agent agent) {
+        if (job.isDone()) {
+            return;
+        }
+
+        // update step status
+        List<ExecutedCmd> steps = stepService.list(job);
+        for (ExecutedCmd step : steps) {
+            if (step.isRunning() || step.isPending()) {
+                stepService.statusChange(step, ExecutedCmd.Status.SKIPPED, null);
+            }
+        }
+
+        // release other agents if steps run in parallel
+        synchronized (job) {
+            job.getStepAgents().values().removeIf(agent.getId()::equals);
+            releaseStepAgents(job);
+        }
+
+        // update job status
+        jobService.setJobStatusAndSave(job, Job.Status.CANCELLED, "Agent unexpected offline");
+    }
+
+    /**
+     * Kill and release agents of dispatched steps
+     */
+    private void releaseStepAgents(Job job) {
+        for (String agentId : new HashSet<>(job.getStepAgents().values())) {
+            try {
+                Agent agent = agentService.get(agentId);
+
+                if (agent.isOnline()) {
+                    dispatchToSlot(cmdManager.createKillCmd(), agent, job);
+                }
+
+                agentService.tryRelease(agent, job.getId());
+            } catch (Throwable e) {
+                log.warn("Unable to release agent {} of job {}: {}", agentId, job.getKey(), e.getMessage());
+            }
+        }
+
+        job.getStepAgents().clear();
+    }
+
+    private boolean isDispatched(Job job, NodeTree tree, NodePath path) {
+        if (tree.isGraph()) {
+            return job.getStepAgents().containsKey(path.getPathInStr());
+        }
+
+        return path.equals(currentNodePath(job));
+    }
+
     private Boolean executeBeforeCondition(Job job, Node node) {
         if (!node.hasBefore()) {
             return true;
@@ -379,8 +789,7 @@ public class JobEventServiceImpl implements JobEventService {
                 .merge(node.getEnvironments());
 
         try {
-            GroovyRunner<Boolean> runner = GroovyRunner.create(DefaultBeforeTimeout, node.getBefore(), map);
-            Boolean result = runner.run();
+            Boolean result = runBeforeCondition(node.getBefore(), map);
 
             if (Objects.isNull(result) || result == Boolean.FALSE) {
                 ExecutedCmd.Status newStatus = ExecutedCmd.Status.SKIPPED;
@@ -396,9 +805,31 @@ public class JobEventServiceImpl implements JobEventService {
         }
     }
 
+    /**
+     * Evaluate simple expression directly, or run it by groovy if it's not supported
+     */
+    private Boolean runBeforeCondition(String script, Vars<String> vars) throws ScriptException {
+        Optional<SimpleExpression> expression = SimpleExpression.parse(script);
+
+        if (expression.isPresent()) {
+            Boolean result = expression.get().eval(vars);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        GroovyRunner<Boolean> runner = GroovyRunner.create(DefaultBeforeTimeout, script, vars);
+        return runner.run();
+    }
+
+    /**
+     * Find and lock the idle agent which ran the flow recently, or fits the resource requests best
+     */
     private Agent findAvailableAgent(Job job) {
-        Set<String> agentTags = job.getAgentSelector().getTags();
-        List<Agent> agents = agentService.find(Agent.Status.IDLE, agentTags);
+        Selector selector = job.getAgentSelector();
+        List<Agent> idle = agentService.find(Agent.Status.IDLE, selector.getTags());
+        List<Agent> agents = PlacementHelper.bestFit(idle, selector);
+        agents = agentAffinityManager.sort(job.getFlowId(), agents);
 
         if (agents.isEmpty()) {
             return null;
@@ -411,7 +842,9 @@ public class JobEventServiceImpl implements JobEventService {
             Agent agent = availableList.next();
             agent.setJobId(job.getId());
 
-            if (agentService.tryLock(agent)) {
+            Integer preferred = agentAffinityManager.slot(job.getFlowId(), agent.getId()).orElse(null);
+
+            if (agentService.tryLock(agent, PlacementHelper.reservation(selector), preferred)) {
                 return agent;
             }
 
@@ -421,6 +854,46 @@ public class JobEventServiceImpl implements JobEventService {
         return null;
     }
 
+    /**
+     * Find the busy agents which ran the flow recently, the job could wait for them
+     * to reuse the work dir, it returns empty if any of them is idle or waiting is disabled
+     */
+    private Set<String> findBusyWarmAgents(Job job) {
+        Long waitInSeconds = jobProperties.getAffinityWaitInSeconds();
+        if (Objects.isNull(waitInSeconds) || waitInSeconds <= 0) {
+            return Collections.emptySet();
+        }
+
+        Selector selector = job.getAgentSelector();
+        Set<String> tags = selector.getTags();
+        Set<String> busy = new HashSet<>();
+
+        for (String agentId : agentAffinityManager.list(job.getFlowId())) {
+            Agent agent;
+            try {
+                agent = agentService.get(agentId);
+            } catch (NotFoundException e) {
+                continue;
+            }
+
+            boolean tagMatched = tags == null || tags.isEmpty()
+                    || (agent.getTags() != null && !Collections.disjoint(tags, agent.getTags()));
+            if (!tagMatched || !PlacementHelper.fits(agent, selector)) {
+                continue;
+            }
+
+            if (agent.isIdle()) {
+                return Collections.emptySet();
+            }
+
+            if (agent.isBusy()) {
+                busy.add(agentId);
+            }
+        }
+
+        return busy;
+    }
+
     /**
      * Send step to agent
      */
@@ -428,15 +901,22 @@ public class JobEventServiceImpl implements JobEventService {
         // set executed cmd step to running
         ExecutedCmd executedCmd = stepService.get(job, node);
 
+        if (replayCachedResult(job, node, executedCmd)) {
+            return;
+        }
+
         try {
+            CmdIn cmd = cmdManager.createShellCmd(job, node);
+
             if (!executedCmd.isRunning()) {
-                stepService.statusChange(job, node, ExecutedCmd.Status.RUNNING, null);
+                // dispatched time and timeout for step timeout, start time will be replaced by agent
+                executedCmd.setStartAt(new Date());
+                executedCmd.setTimeout(cmd.getTimeout());
+                stepService.statusChange(executedCmd, ExecutedCmd.Status.RUNNING, null);
             }
 
             jobService.setJobStatusAndSave(job, job.getStatus(), null);
-
-            CmdIn cmd = cmdManager.createShellCmd(job, node);
-            agentService.dispatch(cmd, agent);
+            dispatchToSlot(cmd, agent, job);
             logInfo(job, "send to agent: step={}, agent={}", node.getName(), agent.getName());
         } catch (Throwable e) {
             log.debug("Fail to dispatch job {} to agent {}", job.getId(), agent.getId(), e);
@@ -444,9 +924,179 @@ public class JobEventServiceImpl implements JobEventService {
             // set current step to exception
             stepService.statusChange(job, node, ExecutedCmd.Status.EXCEPTION, null);
 
+            // stop other steps of graph
+            job.getStepAgents().remove(node.getPathAsString());
+            releaseStepAgents(job);
+
             // set current job failure
             jobService.setJobStatusAndSave(job, Job.Status.FAILURE, e.getMessage());
-            agentService.tryRelease(agent);
+            agentService.tryRelease(agent, job.getId());
+        }
+    }
+
+    /**
+     * Send cmd to the agent slot occupied by the job, the work dir is separated by slot
+     * since jobs of the same flow could run on the agent concurrently
+     */
+    private void dispatchToSlot(CmdIn cmd, Agent agent, Job job) {
+        Integer slot = agent.getJobSlots().get(job.getId());
+
+        if (Objects.nonNull(slot)) {
+            cmd.setSlot(slot);
+
+            if (slot > 0 && Objects.nonNull(cmd.getWorkDir())) {
+                cmd.setWorkDir(cmd.getWorkDir() + "-" + slot);
+            }
+        }
+
+        agentService.dispatch(cmd, agent);
+    }
+
+    private static boolean isFailed(Job job) {
+        String status = job.getContext().get(Variables.Job.Status);
+        if (Objects.isNull(status)) {
+            return false;
+        }
+
+        Job.Status value = Job.Status.valueOf(status);
+        return value == Job.Status.FAILURE || value == Job.Status.CANCELLED || value == Job.Status.TIMEOUT;
+    }
+
+    private static boolean isBefore(Date date, Date another) {
+        if (Objects.isNull(date)) {
+            return false;
+        }
+
+        return Objects.isNull(another) || date.before(another);
+    }
+
+    /**
+     * Handle the output of previous executed cmd with the same cache key as callback, instead of sending to agent
+     *
+     * @return true if cached result found
+     */
+    private boolean replayCachedResult(Job job, Node node, ExecutedCmd step) {
+        Optional<String> cacheKey;
+        try {
+            cacheKey = cmdManager.createCacheKey(job, node);
+        } catch (Throwable e) {
+            log.debug("Unable to create cache key of step {}: {}", node.getName(), e.getMessage());
+            return false;
+        }
+
+        if (!cacheKey.isPresent()) {
+            return false;
+        }
+
+        step.setCacheKey(cacheKey.get());
+
+        Optional<ExecutedCmd> cached = stepService.getCached(job.getFlowId(), cacheKey.get());
+        if (!cached.isPresent()) {
+            return false;
+        }
+
+        Date now = new Date();
+        ExecutedCmd result = new ExecutedCmd(step.getCmdId(), step.getFlowId(), step.isAllowFailure());
+        result.setStatus(ExecutedCmd.Status.SUCCESS);
+        result.setCode(ExecutedCmd.CODE_SUCCESS);
+        result.setOutput(new StringVars(cached.get().getOutput()));
+        result.setStartAt(now);
+        result.setFinishAt(now);
+        result.setCacheKey(cacheKey.get());
+        result.setCacheHit(true);
+
+        logInfo(job, "step {} result reused from {}", node.getName(), cached.get().getId());
+
+        handleCallback(result);
+        return true;
+    }
+
+    private void timeoutQueuedJob(String jobId) {
+        Job job = getJob(jobId);
+        if (!job.isQueuing()) {
+            return;
+        }
+
+        // message will be removed from waiting list or dropped by consumer since job is done
+        jobService.setJobStatusAndSave(job, Job.Status.TIMEOUT, "expired while queued up");
+        logInfo(job, "expired");
+    }
+
+    /**
+     * Kill and release agents of the running job, and set job to timeout
+     */
+    private void timeoutRunningJob(String jobId) {
+        Job job = getJob(jobId);
+
+        synchronized (job) {
+            if (!job.isRunning()) {
+                return;
+            }
+
+            for (ExecutedCmd step : stepService.list(job)) {
+                if (step.isRunning()) {
+                    stepService.statusChange(step, ExecutedCmd.Status.TIMEOUT, null);
+                    continue;
+                }
+
+                if (step.isPending()) {
+                    stepService.statusChange(step, ExecutedCmd.Status.SKIPPED, null);
+                }
+            }
+
+            NodeTree tree = ymlManager.getTree(job);
+            if (tree.isGraph()) {
+                releaseStepAgents(job);
+            } else {
+                Agent agent = agentService.get(job.getAgentId());
+                if (agent.isOnline()) {
+                    dispatchToSlot(cmdManager.createKillCmd(), agent, job);
+                }
+                agentService.tryRelease(agent, job.getId());
+            }
+
+            jobService.setJobStatusAndSave(job, Job.Status.TIMEOUT, "execution timeout");
+            logInfo(job, "timeout");
+        }
+    }
+
+    /**
+     * Kill the running step, and handle it as timeout result
+     */
+    private void timeoutStep(String cmdId) {
+        ExecutedCmd step = stepService.get(cmdId);
+        if (!step.isRunning()) {
+            return;
+        }
+
+        Job job = getJob(step.getJobId());
+
+        synchronized (job) {
+            if (!job.isRunning()) {
+                return;
+            }
+
+            NodeTree tree = ymlManager.getTree(job);
+            String agentId = tree.isGraph() ? job.getStepAgents().get(step.getNodePath()) : job.getAgentId();
+            if (Objects.isNull(agentId)) {
+                return;
+            }
+
+            Agent agent = agentService.get(agentId);
+            if (agent.isOnline()) {
+                dispatchToSlot(cmdManager.createKillCmd(), agent, job);
+            }
+
+            ExecutedCmd result = new ExecutedCmd(step.getCmdId(), step.getFlowId(), step.isAllowFailure());
+            result.setStatus(ExecutedCmd.Status.TIMEOUT);
+            result.setCode(ExecutedCmd.CODE_TIMEOUT);
+            result.setSlot(step.getSlot());
+            result.setStartAt(step.getStartAt());
+            result.setFinishAt(new Date());
+            result.setError("step timeout");
+
+            logInfo(job, "step {} timeout on agent {}", step.getNodePath(), agent.getName());
+            handleCallback(result);
         }
     }
 
@@ -459,31 +1109,83 @@ public class JobEventServiceImpl implements JobEventService {
 
         // remove queue manager and send Message.STOP_SIGN to consumer
         flowJobQueueManager.remove(queueName);
+    }
+
+    /**
+     * Find available agent for the waiting job, and dispatch it if flow is not full
+     */
+    private void dispatchWaitingJob(Waiting waiting) {
+        Job job = waiting.getJob();
+
+        if (agentMatchManager.isFull(job.getFlowId())) {
+            return;
+        }
+
+        // wait for the agent which ran the flow recently
+        if (agentMatchManager.isPreferring(waiting)) {
+            return;
+        }
+
+        Agent available = findAvailableAgent(job);
+        if (available == null) {
+            eventManager.publish(new NoIdleAgentEvent(this, job));
+            return;
+        }
 
-        // resume
-        JobConsumerHandler handler = consumeHandlers.get(queueName);
-        if (handler != null) {
-            handler.resume();
+        if (!agentMatchManager.take(waiting)) {
+            agentService.tryRelease(available, job.getId());
+            return;
         }
 
-        consumeHandlers.remove(queueName);
+        dispatch(job, available);
+        waiting.getMessage().sendAck();
     }
 
     /**
-     * Job queue consumer for each flow
+     * Pair the idle agent with the waiting job which matches agent tags in fair share order of flows
      */
-    private class JobConsumerHandler implements Function<RabbitChannelOperation.Message, Boolean> {
+    private void matchWaitingJob(Agent agent) {
+        Optional<Waiting> optional;
+
+        while ((optional = agentMatchManager.poll(agent)).isPresent()) {
+            Waiting waiting = optional.get();
+            Job job = waiting.getJob();
+
+            if (jobService.isExpired(job)) {
+                jobService.setJobStatusAndSave(job, Job.Status.TIMEOUT, "expired while waiting for agent");
+                waiting.getMessage().sendAck();
+                logInfo(job, "expired");
+                continue;
+            }
+
+            agent.setJobId(job.getId());
+
+            Agent.Reservation reserved = PlacementHelper.reservation(job.getAgentSelector());
+            Integer preferred = agentAffinityManager.slot(job.getFlowId(), agent.getId()).orElse(null);
 
-        private final static long RetryIntervalOnNotFound = 30 * 1000; // 60 seconds
+            if (!agentService.tryLock(agent, reserved, preferred)) {
+                agentMatchManager.putBack(waiting);
+                return;
+            }
 
-        private final Object lock = new Object();
+            dispatch(job, agent);
+            waiting.getMessage().sendAck();
+
+            // continue to match waiting jobs if agent has free slot
+            if (!agent.hasFreeSlot()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Job queue consumer for each flow
+     */
+    private class JobConsumerHandler implements Function<RabbitChannelOperation.Message, Boolean> {
 
         @Getter
         private final String queueName;
 
-        // Message.STOP_SIGN will be coming from other thread
-        private final AtomicBoolean isStop = new AtomicBoolean(false);
-
         JobConsumerHandler(String queueName) {
             this.queueName = queueName;
         }
@@ -492,8 +1194,7 @@ public class JobEventServiceImpl implements JobEventService {
         public Boolean apply(RabbitChannelOperation.Message message) {
             if (message == RabbitOperation.Message.STOP_SIGN) {
                 log.info("[Job Consumer] {} will be stopped", queueName);
-                isStop.set(true);
-                resume();
+                agentMatchManager.remove(queueName);
                 return true;
             }
 
@@ -511,23 +1212,53 @@ public class JobEventServiceImpl implements JobEventService {
                 return false;
             }
 
-            Agent available;
+            // job could be cancelled or superseded after enqueue
+            Job.Status current = jobService.get(job.getId()).getStatus();
+            if (current != Job.Status.QUEUED) {
+                logInfo(job, "dropped since status changed to {}", current);
+                return message.sendAck();
+            }
+
+            Agent available = null;
+            Set<String> warm = Collections.emptySet();
 
-            while ((available = findAvailableAgent(job)) == null) {
-                logInfo(job, "waiting for agent...");
-                eventManager.publish(new NoIdleAgentEvent(this, job));
+            if (agentMatchManager.reserve(job)) {
+                warm = findBusyWarmAgents(job);
 
-                synchronized (lock) {
-                    ThreadHelper.wait(lock, RetryIntervalOnNotFound);
+                if (warm.isEmpty()) {
+                    available = findAvailableAgent(job);
                 }
+            }
+
+            // hold the job without ack, it will be dispatched once an agent becomes idle
+            if (available == null) {
+                agentMatchManager.unreserve(job);
+                Waiting waiting = agentMatchManager.add(job, message);
 
-                if (isStop.get()) {
+                if (agentMatchManager.isFull(job.getFlowId())) {
+                    logInfo(job, "waiting for running jobs of flow to finish...");
                     return false;
                 }
 
-                if (jobService.isExpired(job)) {
-                    jobService.setJobStatusAndSave(job, Job.Status.TIMEOUT, "expired while waiting for agent");
-                    logInfo(job, "expired");
+                // dispatched to any idle agent at the end of window if warm agents still busy
+                if (!warm.isEmpty()) {
+                    long deadline = System.currentTimeMillis() + jobProperties.getAffinityWaitInSeconds() * 1000;
+                    agentMatchManager.prefer(waiting, warm, deadline);
+                    jobTimeoutManager.addAffinity(job.getId(), deadline);
+                    logInfo(job, "waiting for agent which ran the flow recently...");
+                    return false;
+                }
+
+                // double check since agent could be idle before job been added to waiting list
+                available = findAvailableAgent(job);
+                if (available == null) {
+                    logInfo(job, "waiting for agent...");
+                    eventManager.publish(new NoIdleAgentEvent(this, job));
+                    return false;
+                }
+
+                if (!agentMatchManager.take(waiting)) {
+                    agentService.tryRelease(available, job.getId());
                     return false;
                 }
             }
@@ -535,12 +1266,6 @@ public class JobEventServiceImpl implements JobEventService {
             dispatch(job, available);
             return message.sendAck();
         }
-
-        void resume() {
-            synchronized (lock) {
-                lock.notifyAll();
-            }
-        }
     }
 
     private static Optional<Job> convert(ObjectMapper mapper, RabbitChannelOperation.Message message) {
@@ -22,20 +22,23 @@ import com.flowci.core.job.domain.Job.Trigger;
 import com.flowci.core.job.domain.JobItem;
 import com.flowci.core.job.domain.JobYml;
 import com.flowci.domain.StringVars;
+import com.flowci.tree.NodePath;
 import org.springframework.data.domain.Page;
 
+import java.util.List;
+
 /**
  * @author yang
  */
 public interface JobService {
 
     /**
-     * Get job by id
+     * Get job by id, a copy is returned if job is running
      */
     Job get(String id);
 
     /**
-     * Get job by flow and build number
+     * Get job by flow and build number, a copy is returned if job is running
      */
     Job get(Flow flow, Long buildNumber);
 
@@ -54,6 +57,11 @@ public interface JobService {
      */
     Page<JobItem> list(Flow flow, int page, int size);
 
+    /**
+     * List child jobs expanded from matrix
+     */
+    List<Job> listChildren(Job parent);
+
     /**
      * Create a job by flow and yml
      *
@@ -61,6 +69,12 @@ public interface JobService {
      */
     Job create(Flow flow, String yml, Trigger trigger, StringVars input);
 
+    /**
+     * Create a job from the finished job with the same yml, the steps before the step of path
+     * will not be executed again, their results and outputs are copied from the finished job
+     */
+    Job rerun(Flow flow, Job job, NodePath from);
+
     /**
      * Send to job queue
      */
@@ -40,20 +40,26 @@ import com.flowci.core.job.event.JobDeletedEvent;
 import com.flowci.core.job.event.JobStatusChangeEvent;
 import com.flowci.core.job.manager.CmdManager;
 import com.flowci.core.job.manager.FlowJobQueueManager;
+import com.flowci.core.job.manager.RunningJobManager;
 import com.flowci.core.job.manager.YmlManager;
 import com.flowci.core.job.util.JobKeyBuilder;
 import com.flowci.domain.Agent;
 import com.flowci.domain.CmdIn;
+import com.flowci.domain.ExecutedCmd;
 import com.flowci.domain.SimpleSecret;
 import com.flowci.domain.StringVars;
+import com.flowci.exception.ArgumentException;
 import com.flowci.exception.NotAvailableException;
 import com.flowci.exception.NotFoundException;
 import com.flowci.exception.StatusException;
 import com.flowci.store.FileManager;
 import com.flowci.tree.Node;
+import com.flowci.tree.NodePath;
+import com.flowci.tree.NodeTree;
 import com.flowci.tree.YmlParser;
 import com.flowci.util.StringHelper;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -70,12 +76,20 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 import static com.flowci.core.trigger.domain.Variables.GIT_AUTHOR;
+import static com.flowci.core.trigger.domain.Variables.GIT_BRANCH;
 
 /**
  * @author yang
@@ -86,6 +100,17 @@ public class JobServiceImpl implements JobService {
 
     private static final Sort SortByBuildNumber = Sort.by(Direction.DESC, "buildNumber");
 
+    // job vars which should not be copied to the rerun job
+    private static final Set<String> RerunExcludedVars = ImmutableSet.of(
+            Variables.Job.Status,
+            Variables.Job.Trigger,
+            Variables.Job.TriggerBy,
+            Variables.Job.BuildNumber,
+            Variables.Job.StartAt,
+            Variables.Job.FinishAt,
+            Variables.Job.Steps
+    );
+
     //====================================================================
     //        %% Spring injection
     //====================================================================
@@ -145,12 +170,20 @@ public class JobServiceImpl implements JobService {
     @Autowired
     private FlowJobQueueManager flowJobQueueManager;
 
+    @Autowired
+    private RunningJobManager runningJobManager;
+
     //====================================================================
     //        %% Public functions
     //====================================================================
 
     @Override
     public Job get(String jobId) {
+        Optional<Job> running = runningJobManager.copy(jobId);
+        if (running.isPresent()) {
+            return running.get();
+        }
+
         Optional<Job> job = jobDao.findById(jobId);
 
         if (job.isPresent()) {
@@ -166,7 +199,7 @@ public class JobServiceImpl implements JobService {
         Optional<Job> optional = jobDao.findByKey(key);
 
         if (optional.isPresent()) {
-            return optional.get();
+            return runningJobManager.copy(optional.get().getId()).orElse(optional.get());
         }
 
         throw new NotFoundException(
@@ -193,7 +226,16 @@ public class JobServiceImpl implements JobService {
     @Override
     public Page<JobItem> list(Flow flow, int page, int size) {
         PageRequest pageable = PageRequest.of(page, size, SortByBuildNumber);
-        return jobItemDao.findAllByFlowId(flow.getId(), pageable);
+        return jobItemDao.findAllByFlowIdAndParentIdIsNull(flow.getId(), pageable);
+    }
+
+    @Override
+    public List<Job> listChildren(Job parent) {
+        List<Job> children = new ArrayList<>(parent.getChildren().size());
+        for (String id : parent.getChildren()) {
+            children.add(get(id));
+        }
+        return children;
     }
 
     @Override
@@ -206,8 +248,14 @@ public class JobServiceImpl implements JobService {
             yml = fetchYamlFromGit(flow.getName(), job);
         }
 
-        setupYaml(flow, yml, job);
-        stepService.init(job);
+        Node root = setupYaml(flow, yml, job);
+
+        if (root.hasMatrix()) {
+            createMatrixJobs(flow, job, root);
+        } else {
+            stepService.init(job);
+        }
+
         setJobStatusAndSave(job, Job.Status.CREATED, StringHelper.EMPTY);
         return job;
     }
@@ -218,8 +266,14 @@ public class JobServiceImpl implements JobService {
             throw new StatusException("Job not in pending status");
         }
 
+        if (job.isParent()) {
+            return startMatrixJobs(job);
+        }
+
         try {
-            return enqueue(job);
+            enqueue(job);
+            supersede(job);
+            return job;
         } catch (StatusException e) {
             return setJobStatusAndSave(job, Job.Status.FAILURE, e.getMessage());
         }
@@ -227,6 +281,16 @@ public class JobServiceImpl implements JobService {
 
     @Override
     public Job cancel(Job job) {
+        job = runningJobManager.get(job.getId()).orElse(job);
+
+        // parent status will be updated from child jobs
+        if (job.isParent()) {
+            for (Job child : listChildren(job)) {
+                cancel(child);
+            }
+            return job;
+        }
+
         if (job.isQueuing()) {
             setJobStatusAndSave(job, Job.Status.CANCELLED, "canceled while queued up");
             return job;
@@ -237,6 +301,24 @@ public class JobServiceImpl implements JobService {
             return job;
         }
 
+        // steps run in parallel on multiple agents
+        Set<String> stepAgents;
+        synchronized (job) {
+            stepAgents = new HashSet<>(job.getStepAgents().values());
+        }
+
+        if (!stepAgents.isEmpty()) {
+            for (String agentId : stepAgents) {
+                Agent agent = agentService.get(agentId);
+
+                if (agent.isOnline()) {
+                    agentService.dispatch(cmdManager.createKillCmd(), agent);
+                    logInfo(job, " cancel cmd been send to {}", agent.getName());
+                }
+            }
+            return job;
+        }
+
         try {
             Agent agent = agentService.get(job.getAgentId());
 
@@ -278,28 +360,141 @@ public class JobServiceImpl implements JobService {
 
     @Override
     public Job setJobStatusAndSave(Job job, Job.Status newStatus, String message) {
-        if (job.getStatus() == newStatus) {
-            return jobDao.save(job);
-        }
+        // change the held instance if job is running, the given job could be a copy
+        job = runningJobManager.get(job.getId()).orElse(job);
+
+        synchronized (job) {
+            if (job.getStatus() == newStatus) {
+                // running job will be saved by running job manager
+                if (job.isRunning() && runningJobManager.update(job)) {
+                    return job;
+                }
+                return jobDao.saveChanges(job);
+            }
 
-        if (Job.FINISH_STATUS.contains(newStatus)) {
-            if (Objects.isNull(job.getFinishAt())) {
-                job.setFinishAt(new Date());
+            if (Job.FINISH_STATUS.contains(newStatus)) {
+                if (Objects.isNull(job.getFinishAt())) {
+                    job.setFinishAt(new Date());
+                }
             }
-        }
 
-        job.setStatus(newStatus);
-        job.setMessage(message);
-        job.getContext().put(Variables.Job.Status, newStatus.name());
-        jobDao.save(job);
-        eventManager.publish(new JobStatusChangeEvent(this, job));
-        return job;
+            job.setStatus(newStatus);
+            job.setMessage(message);
+            job.getContext().put(Variables.Job.Status, newStatus.name());
+
+            if (job.isRunning()) {
+                jobDao.saveChanges(job);
+                runningJobManager.add(job);
+            } else {
+                runningJobManager.remove(job);
+            }
+
+            eventManager.publish(new JobStatusChangeEvent(this, job));
+            return job;
+        }
     }
 
     //====================================================================
     //        %% Utils
     //====================================================================
 
+    @Override
+    public Job rerun(Flow flow, Job job, NodePath from) {
+        if (!job.isDone()) {
+            throw new StatusException("Job is not finished");
+        }
+
+        if (job.isParent() || job.hasParent()) {
+            throw new ArgumentException("Rerun job of matrix is not supported");
+        }
+
+        NodeTree tree = ymlManager.getTree(job);
+        Node start;
+
+        try {
+            start = tree.get(from);
+        } catch (IllegalArgumentException e) {
+            throw new ArgumentException("Step {0} not found", from.getPathInStr());
+        }
+
+        if (start.isTail() && tree.isGraph()) {
+            throw new ArgumentException("Cannot rerun from the tail step if steps run in parallel");
+        }
+
+        // the steps before start step are reused, they must be succeeded
+        List<ExecutedCmd> reused = new LinkedList<>();
+        Set<String> outputs = new HashSet<>();
+        boolean isAfterStart = false;
+
+        for (Node node : tree.getOrdered()) {
+            ExecutedCmd step = stepService.get(job, node);
+            isAfterStart = isAfterStart || node.getPath().equals(start.getPath());
+
+            if (isAfterStart) {
+                outputs.addAll(step.getOutput().keySet());
+                continue;
+            }
+
+            if (step.isPending() || step.isRunning() || !step.isSuccess()) {
+                throw new ArgumentException("Step {0} is not succeeded", node.getName());
+            }
+
+            reused.add(step);
+        }
+
+        // context of job without outputs of steps which will be executed again
+        StringVars input = new StringVars(job.getContext());
+        for (ExecutedCmd step : reused) {
+            outputs.removeAll(step.getOutput().keySet());
+        }
+        for (String key : outputs) {
+            input.remove(key);
+        }
+        for (String key : RerunExcludedVars) {
+            input.remove(key);
+        }
+
+        String yml = ymlManager.get(job).getRaw();
+
+        Job rerun = createJob(flow, Trigger.RERUN, input);
+        rerun.setYamlFromRepo(false);
+        eventManager.publish(new JobCreatedEvent(this, rerun));
+
+        setupYaml(flow, yml, rerun);
+        stepService.init(rerun);
+
+        // copy results of reused steps
+        NodeTree rerunTree = ymlManager.getTree(rerun);
+        Node last = null;
+
+        for (ExecutedCmd step : reused) {
+            Node node = rerunTree.get(NodePath.create(step.getNodePath()));
+            ExecutedCmd copied = stepService.get(rerun, node);
+
+            ExecutedCmd result = new ExecutedCmd(copied.getCmdId(), copied.getFlowId(), copied.isAllowFailure());
+            result.setStatus(step.getStatus());
+            result.setCode(step.getCode());
+            result.setOutput(new StringVars(step.getOutput()));
+            result.setStartAt(step.getStartAt());
+            result.setFinishAt(step.getFinishAt());
+            result.setLogSize(step.getLogSize());
+            result.setCacheKey(step.getCacheKey());
+            result.setCacheHit(true);
+
+            stepService.resultUpdate(result);
+            rerun.getContext().merge(step.getOutput());
+            last = node;
+        }
+
+        // dispatch from the start step if steps run in order
+        if (!rerunTree.isGraph() && Objects.nonNull(last)) {
+            rerun.setCurrentPath(last.getPathAsString());
+        }
+
+        log.info("[Job] {} rerun from step {} of {}", rerun.getKey(), start.getName(), job.getKey());
+        return setJobStatusAndSave(rerun, Job.Status.CREATED, StringHelper.EMPTY);
+    }
+
     private Job createJob(Flow flow, Trigger trigger, StringVars input) {
         // create job number
         JobNumber jobNumber = jobNumberDao.increaseBuildNumber(flow.getId());
@@ -345,7 +540,7 @@ public class JobServiceImpl implements JobService {
         return jobDao.insert(job);
     }
 
-    private void setupYaml(Flow flow, String yml, Job job) {
+    private Node setupYaml(Flow flow, String yml, Job job) {
         Node root = YmlParser.load(flow.getName(), yml);
 
         job.setCurrentPath(root.getPathAsString());
@@ -354,6 +549,75 @@ public class JobServiceImpl implements JobService {
 
         ymlManager.create(flow, job, yml);
         jobDao.save(job);
+        return root;
+    }
+
+    /**
+     * Create child job for each combination of matrix, the yml of parent is shared by child jobs
+     */
+    private void createMatrixJobs(Flow flow, Job parent, Node root) {
+        List<StringVars> combinations = root.getMatrixCombinations();
+
+        for (int i = 0; i < combinations.size(); i++) {
+            StringVars matrix = combinations.get(i);
+
+            Job child = new Job();
+            child.setParentId(parent.getId());
+            child.setMatrixIndex(i + 1);
+            child.setKey(JobKeyBuilder.build(flow, parent.getBuildNumber(), child.getMatrixIndex()));
+            child.setFlowId(parent.getFlowId());
+            child.setTrigger(parent.getTrigger());
+            child.setBuildNumber(parent.getBuildNumber());
+            child.setCreatedAt(parent.getCreatedAt());
+            child.setCreatedBy(parent.getCreatedBy());
+            child.setTimeout(parent.getTimeout());
+            child.setExpire(parent.getExpire());
+            child.setExpireAt(parent.getExpireAt());
+            child.setPriority(parent.getPriority());
+            child.setCurrentPath(parent.getCurrentPath());
+            child.setAgentSelector(parent.getAgentSelector());
+
+            child.getContext().merge(parent.getContext());
+            child.getContext().merge(matrix);
+            child.getContext().put(Variables.Job.Matrix, toVarString(matrix));
+
+            try {
+                fileManager.create(flow, child);
+            } catch (IOException e) {
+                throw new StatusException("Cannot create workspace for job");
+            }
+
+            jobDao.insert(child);
+            stepService.init(child);
+            setJobStatusAndSave(child, Job.Status.CREATED, StringHelper.EMPTY);
+
+            parent.getChildren().add(child.getId());
+        }
+
+        jobDao.save(parent);
+    }
+
+    private Job startMatrixJobs(Job parent) {
+        setJobStatusAndSave(parent, Job.Status.QUEUED, null);
+        supersede(parent);
+
+        for (Job child : listChildren(parent)) {
+            try {
+                enqueue(child);
+            } catch (StatusException e) {
+                setJobStatusAndSave(child, Job.Status.FAILURE, e.getMessage());
+            }
+        }
+
+        return parent;
+    }
+
+    private static String toVarString(StringVars vars) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : vars.entrySet()) {
+            builder.append(entry.getKey()).append("=").append(entry.getValue()).append(";");
+        }
+        return builder.deleteCharAt(builder.length() - 1).toString();
     }
 
     private String fetchYamlFromGit(String flowName, Job job) {
@@ -449,6 +713,47 @@ public class JobServiceImpl implements JobService {
         }
     }
 
+    /**
+     * Cancel previous jobs of the same flow and branch which are triggered by git push
+     */
+    private void supersede(Job job) {
+        if (job.getTrigger() != Trigger.PUSH || !job.isQueuing()) {
+            return;
+        }
+
+        String branch = job.getContext().get(GIT_BRANCH);
+        if (!StringHelper.hasValue(branch)) {
+            return;
+        }
+
+        Set<Job.Status> status = EnumSet.noneOf(Job.Status.class);
+        if (Boolean.TRUE.equals(jobProperties.getSupersedeQueued())) {
+            status.add(Job.Status.QUEUED);
+        }
+        if (Boolean.TRUE.equals(jobProperties.getSupersedeRunning())) {
+            status.add(Job.Status.RUNNING);
+        }
+
+        if (status.isEmpty()) {
+            return;
+        }
+
+        List<Job> previous = jobDao.findPrevious(job.getFlowId(), job.getBuildNumber(), GIT_BRANCH, branch, status);
+
+        for (Job item : previous) {
+            // running job is held in memory
+            Job prev = get(item.getId());
+
+            if (prev.isQueuing() && !prev.isParent()) {
+                setJobStatusAndSave(prev, Job.Status.CANCELLED, "superseded by build " + job.getBuildNumber());
+            } else {
+                cancel(prev);
+            }
+
+            logInfo(prev, "superseded by build {}", job.getBuildNumber());
+        }
+    }
+
     private void logInfo(Job job, String message, Object... params) {
         log.info("[Job] " + job.getKey() + " " + message, params);
     }
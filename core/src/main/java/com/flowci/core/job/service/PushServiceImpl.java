@@ -19,6 +19,7 @@ package com.flowci.core.job.service;
 import com.flowci.core.common.domain.PushEvent;
 import com.flowci.core.common.manager.SocketPushManager;
 import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.domain.StepChange;
 import com.flowci.core.job.event.JobCreatedEvent;
 import com.flowci.core.job.event.JobStatusChangeEvent;
 import com.flowci.core.job.event.StepInitializedEvent;
@@ -64,7 +65,8 @@ public class PushServiceImpl implements PushService {
     @EventListener
     public void onStepStatusChange(StepStatusChangeEvent event) {
         String topic = topicForSteps + "/" + event.getJobId();
-        socketPushManager.push(topic, PushEvent.STATUS_CHANGE, event.getSteps());
+        StepChange change = new StepChange(event.getJobId(), event.getSeq(), event.getStep());
+        socketPushManager.push(topic, PushEvent.STATUS_CHANGE, change);
     }
 
     @Override
@@ -21,6 +21,7 @@ import com.flowci.domain.ExecutedCmd;
 import com.flowci.tree.Node;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * @author yang
@@ -39,6 +40,11 @@ public interface StepService {
      */
     ExecutedCmd get(String cmdId);
 
+    /**
+     * Get the latest success executed cmd of flow with the cache key
+     */
+    Optional<ExecutedCmd> getCached(String flowId, String cacheKey);
+
     /**
      * List step of executed cmd for job
      */
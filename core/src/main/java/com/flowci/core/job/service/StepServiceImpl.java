@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.flowci.core.common.manager.SpringEventManager;
 import com.flowci.core.job.dao.ExecutedCmdDao;
+import com.flowci.core.job.dao.JobDao;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.event.StepInitializedEvent;
 import com.flowci.core.job.event.StepStatusChangeEvent;
@@ -29,6 +30,7 @@ import com.flowci.domain.CmdId;
 import com.flowci.domain.ExecutedCmd;
 import com.flowci.domain.ExecutedCmd.Status;
 import com.flowci.exception.NotFoundException;
+import com.flowci.util.ObjectsHelper;
 import com.flowci.tree.Node;
 import com.flowci.tree.NodePath;
 import com.flowci.tree.NodeTree;
@@ -36,6 +38,8 @@ import com.github.benmanes.caffeine.cache.Cache;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Objects;
 import java.util.Optional;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,6 +60,9 @@ public class StepServiceImpl implements StepService {
     @Autowired
     private ExecutedCmdDao executedCmdDao;
 
+    @Autowired
+    private JobDao jobDao;
+
     @Autowired
     private YmlManager ymlManager;
 
@@ -79,6 +86,7 @@ public class StepServiceImpl implements StepService {
         }
 
         executedCmdDao.insert(steps);
+        jobStepCache.put(job.getId(), copy(steps));
         eventManager.publish(new StepInitializedEvent(this, job.getId(), steps));
         return steps;
     }
@@ -91,6 +99,11 @@ public class StepServiceImpl implements StepService {
 
     @Override
     public ExecutedCmd get(String cmdId) {
+        Optional<ExecutedCmd> cached = getFromCache(cmdId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
         Optional<ExecutedCmd> optional = executedCmdDao.findById(cmdId);
 
         if (optional.isPresent()) {
@@ -100,9 +113,17 @@ public class StepServiceImpl implements StepService {
         throw new NotFoundException("Executed cmd {0} not found", cmdId);
     }
 
+    @Override
+    public Optional<ExecutedCmd> getCached(String flowId, String cacheKey) {
+        return executedCmdDao.findFirstByFlowIdAndCacheKeyAndStatusOrderByFinishAtDesc(flowId, cacheKey, Status.SUCCESS);
+    }
+
     @Override
     public List<ExecutedCmd> list(Job job) {
-        return list(job.getId(), job.getFlowId(), job.getBuildNumber());
+        List<ExecutedCmd> steps = list(job.getId(), job.getFlowId(), job.getBuildNumber());
+        synchronized (steps) {
+            return copy(steps);
+        }
     }
 
     @Override
@@ -141,10 +162,10 @@ public class StepServiceImpl implements StepService {
         executedCmdDao.save(entity);
 
         String jobId = entity.getJobId();
-        jobStepCache.invalidate(jobId);
+        updateCache(entity);
 
-        List<ExecutedCmd> steps = list(jobId, entity.getFlowId(), entity.getBuildNumber());
-        eventManager.publish(new StepStatusChangeEvent(this, jobId, steps));
+        long seq = jobDao.increaseStepSeq(jobId);
+        eventManager.publish(new StepStatusChangeEvent(this, jobId, entity, seq));
     }
 
     @Override
@@ -160,6 +181,12 @@ public class StepServiceImpl implements StepService {
         entity.setLogSize(cmd.getLogSize());
         entity.setOutput(cmd.getOutput());
 
+        // result reused from previous executed cmd
+        if (cmd.isCacheHit()) {
+            entity.setCacheKey(cmd.getCacheKey());
+            entity.setCacheHit(true);
+        }
+
         // change status and save
         statusChange(entity, cmd.getStatus(), cmd.getError());
     }
@@ -169,8 +196,69 @@ public class StepServiceImpl implements StepService {
         return executedCmdDao.deleteByFlowId(flowId);
     }
 
+    /**
+     * Get copy of step from cached step list of job
+     */
+    private Optional<ExecutedCmd> getFromCache(String cmdId) {
+        CmdId id = CmdId.parse(cmdId);
+        if (Objects.isNull(id)) {
+            return Optional.empty();
+        }
+
+        List<ExecutedCmd> steps = jobStepCache.getIfPresent(id.getJobId());
+        if (Objects.isNull(steps)) {
+            return Optional.empty();
+        }
+
+        synchronized (steps) {
+            for (ExecutedCmd step : steps) {
+                if (step.getId().equals(cmdId)) {
+                    return Optional.of(ObjectsHelper.copy(step));
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Replace the step in cached step list of job by copy, since the cached steps are shared
+     */
+    private void updateCache(ExecutedCmd entity) {
+        List<ExecutedCmd> steps = jobStepCache.getIfPresent(entity.getJobId());
+        if (Objects.isNull(steps)) {
+            return;
+        }
+
+        synchronized (steps) {
+            ListIterator<ExecutedCmd> iterator = steps.listIterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getId().equals(entity.getId())) {
+                    iterator.set(ObjectsHelper.copy(entity));
+                    return;
+                }
+            }
+        }
+
+        // the step not in the list, reload it
+        jobStepCache.invalidate(entity.getJobId());
+    }
+
+    private static List<ExecutedCmd> copy(List<ExecutedCmd> steps) {
+        List<ExecutedCmd> copied = new LinkedList<>();
+        for (ExecutedCmd step : steps) {
+            copied.add(ObjectsHelper.copy(step));
+        }
+        return copied;
+    }
+
     private List<ExecutedCmd> list(String jobId, String flowId, long buildNumber) {
-        return jobStepCache.get(jobId,
-                s -> executedCmdDao.findByFlowIdAndBuildNumber(flowId, buildNumber));
+        return jobStepCache.get(jobId, s -> {
+            List<ExecutedCmd> steps = executedCmdDao.findByFlowIdAndBuildNumber(flowId, buildNumber);
+
+            // child jobs of matrix have the same build number
+            steps.removeIf(step -> !jobId.equals(step.getJobId()));
+            return steps;
+        });
     }
 }
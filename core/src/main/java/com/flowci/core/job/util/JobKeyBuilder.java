@@ -28,4 +28,11 @@ public abstract class JobKeyBuilder {
     public static String build(Flow flow, Long buildNumber) {
         return flow.getId() + Splitter + buildNumber;
     }
+
+    /**
+     * Build key for the child job of matrix
+     */
+    public static String build(Flow flow, Long buildNumber, Integer matrixIndex) {
+        return build(flow, buildNumber) + Splitter + matrixIndex;
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.util;
+
+import com.flowci.domain.Agent;
+import com.flowci.tree.Selector;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Place job to agent by the resource requests of selector,
+ * the resource which is not reported by agent (value is 0) cannot be verified and is treated as fit.
+ * <p>
+ * The resource reserved by jobs on the occupied slots of agent is subtracted.
+ */
+public abstract class PlacementHelper {
+
+    private static final Agent.Reservation NoReservation = new Agent.Reservation();
+
+    /**
+     * Resource requests of selector, which will be reserved on agent for the job
+     */
+    public static Agent.Reservation reservation(Selector selector) {
+        Agent.Reservation reserved = new Agent.Reservation();
+        if (Objects.isNull(selector)) {
+            return reserved;
+        }
+
+        return reserved.setCpu(selector.getCpu())
+                .setMemory(selector.getMemory())
+                .setDisk(selector.getDisk());
+    }
+
+    /**
+     * Check agent has enough cpu, free memory and free disk for the requests
+     */
+    public static boolean fits(Agent.Resource resource, Selector selector) {
+        return fits(resource, NoReservation, selector);
+    }
+
+    /**
+     * Check agent has enough resource for the requests after the reserved resource subtracted
+     */
+    public static boolean fits(Agent agent, Selector selector) {
+        return fits(agent.getResource(), reserved(agent), selector);
+    }
+
+    /**
+     * Remove agents without enough resource, and sort the others by least resource left after placement
+     * (best fit), the order of agents is kept if no resource requested.
+     */
+    public static List<Agent> bestFit(List<Agent> agents, Selector selector) {
+        if (Objects.isNull(selector) || !selector.hasResourceRequest()) {
+            return agents;
+        }
+
+        return agents.stream()
+                .filter(agent -> fits(agent, selector))
+                .sorted(Comparator.comparingDouble(agent -> score(agent.getResource(), reserved(agent), selector)))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean fits(Agent.Resource resource, Agent.Reservation reserved, Selector selector) {
+        if (Objects.isNull(selector) || !selector.hasResourceRequest()) {
+            return true;
+        }
+
+        if (Objects.isNull(resource)) {
+            return true;
+        }
+
+        int freeMemory = resource.getFreeMemory() - reserved.getMemory();
+        int freeDisk = resource.getFreeDisk() - reserved.getDisk();
+
+        return fits(resource.getCpu(), resource.getCpu() - reserved.getCpu(), selector.getCpu())
+                && fits(resource.getTotalMemory(), freeMemory, selector.getMemory())
+                && fits(resource.getTotalDisk(), freeDisk, selector.getDisk());
+    }
+
+    /**
+     * Sum of the ratio of resource left after placement, the unreported resource is counted as all left
+     */
+    private static double score(Agent.Resource resource, Agent.Reservation reserved, Selector selector) {
+        if (Objects.isNull(resource)) {
+            return 3.0;
+        }
+
+        int freeMemory = resource.getFreeMemory() - reserved.getMemory();
+        int freeDisk = resource.getFreeDisk() - reserved.getDisk();
+
+        return left(resource.getCpu(), resource.getCpu() - reserved.getCpu(), selector.getCpu())
+                + left(resource.getTotalMemory(), freeMemory, selector.getMemory())
+                + left(resource.getTotalDisk(), freeDisk, selector.getDisk());
+    }
+
+    /**
+     * Sum of resource reserved by jobs on the occupied slots
+     */
+    private static Agent.Reservation reserved(Agent agent) {
+        Agent.Reservation sum = new Agent.Reservation();
+
+        for (Agent.Reservation r : agent.getJobReservations().values()) {
+            if (Objects.isNull(r)) {
+                continue;
+            }
+
+            sum.setCpu(sum.getCpu() + r.getCpu())
+                    .setMemory(sum.getMemory() + r.getMemory())
+                    .setDisk(sum.getDisk() + r.getDisk());
+        }
+
+        return sum;
+    }
+
+    private static boolean fits(int total, int free, int request) {
+        return request <= 0 || total <= 0 || free >= request;
+    }
+
+    private static double left(int total, int free, int request) {
+        if (request <= 0) {
+            return 0.0;
+        }
+
+        if (total <= 0) {
+            return 1.0;
+        }
+
+        return (double) (free - request) / total;
+    }
+}
@@ -19,8 +19,13 @@ package com.flowci.core.job.util;
 import com.flowci.core.job.domain.Job;
 import com.flowci.domain.ExecutedCmd;
 import com.flowci.domain.ExecutedCmd.Status;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author yang
@@ -37,6 +42,39 @@ public abstract class StatusHelper {
         .put(Status.TIMEOUT, Job.Status.TIMEOUT)
         .build();
 
+    private final static List<Job.Status> AggregateOrder = ImmutableList.of(
+        Job.Status.FAILURE,
+        Job.Status.TIMEOUT,
+        Job.Status.CANCELLED,
+        Job.Status.SUCCESS
+    );
+
+    /**
+     * Job status of matrix from child job status
+     * - the worst status if all finished, in the order of FAILURE, TIMEOUT, CANCELLED and SUCCESS
+     * - RUNNING if any child job is running or finished
+     * - QUEUED if child jobs are waiting
+     */
+    public static Job.Status aggregate(Collection<Job.Status> children) {
+        Set<Job.Status> statuses = EnumSet.copyOf(children);
+
+        if (Job.FINISH_STATUS.containsAll(statuses)) {
+            for (Job.Status status : AggregateOrder) {
+                if (statuses.contains(status)) {
+                    return status;
+                }
+            }
+        }
+
+        for (Job.Status status : statuses) {
+            if (status == Job.Status.RUNNING || Job.FINISH_STATUS.contains(status)) {
+                return Job.Status.RUNNING;
+            }
+        }
+
+        return Job.Status.QUEUED;
+    }
+
     public static Job.Status convert(ExecutedCmd executedCmd) {
         // to handle allow failure
         if (executedCmd.isSuccess()) {
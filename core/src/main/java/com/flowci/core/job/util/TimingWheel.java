@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.util;
+
+import java.util.*;
+
+/**
+ * Hierarchical timing wheel to track deadline of keys, add and remove are O(1).
+ * <p>
+ * The level 0 has one slot per tick, the slot of level N covers all slots of level N - 1,
+ * keys in the slot of upper level are moved to lower level when lower level wheel wraps around.
+ * Key with deadline beyond the top level is kept in the farthest slot and re-placed while cascading.
+ * <p>
+ * It's not thread safe
+ */
+public class TimingWheel<K> {
+
+    private static final int SlotBits = 6;
+
+    private static final int NumOfSlots = 1 << SlotBits;
+
+    private static final int SlotMask = NumOfSlots - 1;
+
+    private static final int NumOfLevels = 4;
+
+    private static final long MaxTicks = (1L << (SlotBits * NumOfLevels)) - 1;
+
+    private final long tickInMillis;
+
+    // wheels[level][slot] as keys in slot
+    private final List<List<Set<K>>> wheels = new ArrayList<>(NumOfLevels);
+
+    private final Map<K, Entry<K>> entries = new HashMap<>();
+
+    // keys with deadline not after current tick while placing
+    private final Set<K> overdue = new LinkedHashSet<>();
+
+    private long currentTick;
+
+    public TimingWheel(long tickInMillis, long nowInMillis) {
+        this.tickInMillis = tickInMillis;
+        this.currentTick = nowInMillis / tickInMillis;
+
+        for (int i = 0; i < NumOfLevels; i++) {
+            List<Set<K>> slots = new ArrayList<>(NumOfSlots);
+            for (int j = 0; j < NumOfSlots; j++) {
+                slots.add(new LinkedHashSet<>());
+            }
+            wheels.add(slots);
+        }
+    }
+
+    /**
+     * Add or replace key with deadline
+     */
+    public void add(K key, long deadlineInMillis) {
+        remove(key);
+
+        // round up, so key will not be expired before deadline
+        long deadlineTick = (deadlineInMillis + tickInMillis - 1) / tickInMillis;
+        place(new Entry<>(key, deadlineTick));
+    }
+
+    /**
+     * Remove key if existed
+     *
+     * @return false if key not existed
+     */
+    public boolean remove(K key) {
+        Entry<K> entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.slot.remove(key);
+        return true;
+    }
+
+    public boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Move wheel to now, and return expired keys
+     */
+    public List<K> advance(long nowInMillis) {
+        List<K> expired = new LinkedList<>();
+        long targetTick = nowInMillis / tickInMillis;
+
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+
+            Set<K> slot = wheels.get(0).get((int) (currentTick & SlotMask));
+            for (K key : slot) {
+                entries.remove(key);
+                expired.add(key);
+            }
+            slot.clear();
+        }
+
+        // keys added with passed deadline, or deadline at the boundary of upper level slot
+        for (K key : overdue) {
+            entries.remove(key);
+            expired.add(key);
+        }
+        overdue.clear();
+
+        return expired;
+    }
+
+    /**
+     * Move keys of upper level slots to lower levels, if lower level wheel wraps around
+     */
+    private void cascade() {
+        for (int level = 1; level < NumOfLevels; level++) {
+            if ((currentTick & ((1L << (SlotBits * level)) - 1)) != 0) {
+                return;
+            }
+
+            int index = (int) ((currentTick >> (SlotBits * level)) & SlotMask);
+            Set<K> slot = wheels.get(level).get(index);
+
+            List<K> keys = new ArrayList<>(slot);
+            slot.clear();
+
+            for (K key : keys) {
+                place(entries.get(key));
+            }
+        }
+    }
+
+    private void place(Entry<K> entry) {
+        long delta = entry.deadlineTick - currentTick;
+
+        if (delta <= 0) {
+            entry.slot = overdue;
+            overdue.add(entry.key);
+            entries.put(entry.key, entry);
+            return;
+        }
+
+        long tick = delta > MaxTicks ? currentTick + MaxTicks : entry.deadlineTick;
+        delta = tick - currentTick;
+
+        int level = 0;
+        while (delta >= (1L << (SlotBits * (level + 1)))) {
+            level++;
+        }
+
+        int index = (int) ((tick >> (SlotBits * level)) & SlotMask);
+        entry.slot = wheels.get(level).get(index);
+        entry.slot.add(entry.key);
+        entries.put(entry.key, entry);
+    }
+
+    private static class Entry<K> {
+
+        private final K key;
+
+        private final long deadlineTick;
+
+        private Set<K> slot;
+
+        Entry(K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -16,16 +16,19 @@
 
 package com.flowci.core.trigger.event;
 
+import com.flowci.core.common.domain.SyncEvent;
 import com.flowci.core.trigger.domain.GitPingTrigger;
 import com.flowci.core.trigger.domain.GitTrigger;
 import lombok.Getter;
 import org.springframework.context.ApplicationEvent;
 
 /**
+ * Handled in the webhook request thread, so the git server gets the error if job cannot be created
+ *
  * @author yang
  */
 @Getter
-public class GitHookEvent extends ApplicationEvent {
+public class GitHookEvent extends ApplicationEvent implements SyncEvent {
 
     private final String flow;
 
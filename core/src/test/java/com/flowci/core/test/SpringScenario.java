@@ -17,6 +17,7 @@
 package com.flowci.core.test;
 
 import com.flowci.core.agent.dao.AgentDao;
+import com.flowci.core.agent.manager.AgentRegistryManager;
 import com.flowci.core.common.manager.SessionManager;
 import com.flowci.core.common.rabbit.RabbitChannelOperation;
 import com.flowci.core.common.rabbit.RabbitQueueOperation;
@@ -111,6 +112,9 @@ public abstract class SpringScenario {
     @Autowired
     private AgentDao agentDao;
 
+    @Autowired
+    private AgentRegistryManager agentRegistryManager;
+
     @Autowired
     private FlowDao flowDao;
 
@@ -129,6 +133,7 @@ public abstract class SpringScenario {
     @After
     public void dbCleanUp() {
         mongoTemplate.getDb().drop();
+        agentRegistryManager.clear();
     }
 
     @After
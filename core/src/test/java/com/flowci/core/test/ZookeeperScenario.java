@@ -51,9 +51,14 @@ public abstract class ZookeeperScenario extends SpringScenario {
 
     @Before
     public void cleanZkNodes() {
-        String root = zkProperties.getAgentRoot();
-        for (String child : zk.children(root)) {
-            zk.delete(root + "/" + child, true);
+        for (String root : new String[]{zkProperties.getAgentRoot(), zkProperties.getSlotRoot()}) {
+            if (!zk.exist(root)) {
+                continue;
+            }
+
+            for (String child : zk.children(root)) {
+                zk.delete(root + "/" + child, true);
+            }
         }
     }
 
@@ -91,6 +91,24 @@ public class AgentHostServiceTest extends ZookeeperScenario {
         Assert.assertEquals(0, agentService.list().size());
     }
 
+    @Test
+    public void should_create_standby_agents_by_min_idle() {
+        AgentHost host = new LocalUnixAgentHost();
+        host.setName("test-host");
+        host.setTags(Sets.newHashSet("local", "test"));
+        host.setMinIdle(2);
+        agentHostService.createOrUpdate(host);
+
+        // when: replenish twice
+        agentHostService.replenish(host);
+        agentHostService.replenish(host);
+        ThreadHelper.sleep(5000);
+
+        // then: only min idle agents should be created
+        Assert.assertEquals(2, agentHostService.size(host));
+        Assert.assertEquals(2, agentService.list().size());
+    }
+
     @Test
     public void should_should_over_time_limit() {
         AgentHost host = new LocalUnixAgentHost();
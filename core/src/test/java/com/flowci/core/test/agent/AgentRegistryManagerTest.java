@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.agent;
+
+import com.flowci.core.agent.manager.AgentRegistryManager;
+import com.flowci.domain.Agent;
+import com.flowci.domain.Agent.Status;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class AgentRegistryManagerTest {
+
+    private static final Agent.Reservation NoReservation = new Agent.Reservation();
+
+    private final AgentRegistryManager manager = new AgentRegistryManager();
+
+    @Test
+    public void should_find_idle_agents_by_tags() {
+        manager.put(mockAgent("1", Status.IDLE, ImmutableSet.of("android")));
+        manager.put(mockAgent("2", Status.IDLE, ImmutableSet.of("ios")));
+        manager.put(mockAgent("3", Status.BUSY, ImmutableSet.of("android")));
+
+        List<Agent> android = manager.find(Status.IDLE, ImmutableSet.of("android"));
+        Assert.assertEquals(1, android.size());
+        Assert.assertEquals("1", android.get(0).getId());
+
+        Assert.assertEquals(2, manager.find(Status.IDLE, null).size());
+        Assert.assertEquals(1, manager.find(Status.BUSY, ImmutableSet.of("android")).size());
+
+        // when: agent 1 becomes busy
+        manager.setStatus("1", Status.BUSY, 1);
+
+        // then: should not be found as idle
+        Assert.assertEquals(0, manager.find(Status.IDLE, ImmutableSet.of("android")).size());
+        Assert.assertEquals(1, manager.find(Status.IDLE, null).size());
+    }
+
+    @Test
+    public void should_ignore_status_with_outdated_version() {
+        manager.put(mockAgent("1", Status.IDLE, ImmutableSet.of()));
+        manager.setVersion("1", 2);
+
+        // when: event of version 1 received after version 2
+        Assert.assertFalse(manager.setStatus("1", Status.BUSY, 1));
+
+        // then: status should not be changed
+        Assert.assertEquals(Status.IDLE, manager.getStatus("1").get());
+
+        Assert.assertTrue(manager.setStatus("1", Status.BUSY, 3));
+        Assert.assertEquals(Status.BUSY, manager.getStatus("1").get());
+        Assert.assertEquals(3, manager.getVersion("1").get().intValue());
+    }
+
+    @Test
+    public void should_reindex_when_tags_changed() {
+        Agent agent = mockAgent("1", Status.IDLE, ImmutableSet.of("android"));
+        manager.put(agent);
+
+        agent.setTags(ImmutableSet.of("ios"));
+        Assert.assertEquals(1, manager.find(Status.IDLE, ImmutableSet.of("android")).size());
+
+        manager.put(agent);
+        Assert.assertEquals(0, manager.find(Status.IDLE, ImmutableSet.of("android")).size());
+        Assert.assertEquals(1, manager.find(Status.IDLE, ImmutableSet.of("ios")).size());
+
+        manager.remove("1");
+        Assert.assertEquals(0, manager.find(Status.IDLE, null).size());
+        Assert.assertFalse(manager.get("1").isPresent());
+    }
+
+    @Test
+    public void should_return_copy_of_agent() {
+        manager.put(mockAgent("1", Status.IDLE, ImmutableSet.of()));
+
+        Agent agent = manager.get("1").get();
+        agent.setJobId("job");
+        agent.setStatus(Status.BUSY);
+
+        Agent cached = manager.get("1").get();
+        Assert.assertNull(cached.getJobId());
+        Assert.assertEquals(Status.IDLE, cached.getStatus());
+    }
+
+    @Test
+    public void should_claim_slots_up_to_capacity() {
+        Agent agent = mockAgent("1", Status.IDLE, ImmutableSet.of());
+        agent.setSlots(2);
+        manager.put(agent);
+
+        Assert.assertEquals(0, manager.claimSlot("1", "job-a", NoReservation, null).get().intValue());
+        Assert.assertEquals(1, manager.claimSlot("1", "job-b", NoReservation, null).get().intValue());
+
+        // then: cannot claim more slot or claim twice by the same job
+        Assert.assertFalse(manager.claimSlot("1", "job-c", NoReservation, null).isPresent());
+        Assert.assertFalse(manager.claimSlot("1", "job-a", NoReservation, null).isPresent());
+        Assert.assertFalse(manager.get("1").get().hasFreeSlot());
+
+        // when: slot of job-a is released
+        Assert.assertTrue(manager.releaseSlot("1", "job-a"));
+        Assert.assertFalse(manager.releaseSlot("1", "job-a"));
+
+        // then: the lowest free slot should be claimed
+        Assert.assertEquals(0, manager.claimSlot("1", "job-c", NoReservation, null).get().intValue());
+    }
+
+    @Test
+    public void should_claim_preferred_slot_if_free() {
+        Agent agent = mockAgent("1", Status.IDLE, ImmutableSet.of());
+        agent.setSlots(3);
+        manager.put(agent);
+
+        Assert.assertEquals(2, manager.claimSlot("1", "job-a", NoReservation, 2).get().intValue());
+
+        // then: the lowest free slot should be claimed if preferred slot is occupied or out of range
+        Assert.assertEquals(0, manager.claimSlot("1", "job-b", NoReservation, 2).get().intValue());
+        Assert.assertEquals(1, manager.claimSlot("1", "job-c", NoReservation, 5).get().intValue());
+    }
+
+    @Test
+    public void should_skip_slot_occupied_by_other_server() {
+        Agent agent = mockAgent("1", Status.IDLE, ImmutableSet.of());
+        agent.setSlots(2);
+        manager.put(agent);
+
+        // when: slot 0 is occupied by job from other server
+        manager.occupySlot("1", "job-a", 0, NoReservation);
+
+        // then: next free slot should be claimed
+        Assert.assertEquals(1, manager.claimSlot("1", "job-b", NoReservation, null).get().intValue());
+        Assert.assertFalse(manager.claimSlot("1", "job-c", NoReservation, null).isPresent());
+    }
+
+    @Test
+    public void should_keep_slots_when_agent_updated() {
+        manager.put(mockAgent("1", Status.IDLE, ImmutableSet.of()));
+        Assert.assertTrue(manager.claimSlot("1", "job-a", NoReservation, null).isPresent());
+
+        // when: put agent loaded from database
+        manager.put(mockAgent("1", Status.BUSY, ImmutableSet.of()));
+
+        // then: slots should not be overwritten, and busy agent cannot be claimed
+        Assert.assertEquals(0, manager.get("1").get().getJobSlots().get("job-a").intValue());
+        Assert.assertFalse(manager.claimSlot("1", "job-b", NoReservation, null).isPresent());
+
+        manager.clearSlots("1");
+        Assert.assertTrue(manager.get("1").get().getJobSlots().isEmpty());
+    }
+
+    @Test
+    public void should_keep_reservation_until_slot_released() {
+        manager.put(mockAgent("1", Status.IDLE, ImmutableSet.of()));
+        manager.claimSlot("1", "job-a", new Agent.Reservation().setMemory(1024), null);
+
+        Assert.assertEquals(1024, manager.get("1").get().getJobReservations().get("job-a").getMemory());
+
+        // when: slot released
+        manager.releaseSlot("1", "job-a");
+
+        // then: reservation should be removed
+        Assert.assertTrue(manager.get("1").get().getJobReservations().isEmpty());
+    }
+
+    private static Agent mockAgent(String id, Status status, ImmutableSet<String> tags) {
+        Agent agent = new Agent("agent-" + id, tags);
+        agent.setId(id);
+        agent.setStatus(status);
+        return agent;
+    }
+}
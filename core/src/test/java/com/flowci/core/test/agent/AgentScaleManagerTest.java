@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.agent;
+
+import com.flowci.core.agent.domain.AgentHost;
+import com.flowci.core.agent.domain.LocalUnixAgentHost;
+import com.flowci.core.agent.manager.AgentScaleManager;
+import com.flowci.core.agent.manager.AgentScaleManager.Capacity;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class AgentScaleManagerTest {
+
+    private final AgentScaleManager manager = new AgentScaleManager();
+
+    @Test
+    public void should_plan_agents_by_waiting_jobs() {
+        AgentHost android = mockHost("android", ImmutableSet.of("android"));
+        AgentHost linux = mockHost("linux", ImmutableSet.of("linux"));
+
+        List<Set<String>> demands = new LinkedList<>();
+        for (int i = 0; i < 5; i++) {
+            demands.add(ImmutableSet.of("android"));
+        }
+        demands.add(Collections.emptySet());
+
+        // when: android host has one starting agent and can launch 3 agents
+        Map<String, Integer> plan = manager.plan(demands, ImmutableList.of(
+                new Capacity(android, 1, 3),
+                new Capacity(linux, 0, 10)
+        ));
+
+        // then: 3 agents from android host, the job without tags goes to linux host
+        Assert.assertEquals(3, plan.get("android").intValue());
+        Assert.assertEquals(1, plan.get("linux").intValue());
+    }
+
+    @Test
+    public void should_count_starting_agents_until_online() {
+        String creating = manager.start("host", null);
+        manager.start("host", "agent-1");
+
+        Assert.assertEquals(2, manager.size("host", false));
+        Assert.assertEquals(1, manager.size("host", true));
+        Assert.assertTrue(manager.isStarting("agent-1"));
+
+        // when: agent created
+        manager.setAgent(creating, "agent-2");
+        Assert.assertEquals(0, manager.size("host", true));
+
+        // when: agent online
+        manager.finish("agent-1");
+        Assert.assertFalse(manager.isStarting("agent-1"));
+        Assert.assertEquals(1, manager.size("host", false));
+
+        // when: start failed
+        manager.remove(creating);
+        Assert.assertEquals(0, manager.size("host", false));
+    }
+
+    private static AgentHost mockHost(String id, Set<String> tags) {
+        AgentHost host = new LocalUnixAgentHost();
+        host.setId(id);
+        host.setName(id);
+        host.setTags(tags);
+        return host;
+    }
+}
@@ -20,6 +20,9 @@ import com.flowci.core.agent.event.CmdSentEvent;
 import com.flowci.core.agent.service.AgentService;
 import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.core.common.manager.SpringEventManager;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.event.JobStatusChangeEvent;
 import com.flowci.core.test.ZookeeperScenario;
 import com.flowci.domain.Agent;
 import com.flowci.domain.Agent.Status;
@@ -53,6 +56,9 @@ public class AgentServiceTest extends ZookeeperScenario {
     @Autowired
     private AgentService agentService;
 
+    @Autowired
+    private SpringEventManager eventManager;
+
     @Test
     public void should_init_root_node() {
         Assert.assertTrue(zk.exist(zkProperties.getAgentRoot()));
@@ -65,6 +71,16 @@ public class AgentServiceTest extends ZookeeperScenario {
         Assert.assertEquals(agent, agentService.get(agent.getId()));
     }
 
+    @Test
+    public void should_create_agents_with_different_rsa() {
+        Agent first = agentService.create("first.test", ImmutableSet.of(), Optional.empty());
+        Agent second = agentService.create("second.test", ImmutableSet.of(), Optional.empty());
+
+        Assert.assertTrue(first.getRsa().getPublicKey().trim().endsWith("agent.first.test@flow.ci"));
+        Assert.assertTrue(second.getRsa().getPublicKey().trim().endsWith("agent.second.test@flow.ci"));
+        Assert.assertNotEquals(first.getRsa().getPrivateKey(), second.getRsa().getPrivateKey());
+    }
+
     @Test
     public void should_make_agent_online() throws InterruptedException {
         // init:
@@ -104,7 +120,7 @@ public class AgentServiceTest extends ZookeeperScenario {
 
         for (int i = 0; i < 5; i++) {
             executor.execute(() -> {
-                Boolean isLocked = agentService.tryLock(available);
+                Boolean isLocked = agentService.tryLock(available, new Agent.Reservation(), null);
                 if (isLocked) {
                     numOfLocked.incrementAndGet();
                 }
@@ -123,7 +139,7 @@ public class AgentServiceTest extends ZookeeperScenario {
         Assert.assertEquals(Status.BUSY, getAgentStatus(agentService.getPath(available)));
 
         // when: release agent and mock event from agent
-        agentService.tryRelease(available);
+        agentService.tryRelease(available, available.getJobId());
 //        mockReleaseAgent(agentService.getPath(available));
 
         // then: the status should be idle
@@ -135,6 +151,33 @@ public class AgentServiceTest extends ZookeeperScenario {
         Assert.assertEquals(Status.IDLE, statusFromDB);
     }
 
+    @Test
+    public void should_delete_slot_node_when_job_finished() throws InterruptedException {
+        Agent agent = agentService.create("hello.test", ImmutableSet.of(), Optional.empty());
+        mockAgentOnline(agentService.getPath(agent));
+
+        // when: lock agent for job
+        Agent available = agentService.get(agent.getId());
+        available.setJobId("job-1");
+        Assert.assertTrue(agentService.tryLock(available, new Agent.Reservation(), null));
+
+        // then: persistent slot node should be created for the job
+        String slotPath = zkProperties.getSlotRoot() + Agent.PATH_SLASH + agent.getId() + "-0";
+        Assert.assertTrue(zk.exist(slotPath));
+        Assert.assertEquals(Status.BUSY, getAgentStatus(agentService.getPath(available)));
+
+        // when: job finished without releasing agent
+        Job job = new Job();
+        job.setId("job-1");
+        job.setAgentId(agent.getId());
+        job.setStatus(Job.Status.TIMEOUT);
+        eventManager.publish(new JobStatusChangeEvent(this, job));
+
+        // then: slot node should be deleted and agent should be idle
+        Assert.assertFalse(zk.exist(slotPath));
+        Assert.assertEquals(Status.IDLE, getAgentStatus(agentService.getPath(available)));
+    }
+
     @Test
     public void should_dispatch_cmd_to_agent() throws InterruptedException {
         // init:
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.agent;
+
+import com.flowci.core.agent.manager.HostCircuitBreaker;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HostCircuitBreakerTest {
+
+    @Test
+    public void should_skip_host_after_continuous_failures() {
+        HostCircuitBreaker breaker = new HostCircuitBreaker(2, 60 * 1000);
+
+        breaker.onFailure("a");
+        Assert.assertTrue(breaker.isAllowed("a"));
+
+        // when: failed twice
+        breaker.onFailure("a");
+
+        // then: host a is skipped, host b is not affected
+        Assert.assertFalse(breaker.isAllowed("a"));
+        Assert.assertTrue(breaker.isAllowed("b"));
+
+        // when: host been updated
+        breaker.reset("a");
+        Assert.assertTrue(breaker.isAllowed("a"));
+    }
+
+    @Test
+    public void should_allow_one_try_after_open_period() throws InterruptedException {
+        HostCircuitBreaker breaker = new HostCircuitBreaker(1, 100);
+
+        breaker.onFailure("a");
+        Assert.assertFalse(breaker.isAllowed("a"));
+
+        // when: open period passed
+        Thread.sleep(150);
+        Assert.assertTrue(breaker.isAllowed("a"));
+
+        // then: should open again if the try failed
+        breaker.onFailure("a");
+        Assert.assertFalse(breaker.isAllowed("a"));
+
+        // then: should close if the try succeeded
+        breaker.onSuccess("a");
+        Assert.assertTrue(breaker.isAllowed("a"));
+    }
+}
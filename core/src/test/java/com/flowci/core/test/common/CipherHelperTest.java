@@ -21,6 +21,7 @@ import com.flowci.core.common.helper.CipherHelper;
 import com.flowci.core.common.helper.CipherHelper.RSA;
 import com.flowci.domain.SimpleKeyPair;
 import com.google.common.base.Strings;
+import com.jcraft.jsch.KeyPair;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -53,4 +54,16 @@ public class CipherHelperTest {
 
         Assert.assertEquals(source, decrypted);
     }
+
+    @Test
+    public void should_export_pre_generated_key_pair_with_email() {
+        KeyPair kpair = RSA.genKeyPair();
+        SimpleKeyPair pair = RSA.gen(kpair, "agent@flow.ci");
+
+        Assert.assertTrue(pair.getPublicKey().trim().endsWith("agent@flow.ci"));
+        Assert.assertTrue(RSA.isPrivateKey(pair.getPrivateKey()));
+
+        String encrypted = RSA.encrypt(source, pair.getPublicKey());
+        Assert.assertEquals(source, RSA.decrypt(encrypted, pair.getPrivateKey()));
+    }
 }
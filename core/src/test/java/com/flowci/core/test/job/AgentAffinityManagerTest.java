@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.manager.AgentAffinityManager;
+import com.flowci.domain.Agent;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class AgentAffinityManagerTest {
+
+    private final AgentAffinityManager manager = new AgentAffinityManager();
+
+    @Test
+    public void should_keep_recent_agents_of_flow() {
+        manager.record("flow", "a", 0);
+        manager.record("flow", "b", 0);
+        manager.record("flow", "c", 0);
+        manager.record("flow", "a", 0);
+        manager.record("flow", "d", 0);
+
+        // then: most recent first, and the oldest is removed
+        Assert.assertEquals(ImmutableList.of("d", "a", "c"), manager.list("flow"));
+        Assert.assertTrue(manager.list("other").isEmpty());
+
+        manager.remove("flow");
+        Assert.assertTrue(manager.list("flow").isEmpty());
+    }
+
+    @Test
+    public void should_keep_recent_slot_of_agent() {
+        manager.record("flow", "a", 1);
+        Assert.assertEquals(1, manager.slot("flow", "a").get().intValue());
+
+        // when: flow ran on the other slot of agent
+        manager.record("flow", "a", 0);
+
+        // then: the latest slot should be kept
+        Assert.assertEquals(ImmutableList.of("a"), manager.list("flow"));
+        Assert.assertEquals(0, manager.slot("flow", "a").get().intValue());
+        Assert.assertFalse(manager.slot("flow", "b").isPresent());
+    }
+
+    @Test
+    public void should_sort_recent_agents_to_front() {
+        Agent a = mockAgent("a");
+        Agent b = mockAgent("b");
+        Agent c = mockAgent("c");
+
+        manager.record("flow", "c", 0);
+        manager.record("flow", "b", 0);
+
+        List<Agent> sorted = manager.sort("flow", Lists.newArrayList(a, c, b));
+        Assert.assertEquals(ImmutableList.of(b, c, a), sorted);
+
+        // then: order is kept for flow without recent agents
+        Assert.assertEquals(ImmutableList.of(a, c, b), manager.sort("other", Lists.newArrayList(a, c, b)));
+    }
+
+    private static Agent mockAgent(String id) {
+        Agent agent = new Agent(id);
+        agent.setId(id);
+        return agent;
+    }
+}
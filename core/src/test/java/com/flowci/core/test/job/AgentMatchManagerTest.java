@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.manager.AgentMatchManager;
+import com.flowci.core.job.manager.AgentMatchManager.Waiting;
+import com.flowci.domain.Agent;
+import com.flowci.tree.Selector;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.Set;
+
+public class AgentMatchManagerTest {
+
+    private final AgentMatchManager manager = new AgentMatchManager();
+
+    @Test
+    public void should_match_earliest_job_by_agent_tags() {
+        Job any = mockJob("1", "flow-a", ImmutableSet.of());
+        Job android = mockJob("2", "flow-b", ImmutableSet.of("android"));
+        Job ios = mockJob("3", "flow-c", ImmutableSet.of("ios", "mac"));
+
+        manager.add(any, null);
+        manager.add(android, null);
+        manager.add(ios, null);
+        Assert.assertEquals(3, manager.size());
+
+        // then: agent with ios tag should get job without selector first
+        Optional<Waiting> matched = manager.poll(new Agent("a", ImmutableSet.of("ios")));
+        Assert.assertTrue(matched.isPresent());
+        Assert.assertEquals(any, matched.get().getJob());
+
+        // then: agent with ios tag should get the ios job
+        matched = manager.poll(new Agent("b", ImmutableSet.of("ios")));
+        Assert.assertTrue(matched.isPresent());
+        Assert.assertEquals(ios, matched.get().getJob());
+
+        // then: agent with linux tag cannot match android job
+        Assert.assertFalse(manager.poll(new Agent("c", ImmutableSet.of("linux"))).isPresent());
+        Assert.assertEquals(1, manager.size());
+    }
+
+    @Test
+    public void should_keep_order_when_put_back() {
+        Job first = mockJob("1", "flow-a", ImmutableSet.of());
+        Job second = mockJob("2", "flow-b", ImmutableSet.of());
+
+        manager.add(first, null);
+        manager.add(second, null);
+
+        Waiting waiting = manager.poll(new Agent("a")).get();
+        Assert.assertEquals(first, waiting.getJob());
+
+        // when: put back since fail to lock agent
+        manager.putBack(waiting);
+
+        // then: first job should be matched again
+        Assert.assertEquals(first, manager.poll(new Agent("a")).get().getJob());
+        Assert.assertEquals(second, manager.poll(new Agent("a")).get().getJob());
+        Assert.assertFalse(manager.poll(new Agent("a")).isPresent());
+    }
+
+    @Test
+    public void should_remove_waiting_jobs_by_queue() {
+        Job job = mockJob("1", "flow-a", ImmutableSet.of("android"));
+        Waiting waiting = manager.add(job, null);
+
+        Assert.assertEquals(1, manager.remove(job.getQueueName()).size());
+        Assert.assertFalse(manager.remove(waiting));
+        Assert.assertEquals(0, manager.size());
+    }
+
+    @Test
+    public void should_get_waiting_job_by_id() {
+        Job job = mockJob("1", "flow-a", ImmutableSet.of());
+        Waiting waiting = manager.add(job, null);
+
+        Assert.assertEquals(waiting, manager.get("1").get());
+        Assert.assertFalse(manager.get("2").isPresent());
+
+        // when: removed since job cancelled
+        Assert.assertTrue(manager.remove(waiting));
+        Assert.assertFalse(manager.get("1").isPresent());
+    }
+
+    @Test
+    public void should_match_waiting_jobs_by_flow_weight() {
+        manager.setShare("flow-a", 1, 0);
+        manager.setShare("flow-b", 2, 0);
+
+        Agent agent = new Agent("a");
+        StringBuilder order = new StringBuilder();
+
+        // when: each flow has a waiting job all the time
+        for (int i = 0; i < 6; i++) {
+            manager.add(mockJob("a-" + i, "flow-a", ImmutableSet.of()), null);
+            manager.add(mockJob("b-" + i, "flow-b", ImmutableSet.of()), null);
+
+            Waiting matched = manager.poll(agent).get();
+            order.append(matched.getJob().getFlowId().charAt(5));
+
+            // remove the other waiting job, new jobs will be added in next round
+            manager.remove(manager.list().get(0));
+        }
+
+        // then: flow-b should get twice agents than flow-a
+        Assert.assertEquals(2, order.chars().filter(c -> c == 'a').count());
+        Assert.assertEquals(4, order.chars().filter(c -> c == 'b').count());
+    }
+
+    @Test
+    public void should_match_higher_priority_job_if_same_share() {
+        Job low = mockJob("1", "flow-a", ImmutableSet.of());
+        Job high = mockJob("2", "flow-b", ImmutableSet.of());
+        high.setPriority(10);
+
+        manager.add(low, null);
+        manager.add(high, null);
+
+        Assert.assertEquals(high, manager.poll(new Agent("a")).get().getJob());
+    }
+
+    @Test
+    public void should_not_match_job_if_flow_is_full() {
+        manager.setShare("flow-a", 1, 1);
+
+        Job running = mockJob("1", "flow-a", ImmutableSet.of());
+        Assert.assertTrue(manager.reserve(running));
+        Assert.assertTrue(manager.isFull("flow-a"));
+
+        Job job = mockJob("2", "flow-a", ImmutableSet.of());
+        Waiting waiting = manager.add(job, null);
+        Assert.assertFalse(manager.poll(new Agent("a")).isPresent());
+        Assert.assertFalse(manager.take(waiting));
+
+        // when: running job is done
+        manager.release(running);
+
+        // then: waiting job can be matched
+        Assert.assertEquals(job, manager.poll(new Agent("a")).get().getJob());
+        Assert.assertEquals(1, manager.numOfRunning("flow-a"));
+
+        // when: put back since fail to lock agent
+        manager.putBack(waiting);
+        Assert.assertEquals(0, manager.numOfRunning("flow-a"));
+        Assert.assertTrue(manager.take(waiting));
+    }
+
+    @Test
+    public void should_not_charge_flow_twice_if_reservation_undone() {
+        manager.setShare("flow-a", 1, 0);
+        manager.setShare("flow-b", 1, 0);
+
+        // when: job of flow-a reserved but no agent available
+        Job reserved = mockJob("a-1", "flow-a", ImmutableSet.of());
+        Assert.assertTrue(manager.reserve(reserved));
+        manager.unreserve(reserved);
+        Assert.assertEquals(0, manager.numOfRunning("flow-a"));
+
+        // then: flow-a should be matched first as if it's never reserved
+        manager.add(reserved, null);
+        manager.add(mockJob("b-1", "flow-b", ImmutableSet.of()), null);
+        Assert.assertEquals(reserved, manager.poll(new Agent("a")).get().getJob());
+    }
+
+    @Test
+    public void should_match_preferred_agent_within_window() {
+        Job job = mockJob("1", "flow-a", ImmutableSet.of());
+        Waiting waiting = manager.add(job, null);
+
+        // when: job prefers agent b
+        manager.prefer(waiting, ImmutableSet.of("b"), System.currentTimeMillis() + 60 * 1000);
+        Assert.assertTrue(manager.isPreferring(waiting));
+
+        // then: agent a cannot take it, agent b can
+        Assert.assertFalse(manager.poll(mockAgent("a")).isPresent());
+        Assert.assertEquals(job, manager.poll(mockAgent("b")).get().getJob());
+    }
+
+    @Test
+    public void should_match_any_agent_after_prefer_window() {
+        Job job = mockJob("1", "flow-a", ImmutableSet.of());
+        Waiting waiting = manager.add(job, null);
+
+        manager.prefer(waiting, ImmutableSet.of("b"), System.currentTimeMillis() - 1);
+        Assert.assertFalse(manager.isPreferring(waiting));
+        Assert.assertEquals(job, manager.poll(mockAgent("a")).get().getJob());
+    }
+
+    private static Agent mockAgent(String id) {
+        Agent agent = new Agent(id);
+        agent.setId(id);
+        return agent;
+    }
+
+    private static Job mockJob(String id, String flowId, Set<String> tags) {
+        Selector selector = new Selector();
+        selector.setTags(tags);
+
+        Job job = new Job();
+        job.setId(id);
+        job.setFlowId(flowId);
+        job.setAgentSelector(selector);
+        return job;
+    }
+}
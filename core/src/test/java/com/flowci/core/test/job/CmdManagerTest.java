@@ -16,6 +16,7 @@
 
 package com.flowci.core.test.job;
 
+import com.flowci.core.common.domain.Variables;
 import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.flow.domain.Yml;
 import com.flowci.core.flow.service.FlowService;
@@ -49,6 +50,8 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import java.io.IOException;
 import java.util.List;
 
+import static com.flowci.core.trigger.domain.Variables.GIT_COMMIT_ID;
+
 public class CmdManagerTest extends SpringScenario {
 
     @Autowired
@@ -109,6 +112,51 @@ public class CmdManagerTest extends SpringScenario {
         Assert.assertEquals("world", inputs.get("P_VAR_2"));
     }
 
+    @Test
+    public void should_create_cache_key_from_inputs_and_git_commit() throws IOException {
+        Plugin plugin = createDummyPlugin();
+        Mockito.when(pluginService.get(plugin.getName())).thenReturn(plugin);
+
+        Flow flow = flowService.create("hello");
+        Yml yml = ymlService.saveYml(flow, StringHelper.toString(load("flow-with-plugin.yml")));
+        Job job = jobService.create(flow, yml.getRaw(), Job.Trigger.MANUAL, new StringVars());
+
+        NodeTree tree = NodeTree.create(YmlParser.load(flow.getName(), yml.getRaw()));
+        Node node = tree.get(NodePath.create(flow.getName(), "plugin-test"));
+
+        // then: no cache key if not enabled
+        Assert.assertFalse(cmdManager.createCacheKey(job, node).isPresent());
+
+        // when: enable cache result
+        node.setCacheResult(true);
+
+        // then: no cache key if git commit not defined
+        Assert.assertFalse(cmdManager.createCacheKey(job, node).isPresent());
+
+        job.getContext().put(GIT_COMMIT_ID, "1");
+        String key = cmdManager.createCacheKey(job, node).get();
+
+        // then: key should be changed only if inputs or git commit changed
+        job.getContext().put(Variables.Job.BuildNumber, "100");
+        Assert.assertEquals(key, cmdManager.createCacheKey(job, node).get());
+
+        job.getContext().put("GIT_DEFAULT_VAL", "30");
+        Assert.assertNotEquals(key, cmdManager.createCacheKey(job, node).get());
+
+        job.getContext().put(GIT_COMMIT_ID, "2");
+        Assert.assertNotEquals(key, cmdManager.createCacheKey(job, node).get());
+
+        // then: key should be different for each child job of matrix
+        key = cmdManager.createCacheKey(job, node).get();
+        job.getContext().put(Variables.Job.Matrix, "JDK=8");
+        String jdk8 = cmdManager.createCacheKey(job, node).get();
+        job.getContext().put(Variables.Job.Matrix, "JDK=11");
+        String jdk11 = cmdManager.createCacheKey(job, node).get();
+
+        Assert.assertNotEquals(key, jdk8);
+        Assert.assertNotEquals(jdk8, jdk11);
+    }
+
     private Plugin createDummyPlugin() {
         Input intInput = new Input();
         intInput.setName("GIT_DEFAULT_VAL");
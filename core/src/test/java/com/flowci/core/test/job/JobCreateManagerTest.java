@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.core.job.manager.JobCreateManager;
+import com.flowci.exception.NotAvailableException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class JobCreateManagerTest {
+
+    private final JobCreateManager manager = new JobCreateManager();
+
+    private ThreadPoolTaskExecutor executor;
+
+    @Before
+    public void init() {
+        ConfigProperties.Job jobProperties = new ConfigProperties.Job();
+        jobProperties.setCreatePoolSize(4);
+        jobProperties.setCreateQueueSize(5);
+
+        executor = ThreadHelper.createTaskExecutor(4, 4, 5, "job-run-test-");
+
+        ReflectionTestUtils.setField(manager, "jobProperties", jobProperties);
+        ReflectionTestUtils.setField(manager, "jobRunExecutor", executor);
+        manager.init();
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void should_run_tasks_of_same_flow_in_order() throws InterruptedException {
+        List<Integer> flowA = new CopyOnWriteArrayList<>();
+        List<Integer> flowB = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(4);
+
+        for (int i = 0; i < 2; i++) {
+            final int num = i;
+            manager.submit("flow-a", () -> {
+                sleep(50);
+                flowA.add(num);
+                latch.countDown();
+            });
+            manager.submit("flow-b", () -> {
+                flowB.add(num);
+                latch.countDown();
+            });
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("[0, 1]", flowA.toString());
+        Assert.assertEquals("[0, 1]", flowB.toString());
+
+        // then: permits should be released
+        sleep(100);
+        Assert.assertEquals(0, manager.stats().getNumOfPending());
+        Assert.assertEquals(0, manager.stats().getNumOfFlows());
+    }
+
+    @Test
+    public void should_continue_next_task_if_task_failed() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        manager.submit("flow-a", () -> {
+            throw new IllegalStateException("failed");
+        });
+        manager.submit("flow-a", latch::countDown);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void should_reject_task_if_too_many_pending() throws InterruptedException {
+        CountDownLatch blocker = new CountDownLatch(1);
+
+        for (int i = 0; i < 5; i++) {
+            manager.submit("flow-" + i, () -> {
+                try {
+                    blocker.await();
+                } catch (InterruptedException ignore) {
+                }
+            });
+        }
+
+        Assert.assertEquals(5, manager.stats().getNumOfPending());
+
+        try {
+            manager.submit("flow-x", () -> {
+            });
+            Assert.fail();
+        } catch (NotAvailableException e) {
+            Assert.assertEquals(1, manager.stats().getNumOfRejected());
+        } finally {
+            blocker.countDown();
+        }
+    }
+
+    @Test
+    public void should_reschedule_task_rejected_by_executor() throws InterruptedException {
+        executor.shutdown();
+        executor = ThreadHelper.createTaskExecutor(1, 1, 1, "job-run-test-");
+        ReflectionTestUtils.setField(manager, "jobRunExecutor", executor);
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(3);
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        // when: the third flow is rejected since executor is full
+        for (int i = 0; i < 3; i++) {
+            final int num = i;
+            manager.submit("flow-" + i, () -> {
+                if (num == 0) {
+                    await(blocker);
+                }
+                threads.add(Thread.currentThread().getName());
+                latch.countDown();
+            });
+        }
+
+        // then: the rejected task should not be run by the caller
+        Assert.assertEquals(3, latch.getCount());
+        blocker.countDown();
+
+        // then: all tasks should be run by executor rather than the caller
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (String name : threads) {
+            Assert.assertTrue(name.startsWith("job-run-test-"));
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ignore) {
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignore) {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.dao.JobDao;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.test.SpringScenario;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Date;
+
+public class JobDaoTest extends SpringScenario {
+
+    @Autowired
+    private JobDao jobDao;
+
+    @Test
+    public void should_save_changed_fields_only() {
+        Job job = new Job();
+        job.setFlowId("hello");
+        job.setBuildNumber(1L);
+        job.getContext().put("HELLO", "WORLD");
+        jobDao.insert(job);
+
+        // given: job loaded twice
+        Job first = jobDao.findById(job.getId()).get();
+        Job second = jobDao.findById(job.getId()).get();
+
+        // when: change different fields and save
+        first.setStatus(Job.Status.RUNNING);
+        first.getContext().put("FIRST", "1");
+        jobDao.saveChanges(first);
+
+        second.setCurrentPath("flow/step");
+        second.getContext().put("SECOND", "2");
+        second.getContext().remove("HELLO");
+        jobDao.saveChanges(second);
+
+        // then: changes from both should be saved
+        Job saved = jobDao.findById(job.getId()).get();
+        Assert.assertEquals(Job.Status.RUNNING, saved.getStatus());
+        Assert.assertEquals("flow/step", saved.getCurrentPath());
+        Assert.assertEquals("1", saved.getContext().get("FIRST"));
+        Assert.assertEquals("2", saved.getContext().get("SECOND"));
+        Assert.assertFalse(saved.getContext().containsKey("HELLO"));
+    }
+
+    @Test
+    public void should_save_whole_context_if_key_has_dot() {
+        Job job = new Job();
+        job.setFlowId("hello");
+        job.setBuildNumber(1L);
+        jobDao.insert(job);
+
+        Job loaded = jobDao.findById(job.getId()).get();
+        loaded.getContext().put("hello.world", "1");
+        jobDao.saveChanges(loaded);
+
+        Assert.assertEquals("1", jobDao.findById(job.getId()).get().getContext().get("hello.world"));
+    }
+
+    @Test
+    public void should_save_any_changed_field_and_update_time() throws InterruptedException {
+        Job job = new Job();
+        job.setFlowId("hello");
+        job.setBuildNumber(1L);
+        jobDao.insert(job);
+
+        Job loaded = jobDao.findById(job.getId()).get();
+        Date updatedAt = loaded.getUpdatedAt();
+        Thread.sleep(10);
+
+        // when: change fields which are not changed by status or context
+        loaded.getChildren().add("child-job");
+        loaded.getStepAgents().put("flow/step", "agent");
+        loaded.setPriority(10);
+        jobDao.saveChanges(loaded);
+
+        // then: all changes should be saved with new updated time
+        Job saved = jobDao.findById(job.getId()).get();
+        Assert.assertEquals("child-job", saved.getChildren().get(0));
+        Assert.assertEquals("agent", saved.getStepAgents().get("flow/step"));
+        Assert.assertEquals(10, saved.getPriority().intValue());
+        Assert.assertNotNull(saved.getUpdatedAt());
+        Assert.assertTrue(updatedAt == null || saved.getUpdatedAt().after(updatedAt));
+    }
+
+    @Test
+    public void should_increase_step_seq_without_overwritten_by_save() {
+        Job job = new Job();
+        job.setFlowId("hello");
+        job.setBuildNumber(1L);
+        jobDao.insert(job);
+
+        Job loaded = jobDao.findById(job.getId()).get();
+
+        Assert.assertEquals(1L, jobDao.increaseStepSeq(job.getId()));
+        Assert.assertEquals(2L, jobDao.increaseStepSeq(job.getId()));
+
+        // when: save job loaded before the sequence increased
+        loaded.setCurrentPath("flow/step");
+        jobDao.saveChanges(loaded);
+
+        // then: sequence should not be reset
+        Assert.assertEquals(3L, jobDao.increaseStepSeq(job.getId()));
+    }
+}
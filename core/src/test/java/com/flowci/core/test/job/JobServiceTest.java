@@ -19,6 +19,7 @@ package com.flowci.core.test.job;
 import com.flowci.core.agent.event.AgentStatusEvent;
 import com.flowci.core.agent.event.CmdSentEvent;
 import com.flowci.core.agent.service.AgentService;
+import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.domain.Variables;
 import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.flow.domain.Yml;
@@ -45,6 +46,7 @@ import com.flowci.tree.NodeTree;
 import com.flowci.tree.YmlParser;
 import com.flowci.util.StringHelper;
 import lombok.extern.log4j.Log4j2;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
@@ -59,6 +61,8 @@ import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import static com.flowci.core.trigger.domain.Variables.GIT_BRANCH;
+
 /**
  * @author yang
  */
@@ -99,6 +103,9 @@ public class JobServiceTest extends ZookeeperScenario {
     @Autowired
     private FlowJobQueueManager flowJobQueueManager;
 
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
     private Flow flow;
 
     private Yml yml;
@@ -113,6 +120,12 @@ public class JobServiceTest extends ZookeeperScenario {
         Assert.assertNotNull(flowJobQueueManager.get(flow.getQueueName()));
     }
 
+    @After
+    public void resetSupersede() {
+        jobProperties.setSupersedeQueued(false);
+        jobProperties.setSupersedeRunning(false);
+    }
+
     @Test
     public void should_create_job_with_expected_context() {
         // init:
@@ -190,6 +203,62 @@ public class JobServiceTest extends ZookeeperScenario {
         Assert.assertEquals(job, receivedJob.getValue());
     }
 
+    @Test
+    public void should_supersede_queued_job_of_same_branch() {
+        jobProperties.setSupersedeQueued(true);
+
+        // init: queued jobs on master and develop
+        Job master = jobService.start(createPushJob("master"));
+        Job develop = jobService.start(createPushJob("develop"));
+        Assert.assertEquals(Status.QUEUED, master.getStatus());
+        Assert.assertEquals(Status.QUEUED, develop.getStatus());
+
+        // when: start job on master by manual
+        StringVars input = new StringVars();
+        input.put(GIT_BRANCH, "master");
+        jobService.start(jobService.create(flow, yml.getRaw(), Trigger.MANUAL, input));
+
+        // then: job of push should not be superseded by other trigger
+        Assert.assertEquals(Status.QUEUED, jobService.get(master.getId()).getStatus());
+
+        // when: start new job on master by push
+        Job latest = jobService.start(createPushJob("master"));
+
+        // then: only previous job on master should be cancelled
+        Assert.assertEquals(Status.QUEUED, latest.getStatus());
+        Assert.assertEquals(Status.CANCELLED, jobService.get(master.getId()).getStatus());
+        Assert.assertEquals(Status.QUEUED, jobService.get(develop.getId()).getStatus());
+    }
+
+    @Test
+    public void should_supersede_running_job_of_same_branch() {
+        jobProperties.setSupersedeRunning(true);
+
+        // init: running job on master and develop, and queued job on master
+        Job running = createRunningPushJob("master");
+        Job develop = createRunningPushJob("develop");
+        Job queued = jobService.start(createPushJob("master"));
+
+        // when: start new job on master by push
+        jobService.start(createPushJob("master"));
+
+        // then: running job on master should be cancelled, since its agent not existed
+        Assert.assertEquals(Status.CANCELLED, jobService.get(running.getId()).getStatus());
+        Assert.assertEquals(Status.RUNNING, jobService.get(develop.getId()).getStatus());
+        Assert.assertEquals(Status.QUEUED, jobService.get(queued.getId()).getStatus());
+    }
+
+    @Test
+    public void should_not_supersede_if_disabled() {
+        Job running = createRunningPushJob("master");
+        Job queued = jobService.start(createPushJob("master"));
+
+        jobService.start(createPushJob("master"));
+
+        Assert.assertEquals(Status.RUNNING, jobService.get(running.getId()).getStatus());
+        Assert.assertEquals(Status.QUEUED, jobService.get(queued.getId()).getStatus());
+    }
+
     @Test
     public void should_get_job_expire() {
         Job job = jobService.create(flow, yml.getRaw(), Trigger.MANUAL, StringVars.EMPTY);
@@ -300,6 +369,47 @@ public class JobServiceTest extends ZookeeperScenario {
         Assert.assertEquals(Status.SUCCESS, job.getStatus());
     }
 
+    @Test
+    public void should_rerun_job_from_failed_step() {
+        // init: job with first step succeeded and second step failed
+        Job job = jobService.create(flow, yml.getRaw(), Trigger.MANUAL, StringVars.EMPTY);
+        NodeTree tree = ymlManager.getTree(job);
+        Node firstNode = tree.next(tree.getRoot().getPath());
+        Node secondNode = tree.next(firstNode.getPath());
+
+        ExecutedCmd first = new ExecutedCmd(cmdManager.createId(job, firstNode), job.getFlowId(), false);
+        first.setStatus(ExecutedCmd.Status.SUCCESS);
+        first.getOutput().put("HELLO_WORLD", "hello.world");
+        stepService.resultUpdate(first);
+
+        ExecutedCmd second = new ExecutedCmd(cmdManager.createId(job, secondNode), job.getFlowId(), false);
+        second.setStatus(ExecutedCmd.Status.EXCEPTION);
+        second.getOutput().put("HELLO_JAVA", "hello.java");
+        stepService.resultUpdate(second);
+
+        job.getContext().merge(first.getOutput());
+        job.getContext().merge(second.getOutput());
+        jobService.setJobStatusAndSave(job, Status.FAILURE, "failed");
+
+        // when: rerun from second step
+        Job rerun = jobService.rerun(flow, job, secondNode.getPath());
+
+        // then: rerun job should be created with context of first step
+        Assert.assertEquals(Status.CREATED, rerun.getStatus());
+        Assert.assertEquals(Trigger.RERUN, rerun.getTrigger());
+        Assert.assertEquals(job.getBuildNumber() + 1, rerun.getBuildNumber().longValue());
+        Assert.assertEquals(firstNode.getPath(), NodePath.create(rerun.getCurrentPath()));
+        Assert.assertEquals("hello.world", rerun.getContext().get("HELLO_WORLD"));
+        Assert.assertFalse(rerun.getContext().containsKey("HELLO_JAVA"));
+
+        // then: result of first step should be copied
+        ExecutedCmd reused = stepService.get(rerun, firstNode);
+        Assert.assertEquals(ExecutedCmd.Status.SUCCESS, reused.getStatus());
+        Assert.assertEquals("hello.world", reused.getOutput().get("HELLO_WORLD"));
+        Assert.assertTrue(reused.isCacheHit());
+        Assert.assertTrue(stepService.get(rerun, secondNode).isPending());
+    }
+
     @Test
     public void should_handle_cmd_callback_for_failure_status_but_allow_failure() throws IOException {
         // init: agent and job
@@ -488,4 +598,16 @@ public class JobServiceTest extends ZookeeperScenario {
 
         return jobDao.save(job);
     }
-}
\ No newline at end of file
+
+    private Job createPushJob(String branch) {
+        StringVars input = new StringVars();
+        input.put(GIT_BRANCH, branch);
+        return jobService.create(flow, yml.getRaw(), Trigger.PUSH, input);
+    }
+
+    private Job createRunningPushJob(String branch) {
+        Job job = createPushJob(branch);
+        job.setAgentId("not-existed");
+        return jobService.setJobStatusAndSave(job, Status.RUNNING, null);
+    }
+}
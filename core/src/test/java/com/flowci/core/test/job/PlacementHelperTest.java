@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.util.PlacementHelper;
+import com.flowci.domain.Agent;
+import com.flowci.tree.Selector;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class PlacementHelperTest {
+
+    @Test
+    public void should_place_job_to_best_fit_agent() {
+        Agent small = mockAgent("small", 2, 4096, 1024);
+        Agent large = mockAgent("large", 8, 16384, 8192);
+        Agent medium = mockAgent("medium", 4, 8192, 3072);
+
+        Selector selector = new Selector();
+        selector.setMemory(3072);
+
+        // then: small agent should be refused, medium agent should be the first
+        List<Agent> agents = PlacementHelper.bestFit(Lists.newArrayList(small, large, medium), selector);
+        Assert.assertEquals(2, agents.size());
+        Assert.assertEquals(medium, agents.get(0));
+        Assert.assertEquals(large, agents.get(1));
+
+        Assert.assertFalse(PlacementHelper.fits(small.getResource(), selector));
+    }
+
+    @Test
+    public void should_keep_order_if_no_resource_requested() {
+        Agent small = mockAgent("small", 2, 4096, 1024);
+        Agent large = mockAgent("large", 8, 16384, 8192);
+
+        List<Agent> agents = PlacementHelper.bestFit(Lists.newArrayList(large, small), new Selector());
+        Assert.assertEquals(large, agents.get(0));
+        Assert.assertEquals(small, agents.get(1));
+    }
+
+    @Test
+    public void should_treat_unreported_resource_as_fit() {
+        Agent unknown = new Agent("unknown");
+        unknown.setId("unknown");
+
+        Selector selector = new Selector();
+        selector.setCpu(4);
+        selector.setDisk(1024);
+
+        Assert.assertTrue(PlacementHelper.fits(unknown.getResource(), selector));
+        Assert.assertFalse(PlacementHelper.fits(mockAgent("small", 2, 4096, 1024).getResource(), selector));
+    }
+
+    @Test
+    public void should_subtract_resource_reserved_by_jobs_on_agent() {
+        Agent agent = mockAgent("agent", 4, 8192, 4096);
+        Agent other = mockAgent("other", 4, 8192, 2048);
+
+        Selector selector = new Selector();
+        selector.setCpu(2);
+        selector.setMemory(2048);
+
+        // when: job placed on agent reserved 2 cpu and 2048 memory
+        agent.getJobReservations().put("job-a", PlacementHelper.reservation(selector));
+
+        // then: agent should fit once more
+        Assert.assertTrue(PlacementHelper.fits(agent, selector));
+
+        // when: the second job placed on agent
+        agent.getJobReservations().put("job-b", PlacementHelper.reservation(selector));
+
+        // then: agent should not fit since cpu and memory all reserved
+        Assert.assertFalse(PlacementHelper.fits(agent, selector));
+
+        List<Agent> agents = PlacementHelper.bestFit(Lists.newArrayList(agent, other), selector);
+        Assert.assertEquals(1, agents.size());
+        Assert.assertEquals(other, agents.get(0));
+    }
+
+    private static Agent mockAgent(String id, int cpu, int totalMemory, int freeMemory) {
+        Agent agent = new Agent(id);
+        agent.setId(id);
+        agent.getResource()
+                .setCpu(cpu)
+                .setTotalMemory(totalMemory)
+                .setFreeMemory(freeMemory)
+                .setTotalDisk(102400)
+                .setFreeDisk(51200);
+        return agent;
+    }
+}
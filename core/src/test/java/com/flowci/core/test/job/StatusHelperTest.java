@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.domain.Job.Status;
+import com.flowci.core.job.util.StatusHelper;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatusHelperTest {
+
+    @Test
+    public void should_aggregate_matrix_status() {
+        Assert.assertEquals(Status.QUEUED, StatusHelper.aggregate(ImmutableList.of(Status.CREATED, Status.QUEUED)));
+        Assert.assertEquals(Status.RUNNING, StatusHelper.aggregate(ImmutableList.of(Status.QUEUED, Status.RUNNING)));
+        Assert.assertEquals(Status.RUNNING, StatusHelper.aggregate(ImmutableList.of(Status.QUEUED, Status.SUCCESS)));
+
+        // then: should get the worst status if all finished
+        Assert.assertEquals(Status.SUCCESS, StatusHelper.aggregate(ImmutableList.of(Status.SUCCESS, Status.SUCCESS)));
+        Assert.assertEquals(Status.CANCELLED, StatusHelper.aggregate(ImmutableList.of(Status.SUCCESS, Status.CANCELLED)));
+        Assert.assertEquals(Status.FAILURE, StatusHelper.aggregate(ImmutableList.of(Status.TIMEOUT, Status.FAILURE)));
+    }
+}
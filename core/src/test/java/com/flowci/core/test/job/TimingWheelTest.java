@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.util.TimingWheel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TimingWheelTest {
+
+    private static final long Tick = 1000;
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(Tick, 0);
+
+    @Test
+    public void should_expire_keys_at_deadline() {
+        wheel.add("a", 5 * Tick);
+        wheel.add("b", 3 * Tick);
+        wheel.add("c", 2500);
+
+        Assert.assertTrue(wheel.advance(2 * Tick).isEmpty());
+
+        List<String> expired = wheel.advance(3 * Tick);
+        Assert.assertEquals(2, expired.size());
+        Assert.assertTrue(expired.contains("b"));
+        Assert.assertTrue(expired.contains("c"));
+
+        Assert.assertTrue(wheel.advance(4 * Tick).isEmpty());
+        Assert.assertEquals("[a]", wheel.advance(5 * Tick).toString());
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void should_expire_keys_on_upper_levels() {
+        long[] deadlines = {64, 100, 4096, 4097, 300000, 16777216, 20000000};
+
+        for (long deadline : deadlines) {
+            wheel.add("key-" + deadline, deadline * Tick);
+        }
+
+        for (long deadline : deadlines) {
+            Assert.assertTrue(wheel.advance((deadline - 1) * Tick).isEmpty());
+            Assert.assertEquals("[key-" + deadline + "]", wheel.advance(deadline * Tick).toString());
+        }
+
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void should_remove_or_replace_key() {
+        wheel.add("a", 10 * Tick);
+        wheel.add("b", 10 * Tick);
+        Assert.assertEquals(2, wheel.size());
+
+        Assert.assertTrue(wheel.remove("a"));
+        Assert.assertFalse(wheel.remove("a"));
+
+        // when: replace deadline of b
+        wheel.add("b", 200 * Tick);
+        Assert.assertTrue(wheel.advance(10 * Tick).isEmpty());
+        Assert.assertTrue(wheel.contains("b"));
+
+        Assert.assertEquals("[b]", wheel.advance(200 * Tick).toString());
+    }
+
+    @Test
+    public void should_expire_key_with_passed_deadline_on_next_advance() {
+        wheel.advance(10 * Tick);
+        wheel.add("a", 5 * Tick);
+
+        Assert.assertEquals("[a]", wheel.advance(10 * Tick).toString());
+        Assert.assertFalse(wheel.contains("a"));
+    }
+}
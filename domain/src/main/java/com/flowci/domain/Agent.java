@@ -22,6 +22,8 @@ import com.google.common.base.Strings;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -76,6 +78,21 @@ public class Agent implements Serializable {
         private int freeDisk; // in MB
     }
 
+    /**
+     * Resource reserved by job on the occupied slot
+     */
+    @Getter
+    @Setter
+    @Accessors(chain = true)
+    public static class Reservation {
+
+        private int cpu;
+
+        private int memory; // in MB
+
+        private int disk; // in MB
+    }
+
     private String id;
 
     private String name;
@@ -101,6 +118,21 @@ public class Agent implements Serializable {
 
     private String jobId;
 
+    /**
+     * Max number of jobs can be run on the agent concurrently
+     */
+    private int slots = 1;
+
+    /**
+     * Occupied slot index, key as job id
+     */
+    private Map<String, Integer> jobSlots = new HashMap<>();
+
+    /**
+     * Reserved resource of occupied slot, key as job id
+     */
+    private Map<String, Reservation> jobReservations = new HashMap<>();
+
     @JsonIgnore
     private SimpleKeyPair rsa;
 
@@ -128,6 +160,11 @@ public class Agent implements Serializable {
         return !Strings.isNullOrEmpty(jobId);
     }
 
+    @JsonIgnore
+    public boolean hasFreeSlot() {
+        return jobSlots.size() < slots;
+    }
+
     @JsonIgnore
     public boolean isBusy() {
         return isOnline() && status == Status.BUSY;
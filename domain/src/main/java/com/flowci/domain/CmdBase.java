@@ -39,4 +39,9 @@ public abstract class CmdBase implements Serializable {
      * Cmd related plugin name
      */
     private String plugin;
+
+    /**
+     * Index of agent slot to run the cmd
+     */
+    private int slot;
 }
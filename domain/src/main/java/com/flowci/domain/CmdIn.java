@@ -34,6 +34,8 @@ import lombok.NonNull;
 @EqualsAndHashCode(callSuper = true)
 public class CmdIn extends CmdBase {
 
+    public final static Integer DEFAULT_TIMEOUT = 1800;
+
     @NonNull
     private CmdType type;
 
@@ -46,7 +48,7 @@ public class CmdIn extends CmdBase {
      * Cmd timeout in seconds
      */
     @NonNull
-    private Integer timeout = 1800;
+    private Integer timeout = DEFAULT_TIMEOUT;
 
     @NonNull
     private Vars<String> inputs = new StringVars();
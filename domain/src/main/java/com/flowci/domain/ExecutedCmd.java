@@ -124,6 +124,11 @@ public class ExecutedCmd extends CmdBase {
      */
     private Date finishAt;
 
+    /**
+     * Timeout in seconds of the cmd sent to agent
+     */
+    private Integer timeout;
+
     /**
      * Error message
      */
@@ -134,6 +139,16 @@ public class ExecutedCmd extends CmdBase {
      */
     private Long logSize = -1L;
 
+    /**
+     * Hash of script, plugin, inputs and git commit, only for the step with cache result enabled
+     */
+    private String cacheKey;
+
+    /**
+     * Is result reused from previous executed cmd with the same cache key
+     */
+    private boolean cacheHit;
+
     private CmdId cmdId;
 
     public ExecutedCmd(CmdId cmdId, String flowId, boolean allowFailure) {
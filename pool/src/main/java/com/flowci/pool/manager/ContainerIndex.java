@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.pool.manager;
+
+import com.flowci.pool.domain.AgentContainer;
+import com.flowci.pool.domain.DockerStatus;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.*;
+
+/**
+ * In-memory index of agent containers, seeded from container list and kept current by docker events
+ */
+public class ContainerIndex {
+
+    /**
+     * Container state after the docker event action, the other actions do not change state
+     */
+    private static final Map<String, String> ActionToState = ImmutableMap.<String, String>builder()
+            .put("create", DockerStatus.Created)
+            .put("start", DockerStatus.Running)
+            .put("restart", DockerStatus.Running)
+            .put("unpause", DockerStatus.Running)
+            .put("pause", DockerStatus.Paused)
+            .put("die", DockerStatus.Exited)
+            .build();
+
+    private static final String ActionDestroy = "destroy";
+
+    /**
+     * Docker event actions to be subscribed
+     */
+    public static final Set<String> Actions = ImmutableSet.<String>builder()
+            .addAll(ActionToState.keySet())
+            .add(ActionDestroy)
+            .build();
+
+    // key as container name
+    private final Map<String, AgentContainer> containers = new HashMap<>();
+
+    /**
+     * Replace all containers
+     */
+    public synchronized void reset(List<AgentContainer> list) {
+        containers.clear();
+        for (AgentContainer c : list) {
+            containers.put(c.getName(), c);
+        }
+    }
+
+    public synchronized void put(AgentContainer container) {
+        containers.put(container.getName(), container);
+    }
+
+    public synchronized void remove(String name) {
+        containers.remove(name);
+    }
+
+    /**
+     * Apply docker event of container, the container not belong to agent is ignored
+     */
+    public synchronized void onEvent(String id, String name, String action) {
+        if (Objects.isNull(name) || !name.startsWith(AgentContainer.Prefix)) {
+            return;
+        }
+
+        if (ActionDestroy.equals(action)) {
+            containers.remove(name);
+            return;
+        }
+
+        String state = ActionToState.get(action);
+        if (Objects.nonNull(state)) {
+            containers.put(name, AgentContainer.of(id, name, state));
+        }
+    }
+
+    public synchronized Optional<AgentContainer> get(String name) {
+        return Optional.ofNullable(containers.get(name));
+    }
+
+    /**
+     * List containers by state, or all containers if state not given
+     */
+    public synchronized List<AgentContainer> list(Optional<String> state) {
+        List<AgentContainer> list = new ArrayList<>(containers.size());
+        for (AgentContainer c : containers.values()) {
+            if (!state.isPresent() || state.get().equals(c.getState())) {
+                list.add(c);
+            }
+        }
+        return list;
+    }
+
+    public synchronized int size() {
+        return containers.size();
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.flowci.pool.manager;
 
+import java.util.Collection;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 
@@ -57,6 +59,25 @@ public interface PoolManager<T extends InitContext> extends AutoCloseable {
      */
     void stop(String name) throws DockerPoolException;
 
+    /**
+     * Stop agents, all agents are tried and the failures are thrown in one exception
+     * @param names agent names
+     */
+    default void stop(Collection<String> names) throws DockerPoolException {
+        List<String> failures = new LinkedList<>();
+        for (String name : names) {
+            try {
+                stop(name);
+            } catch (DockerPoolException e) {
+                failures.add(name + ": " + e.getMessage());
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new DockerPoolException("Unable to stop agents {0}", String.join(", ", failures));
+        }
+    }
+
     /**
      * Resume agent container
      * @param name agent name
@@ -69,6 +90,25 @@ public interface PoolManager<T extends InitContext> extends AutoCloseable {
      */
     void remove(String name) throws DockerPoolException;
 
+    /**
+     * Remove agents, all agents are tried and the failures are thrown in one exception
+     * @param names agent names
+     */
+    default void remove(Collection<String> names) throws DockerPoolException {
+        List<String> failures = new LinkedList<>();
+        for (String name : names) {
+            try {
+                remove(name);
+            } catch (DockerPoolException e) {
+                failures.add(name + ": " + e.getMessage());
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new DockerPoolException("Unable to remove agents {0}", String.join(", ", failures));
+        }
+    }
+
     /**
      * Get docker status
      * @param name agent name
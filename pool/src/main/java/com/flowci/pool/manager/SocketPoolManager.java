@@ -8,28 +8,39 @@ import com.flowci.pool.exception.DockerPoolException;
 import com.flowci.util.UnixHelper;
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.command.CreateContainerResponse;
-import com.github.dockerjava.api.command.ListContainersCmd;
 import com.github.dockerjava.api.exception.DockerException;
 import com.github.dockerjava.api.model.Bind;
 import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
 import com.github.dockerjava.api.model.Volume;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
 import com.github.dockerjava.core.DockerClientBuilder;
+import com.github.dockerjava.core.command.EventsResultCallback;
 import com.google.common.collect.Lists;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static com.flowci.pool.domain.AgentContainer.NameFilter;
 import static com.flowci.pool.domain.AgentContainer.name;
 import static com.flowci.pool.domain.StartContext.AgentEnvs.*;
 
+/**
+ * Pool manager of local docker socket, the agent containers are looked up from index
+ * which is seeded once and kept current by the container events of docker
+ */
 public class SocketPoolManager implements PoolManager<SocketInitContext> {
 
     private DockerClient client;
 
+    private final ContainerIndex index = new ContainerIndex();
+
+    private EventsResultCallback eventsCallback;
+
     /**
      * Init local docker.sock api interface
      */
@@ -39,49 +50,33 @@ public class SocketPoolManager implements PoolManager<SocketInitContext> {
                 .withDockerHost(context.getDockerHost()).build();
 
         client = DockerClientBuilder.getInstance(config).build();
+        syncIndex();
     }
 
     @Override
     public List<AgentContainer> list(Optional<String> state) throws DockerPoolException {
-        ListContainersCmd cmd = client.listContainersCmd().withShowAll(true)
-                .withNameFilter(Lists.newArrayList(NameFilter));
-
-        state.ifPresent((s) -> {
-            cmd.withStatusFilter(Lists.newArrayList(state.get()));
-        });
-
-        try {
-
-            List<Container> list = cmd.exec();
-            List<AgentContainer> result = new ArrayList<>(list.size());
-            for (Container item : list) {
-                String name = item.getNames()[0];
-                if (name.startsWith("/")) {
-                    name = name.substring(1);
-                }
-                result.add(AgentContainer.of(item.getId(), name, item.getState()));
-            }
-            return result;
-        } catch (DockerException e) {
-            throw new DockerPoolException(e);
-        }
+        syncIndex();
+        return index.list(state);
     }
 
     @Override
     public int size() throws DockerPoolException {
-        try {
-            return client.listContainersCmd()
-                    .withShowAll(true)
-                    .withNameFilter(Lists.newArrayList(NameFilter))
-                    .exec()
-                    .size();
-        } catch (DockerException e) {
-            throw new DockerPoolException(e);
-        }
+        syncIndex();
+        return index.size();
     }
 
     @Override
     public void close() throws Exception {
+        EventsResultCallback callback;
+        synchronized (index) {
+            callback = eventsCallback;
+            eventsCallback = null;
+        }
+
+        if (callback != null) {
+            callback.close();
+        }
+
         if (client != null) {
             client.close();
         }
@@ -103,6 +98,7 @@ public class SocketPoolManager implements PoolManager<SocketInitContext> {
                     .exec();
 
             client.startContainerCmd(container.getId()).exec();
+            index.put(AgentContainer.of(container.getId(), name, DockerStatus.Running));
         } catch (DockerException e) {
             throw new DockerPoolException(e);
         }
@@ -111,7 +107,9 @@ public class SocketPoolManager implements PoolManager<SocketInitContext> {
     @Override
     public void stop(String name) throws DockerPoolException {
         try {
-            client.stopContainerCmd(findContainer(name).getId()).exec();
+            AgentContainer c = findContainer(name);
+            client.stopContainerCmd(c.getId()).exec();
+            index.put(AgentContainer.of(c.getId(), c.getName(), DockerStatus.Exited));
         } catch (DockerException e) {
             throw new DockerPoolException(e);
         }
@@ -120,8 +118,9 @@ public class SocketPoolManager implements PoolManager<SocketInitContext> {
     @Override
     public void resume(String name) throws DockerPoolException {
         try {
-            Container c = findContainer(name);
+            AgentContainer c = findContainer(name);
             client.startContainerCmd(c.getId()).exec();
+            index.put(AgentContainer.of(c.getId(), c.getName(), DockerStatus.Running));
         } catch (DockerException e) {
             throw new DockerPoolException(e);
         }
@@ -130,7 +129,9 @@ public class SocketPoolManager implements PoolManager<SocketInitContext> {
     @Override
     public void remove(String name) throws DockerPoolException {
         try {
-            client.removeContainerCmd(findContainer(name).getId()).withForce(true).exec();
+            AgentContainer c = findContainer(name);
+            client.removeContainerCmd(c.getId()).withForce(true).exec();
+            index.remove(c.getName());
         } catch (DockerException e) {
             throw new DockerPoolException(e);
         }
@@ -145,15 +146,104 @@ public class SocketPoolManager implements PoolManager<SocketInitContext> {
         }
     }
 
-    private Container findContainer(String name) throws DockerPoolException {
+    /**
+     * Find container from index, or from docker in case of the event not received yet
+     */
+    private AgentContainer findContainer(String name) throws DockerPoolException {
         String containerName = name(name);
-        List<Container> list = client.listContainersCmd().withShowAll(true).withNameFilter(Lists.newArrayList(containerName))
-                .exec();
 
+        syncIndex();
+        Optional<AgentContainer> optional = index.get(containerName);
+        if (optional.isPresent()) {
+            return optional.get();
+        }
+
+        List<AgentContainer> list = listFromDocker(containerName);
         if (list.size() != 1) {
             throw new DockerPoolException("Unable to find container for agent {0}", containerName);
         }
 
+        index.put(list.get(0));
         return list.get(0);
     }
-}
\ No newline at end of file
+
+    /**
+     * Subscribe container events and seed the index, if not subscribed or the event stream broken
+     */
+    private void syncIndex() throws DockerPoolException {
+        synchronized (index) {
+            if (eventsCallback != null) {
+                return;
+            }
+
+            // subscribe before listing, so the changes while listing will not be missed
+            try {
+                eventsCallback = client.eventsCmd()
+                        .withEventFilter(ContainerIndex.Actions.toArray(new String[0]))
+                        .exec(new ContainerEventsCallback());
+            } catch (DockerException e) {
+                throw new DockerPoolException(e);
+            }
+
+            index.reset(listFromDocker(NameFilter));
+        }
+    }
+
+    private List<AgentContainer> listFromDocker(String nameFilter) throws DockerPoolException {
+        try {
+            List<Container> list = client.listContainersCmd()
+                    .withShowAll(true)
+                    .withNameFilter(Lists.newArrayList(nameFilter))
+                    .exec();
+
+            List<AgentContainer> result = new ArrayList<>(list.size());
+            for (Container item : list) {
+                String name = item.getNames()[0];
+                if (name.startsWith("/")) {
+                    name = name.substring(1);
+                }
+                result.add(AgentContainer.of(item.getId(), name, item.getState()));
+            }
+            return result;
+        } catch (DockerException e) {
+            throw new DockerPoolException(e);
+        }
+    }
+
+    private class ContainerEventsCallback extends EventsResultCallback {
+
+        @Override
+        public void onNext(Event event) {
+            if (event.getType() != EventType.CONTAINER || event.getActor() == null) {
+                return;
+            }
+
+            Map<String, String> attributes = event.getActor().getAttributes();
+            String name = attributes == null ? null : attributes.get("name");
+            index.onEvent(event.getId(), name, event.getAction());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            resubscribe();
+            super.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            resubscribe();
+            super.onComplete();
+        }
+
+        /**
+         * Index will be seeded again on next lookup since events may be missed
+         */
+        private void resubscribe() {
+            synchronized (index) {
+                if (eventsCallback == this) {
+                    eventsCallback = null;
+                }
+            }
+        }
+    }
+}
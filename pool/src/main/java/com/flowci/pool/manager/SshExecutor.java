@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.pool.manager;
+
+import com.flowci.pool.domain.SshInitContext;
+import com.jcraft.jsch.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.*;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Run commands on remote host through exec channels of one ssh session,
+ * commands are run concurrently up to the max num of channels,
+ * and the session is reconnected once it's down.
+ */
+public class SshExecutor implements AutoCloseable {
+
+    private static final int MaxChannels = 4;
+
+    private static final int ChannelTimeout = 10 * 1000;
+
+    private static final int KeepAliveInterval = 15 * 1000;
+
+    private final SshInitContext context;
+
+    private final Semaphore channels = new Semaphore(MaxChannels);
+
+    private Session session;
+
+    public SshExecutor(SshInitContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Connect to remote host if session not connected
+     */
+    public synchronized void connect() throws JSchException {
+        if (Objects.nonNull(session) && session.isConnected()) {
+            return;
+        }
+
+        disconnect();
+
+        JSch jsch = new JSch();
+        jsch.addIdentity("name", context.getPrivateKey().getBytes(), null, null);
+
+        Session s = jsch.getSession(context.getRemoteUser(), context.getRemoteHost(), 22);
+        s.setConfig("StrictHostKeyChecking", "no");
+        s.setServerAliveInterval(KeepAliveInterval);
+        s.connect(context.getTimeoutInSeconds() * 1000);
+
+        session = s;
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    public Output exec(String bash) throws JSchException, IOException {
+        return exec(bash, null);
+    }
+
+    /**
+     * Run command and collect output, the command is run once more on a new session
+     * if the session is down before the channel opened
+     *
+     * @param handler optional, handle each line of std out
+     */
+    public Output exec(String bash, Consumer<String> handler) throws JSchException, IOException {
+        try {
+            if (!channels.tryAcquire(ChannelTimeout, TimeUnit.MILLISECONDS)) {
+                throw new JSchException("No ssh channel available");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSchException("Interrupted while waiting for ssh channel");
+        }
+
+        try {
+            Channel channel;
+            Session current = connectAndGet();
+            try {
+                channel = current.openChannel("exec");
+            } catch (JSchException e) {
+                channel = reconnect(current).openChannel("exec");
+            }
+
+            return exec(channel, bash, handler);
+        } finally {
+            channels.release();
+        }
+    }
+
+    private synchronized Session connectAndGet() throws JSchException {
+        connect();
+        return session;
+    }
+
+    /**
+     * Reconnect if the broken session is not replaced by other thread
+     */
+    private synchronized Session reconnect(Session broken) throws JSchException {
+        if (session == broken) {
+            disconnect();
+        }
+        return connectAndGet();
+    }
+
+    private void disconnect() {
+        if (Objects.nonNull(session)) {
+            session.disconnect();
+            session = null;
+        }
+    }
+
+    /**
+     * Std err is buffered in memory, so the session will not be blocked by the err stream while reading std out
+     */
+    private static Output exec(Channel channel, String bash, Consumer<String> handler) throws JSchException, IOException {
+        try (PipedInputStream out = new PipedInputStream(); ByteArrayOutputStream err = new ByteArrayOutputStream()) {
+            ChannelExec exec = (ChannelExec) channel;
+            exec.setCommand(bash);
+
+            exec.setOutputStream(new PipedOutputStream(out));
+            exec.setErrStream(err);
+
+            channel.connect(ChannelTimeout);
+            String stdout = collectOutput(out, handler).toString();
+
+            // wait for exit status
+            long deadline = System.currentTimeMillis() + ChannelTimeout;
+            while (!channel.isClosed() && System.currentTimeMillis() < deadline) {
+                sleep(10);
+            }
+
+            return Output.of(stdout, err.toString().trim(), channel.getExitStatus());
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static StringBuilder collectOutput(InputStream in, Consumer<String> handler) throws IOException {
+        try (BufferedReader buffer = new BufferedReader(new InputStreamReader(in))) {
+            String line;
+            StringBuilder builder = new StringBuilder();
+
+            while ((line = buffer.readLine()) != null) {
+                builder.append(line);
+                if (handler != null) {
+                    handler.accept(line);
+                }
+            }
+
+            return builder;
+        }
+    }
+
+    @AllArgsConstructor(staticName = "of")
+    @Getter
+    public static class Output {
+
+        private final String out;
+
+        private final String err;
+
+        private final int exit;
+    }
+}
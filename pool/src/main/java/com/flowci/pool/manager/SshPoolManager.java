@@ -27,13 +27,13 @@
  import com.flowci.pool.domain.SshInitContext;
  import com.flowci.pool.domain.StartContext;
  import com.flowci.pool.exception.DockerPoolException;
+ import com.flowci.pool.manager.SshExecutor.Output;
  import com.flowci.util.StringHelper;
- import com.jcraft.jsch.*;
- import lombok.AllArgsConstructor;
+ import com.jcraft.jsch.JSchException;
  import lombok.Getter;
  import lombok.Setter;
 
- import java.io.*;
+ import java.io.IOException;
  import java.util.*;
  import java.util.function.Consumer;
 
@@ -43,11 +43,9 @@
 
  public class SshPoolManager implements PoolManager<SshInitContext> {
 
-     private static final int ChannelTimeout = 10 * 1000;
-
      private static final ObjectMapper mapper = new ObjectMapper();
 
-     private Session session;
+     private SshExecutor executor;
 
      static {
          mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
@@ -57,12 +55,8 @@
      @Override
      public synchronized void init(SshInitContext context) throws Exception {
          try {
-             JSch jsch = new JSch();
-             jsch.addIdentity("name", context.getPrivateKey().getBytes(), null, null);
-
-             session = jsch.getSession(context.getRemoteUser(), context.getRemoteHost(), 22);
-             session.setConfig("StrictHostKeyChecking", "no");
-             session.connect(context.getTimeoutInSeconds() * 1000);
+             executor = new SshExecutor(context);
+             executor.connect();
          } catch (JSchException e) {
              this.close();
              throw new DockerPoolException("Ssh connection error: {0}", e.getMessage());
@@ -71,10 +65,10 @@
 
      @Override
      public void close() throws Exception {
-         if (Objects.isNull(session)) {
+         if (Objects.isNull(executor)) {
              return;
          }
-         session.disconnect();
+         executor.close();
      }
 
      @Override
@@ -82,10 +76,10 @@
          String cmd = String.format("docker ps -a --filter \"name=%s\" --format \"{{.ID}}\" | wc -l", NameFilter);
          try {
              Output output = runCmd(cmd);
-             if (output.exit > 0) {
-                 throw new DockerPoolException(output.err);
+             if (output.getExit() > 0) {
+                 throw new DockerPoolException(output.getErr());
              }
-             return Integer.parseInt(output.out.trim());
+             return Integer.parseInt(output.getOut().trim());
          } catch (IOException | JSchException e) {
             throw new DockerPoolException(e.getMessage());
          }
@@ -113,8 +107,8 @@
                  }
              });
 
-             if (output.exit > 0) {
-                 throw new DockerPoolException(output.err);
+             if (output.getExit() > 0) {
+                 throw new DockerPoolException(output.getErr());
              }
 
              return list;
@@ -137,7 +131,7 @@
 
              Output output = runCmd(cmd);
 
-             if (output.exit > 0) {
+             if (output.getExit() > 0) {
                  throw new DockerPoolException(output.getErr());
              }
 
@@ -148,8 +142,20 @@
 
      @Override
      public void stop(String name) throws DockerPoolException {
+         stop(Collections.singleton(name));
+     }
+
+     /**
+      * Stop containers in one docker command
+      */
+     @Override
+     public void stop(Collection<String> names) throws DockerPoolException {
+         if (names.isEmpty()) {
+             return;
+         }
+
          try {
-             runCmd(String.format("docker stop %s", AgentContainer.name(name)));
+             runCmd("docker stop " + toContainerNames(names));
          } catch (JSchException | IOException e) {
              throw new DockerPoolException(e.getMessage());
          }
@@ -158,12 +164,10 @@
      @Override
      public void resume(String name) throws DockerPoolException {
          try {
-             String container = AgentContainer.name(name);
-             if (hasContainer(container)) {
-                 runCmd("docker start " + container);
-                 return;
+             Output output = runCmd("docker start " + AgentContainer.name(name));
+             if (output.getExit() > 0) {
+                 throw new DockerPoolException("Unable to find container for agent {0}", name);
              }
-             throw new DockerPoolException("Unable to find container for agent {0}", name);
          } catch (JSchException | IOException e) {
             throw new DockerPoolException(e.getMessage());
          }
@@ -171,8 +175,20 @@
 
      @Override
      public void remove(String name) throws DockerPoolException {
+         remove(Collections.singleton(name));
+     }
+
+     /**
+      * Remove containers in one docker command
+      */
+     @Override
+     public void remove(Collection<String> names) throws DockerPoolException {
+         if (names.isEmpty()) {
+             return;
+         }
+
          try {
-             runCmd(String.format("docker rm -f %s", AgentContainer.name(name)));
+             runCmd("docker rm -f " + toContainerNames(names));
          } catch (JSchException | IOException e) {
              throw new DockerPoolException(e.getMessage());
          }
@@ -182,23 +198,25 @@
      public String status(String name) {
          String container = AgentContainer.name(name);
          try {
-             if (!hasContainer(container)) {
+             String cmd = String.format("docker ps -a --filter name=%s --format '{{.Status}}'", container);
+             String content = runCmd(cmd).getOut();
+
+             if (!StringHelper.hasValue(content)) {
                  return DockerStatus.None;
              }
 
-             String cmd = String.format("docker ps -a --filter name=%s --format '{{.Status}}'", container);
-             String content = runCmd(cmd).out;
              return DockerStatus.toStateString(content);
-
          } catch (JSchException | IOException e) {
              return DockerStatus.None;
          }
      }
 
-     private boolean hasContainer(String cname) throws JSchException, IOException {
-         String cmd = String.format("docker ps -a --filter name=%s --format '{{.Names}}'", cname);
-         String content = runCmd(cmd).out;
-         return StringHelper.hasValue(content);
+     private static String toContainerNames(Collection<String> names) {
+         StringBuilder builder = new StringBuilder();
+         for (String name : names) {
+             builder.append(AgentContainer.name(name)).append(" ");
+         }
+         return builder.toString().trim();
      }
 
      private Output runCmd(String bash) throws IOException, JSchException {
@@ -206,61 +224,10 @@
      }
 
      private Output runCmd(String bash, Consumer<String> handler) throws JSchException, IOException {
-         if (Objects.isNull(session)) {
+         if (Objects.isNull(executor)) {
              throw new IllegalStateException("Please init ssh session first");
          }
-
-         Channel channel = null;
-
-         try {
-             channel = session.openChannel("exec");
-             try (PipedInputStream out = new PipedInputStream(); PipedInputStream err = new PipedInputStream()) {
-                 ChannelExec exec = (ChannelExec) channel;
-                 exec.setCommand(bash);
-
-                 exec.setOutputStream(new PipedOutputStream(out));
-                 exec.setErrStream(new PipedOutputStream(err));
-
-                 channel.connect(ChannelTimeout);
-
-                 return Output.of(
-                         collectOutput(out, handler).toString(),
-                         collectOutput(err, null).toString(),
-                         channel.getExitStatus()
-                 );
-             }
-         } finally {
-             if (channel != null) {
-                 channel.disconnect();
-             }
-         }
-     }
-
-     private static StringBuilder collectOutput(InputStream in, Consumer<String> handler) throws IOException {
-         try (BufferedReader buffer = new BufferedReader(new InputStreamReader(in))) {
-             String line;
-             StringBuilder builder = new StringBuilder();
-
-             while ((line = buffer.readLine()) != null) {
-                 builder.append(line);
-                 if (handler != null) {
-                     handler.accept(line);
-                 }
-             }
-
-             return builder;
-         }
-     }
-
-     @AllArgsConstructor(staticName = "of")
-     @Getter
-     private static class Output {
-
-         final String out;
-
-         final String err;
-
-         final int exit;
+         return executor.exec(bash, handler);
      }
 
      @Getter
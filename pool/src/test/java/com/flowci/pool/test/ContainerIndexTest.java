@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.pool.test;
+
+import com.flowci.pool.domain.AgentContainer;
+import com.flowci.pool.domain.DockerStatus;
+import com.flowci.pool.manager.ContainerIndex;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Optional;
+
+public class ContainerIndexTest {
+
+    private final ContainerIndex index = new ContainerIndex();
+
+    @Test
+    public void should_update_container_by_events() {
+        index.reset(ImmutableList.of(AgentContainer.of("1", "ci-agent.a", DockerStatus.Running)));
+
+        // when: container created and started
+        index.onEvent("2", "ci-agent.b", "create");
+        Assert.assertEquals(DockerStatus.Created, index.get("ci-agent.b").get().getState());
+
+        index.onEvent("2", "ci-agent.b", "start");
+        Assert.assertEquals(DockerStatus.Running, index.get("ci-agent.b").get().getState());
+        Assert.assertEquals(2, index.size());
+
+        // when: container a stopped
+        index.onEvent("1", "ci-agent.a", "kill");
+        index.onEvent("1", "ci-agent.a", "die");
+        Assert.assertEquals(DockerStatus.Exited, index.get("ci-agent.a").get().getState());
+        Assert.assertEquals(1, index.list(Optional.of(DockerStatus.Exited)).size());
+
+        // when: container b removed
+        index.onEvent("2", "ci-agent.b", "destroy");
+        Assert.assertFalse(index.get("ci-agent.b").isPresent());
+        Assert.assertEquals(1, index.list(Optional.empty()).size());
+    }
+
+    @Test
+    public void should_ignore_container_not_for_agent() {
+        index.onEvent("3", "mongo", "start");
+        Assert.assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.pool.test;
+
+import com.flowci.pool.domain.AgentContainer;
+import com.flowci.pool.domain.InitContext;
+import com.flowci.pool.domain.StartContext;
+import com.flowci.pool.exception.DockerPoolException;
+import com.flowci.pool.manager.PoolManager;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+
+public class PoolManagerTest {
+
+    @Test
+    public void should_remove_all_agents_even_if_some_failed() {
+        MockPoolManager manager = new MockPoolManager();
+
+        try {
+            manager.remove(ImmutableList.of("a", "missing", "b"));
+            Assert.fail();
+        } catch (DockerPoolException e) {
+            Assert.assertTrue(e.getMessage().contains("missing"));
+        }
+
+        // then: the agents after the failed one should be removed as well
+        Assert.assertEquals(ImmutableList.of("a", "b"), manager.removed);
+    }
+
+    private static class MockPoolManager implements PoolManager<InitContext> {
+
+        private final List<String> removed = new LinkedList<>();
+
+        @Override
+        public List<AgentContainer> list(Optional<String> state) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public void init(InitContext context) {
+        }
+
+        @Override
+        public void start(StartContext context) {
+        }
+
+        @Override
+        public void stop(String name) {
+        }
+
+        @Override
+        public void resume(String name) {
+        }
+
+        @Override
+        public void remove(String name) throws DockerPoolException {
+            if (name.equals("missing")) {
+                throw new DockerPoolException("Unable to find container for agent {0}", name);
+            }
+            removed.add(name);
+        }
+
+        @Override
+        public String status(String name) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
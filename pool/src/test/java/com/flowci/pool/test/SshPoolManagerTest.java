@@ -8,6 +8,7 @@ import com.flowci.pool.exception.DockerPoolException;
 import com.flowci.pool.manager.PoolManager;
 import com.flowci.pool.manager.SshPoolManager;
 import com.flowci.util.StringHelper;
+import com.google.common.collect.ImmutableList;
 import org.junit.*;
 
 import java.io.InputStream;
@@ -79,6 +80,31 @@ public class SshPoolManagerTest extends PoolScenario {
         Assert.assertEquals(1, manager.size());
     }
 
+    @Test
+    public void should_stop_and_remove_agents_in_batch() throws Exception {
+        String name1 = StringHelper.randomString(5);
+        startAgent(name1);
+
+        String name2 = StringHelper.randomString(5);
+        startAgent(name2);
+
+        // when: stop two agents
+        manager.stop(ImmutableList.of(name1, name2));
+
+        // then: both agents should be exited
+        Assert.assertEquals(DockerStatus.Exited, manager.status(name1));
+        Assert.assertEquals(DockerStatus.Exited, manager.status(name2));
+        Assert.assertEquals(2, manager.list(Optional.of(DockerStatus.Exited)).size());
+
+        // when: remove two agents
+        manager.remove(ImmutableList.of(name1, name2));
+
+        // then: no agent left
+        Assert.assertEquals(DockerStatus.None, manager.status(name1));
+        Assert.assertEquals(DockerStatus.None, manager.status(name2));
+        Assert.assertEquals(0, manager.size());
+    }
+
     private void startAgent(String name) throws DockerPoolException {
         StartContext context = new StartContext();
         context.setAgentName(name);
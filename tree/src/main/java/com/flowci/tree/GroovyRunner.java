@@ -17,21 +17,68 @@
 package com.flowci.tree;
 
 import com.flowci.domain.Vars;
+import com.flowci.util.HashingHelper;
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
+import groovy.lang.GroovyClassLoader;
 import groovy.lang.Script;
+import groovy.transform.ThreadInterrupt;
 import groovy.util.ScriptException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Run groovy script with variables
+ * - The compiled script class is cached by md5 of script content
+ * - The script is executed in a shared bounded thread pool
+ * - The script is compiled with interrupt checks on loops and method calls, so a timeout script
+ *   stops once its thread is interrupted and cannot hold the pool thread forever
+ *
  * @author yang
  */
 public class GroovyRunner<T> {
 
+    private static final int MaxCachedScripts = 500;
+
+    private static final int PoolSize = 4;
+
+    private static final int QueueSize = 100;
+
+    // key as md5 of script, value as compiled script class, in LRU order
+    private static final Map<String, Class<? extends Script>> ScriptCache =
+        new LinkedHashMap<String, Class<? extends Script>>(MaxCachedScripts, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Class<? extends Script>> eldest) {
+                return size() > MaxCachedScripts;
+            }
+        };
+
+    private static final ThreadPoolExecutor Executor = createExecutor();
+
+    private static final CompilerConfiguration CompilerConfig = createCompilerConfig();
+
+    private static final AtomicLong NumOfRun = new AtomicLong(0);
+
+    private static final AtomicLong NumOfFailure = new AtomicLong(0);
+
+    private static final AtomicLong NumOfTimeout = new AtomicLong(0);
+
+    private static final AtomicLong TotalRunNanos = new AtomicLong(0);
+
+    private static final AtomicLong NumOfCacheHit = new AtomicLong(0);
+
+    private static final AtomicLong NumOfCompile = new AtomicLong(0);
+
     public static <T> GroovyRunner<T> create(int timeout, String script, Vars<String> vars) throws ScriptException {
         return new GroovyRunner<T>(timeout)
             .setScript(script)
@@ -42,7 +89,24 @@ public class GroovyRunner<T> {
         return create(timeout, script, null);
     }
 
-    private Script script = null;
+    /**
+     * Get snapshot of statistics of all runners
+     */
+    public static Stats stats() {
+        return new Stats(
+            NumOfRun.get(),
+            NumOfFailure.get(),
+            NumOfTimeout.get(),
+            TotalRunNanos.get(),
+            NumOfCacheHit.get(),
+            NumOfCompile.get(),
+            cacheSize(),
+            Executor.getActiveCount(),
+            Executor.getQueue().size()
+        );
+    }
+
+    private Class<? extends Script> scriptClass = null;
 
     private final Binding binding = new Binding();
 
@@ -51,27 +115,41 @@ public class GroovyRunner<T> {
      */
     private final int timeout;
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
-
     private GroovyRunner(int timeout) {
         this.timeout = timeout;
     }
 
     public T run() throws ScriptException {
-        if (Objects.isNull(script)) {
+        if (Objects.isNull(scriptClass)) {
             throw new ScriptException("Script not been set");
         }
 
-        Future<T> task = executor.submit(() -> (T) script.run());
+        Script script = InvokerHelper.createScript(scriptClass, binding);
+        long start = System.nanoTime();
+        Future<T> task;
+
+        try {
+            task = Executor.submit(() -> (T) script.run());
+        } catch (RejectedExecutionException e) {
+            NumOfFailure.incrementAndGet();
+            throw new ScriptException("Too many scripts are running");
+        }
 
         try {
             return task.get(timeout, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
+            NumOfFailure.incrementAndGet();
             throw new ScriptException("the script been interrupted");
         } catch (ExecutionException e) {
+            NumOfFailure.incrementAndGet();
             throw new ScriptException(e.getMessage());
         } catch (TimeoutException e) {
+            task.cancel(true);
+            NumOfTimeout.incrementAndGet();
             throw new ScriptException("The script been timeout");
+        } finally {
+            NumOfRun.incrementAndGet();
+            TotalRunNanos.addAndGet(System.nanoTime() - start);
         }
     }
 
@@ -88,13 +166,90 @@ public class GroovyRunner<T> {
     }
 
     private GroovyRunner<T> setScript(String source) throws ScriptException {
-        try {
-            GroovyShell shell = new GroovyShell(binding);
-            script = shell.parse(source);
+        String key = HashingHelper.md5(source);
+
+        synchronized (ScriptCache) {
+            scriptClass = ScriptCache.get(key);
+        }
+
+        if (Objects.nonNull(scriptClass)) {
+            NumOfCacheHit.incrementAndGet();
             return this;
-        } catch (CompilationFailedException e) {
+        }
+
+        scriptClass = compile(source);
+        NumOfCompile.incrementAndGet();
+
+        synchronized (ScriptCache) {
+            ScriptCache.put(key, scriptClass);
+        }
+        return this;
+    }
+
+    /**
+     * Compile script by its own class loader, the class can be unloaded once it's removed from cache
+     */
+    private static Class<? extends Script> compile(String source) throws ScriptException {
+        try {
+            GroovyClassLoader loader = new GroovyClassLoader(GroovyRunner.class.getClassLoader(), CompilerConfig);
+            return (Class<? extends Script>) loader.parseClass(source);
+        } catch (CompilationFailedException | ClassCastException e) {
             throw new ScriptException("Script compile failed: " + e.getMessage());
         }
     }
 
+    private static int cacheSize() {
+        synchronized (ScriptCache) {
+            return ScriptCache.size();
+        }
+    }
+
+    /**
+     * Check thread interrupted flag in script, since the timeout task is cancelled by interrupting
+     */
+    private static CompilerConfiguration createCompilerConfig() {
+        CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilationCustomizers(new ASTTransformationCustomizer(ThreadInterrupt.class));
+        return config;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        AtomicInteger counter = new AtomicInteger(0);
+
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "groovy-runner-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor(PoolSize, PoolSize, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(QueueSize), factory);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Stats {
+
+        private final long numOfRun;
+
+        private final long numOfFailure;
+
+        private final long numOfTimeout;
+
+        private final long totalRunNanos;
+
+        private final long numOfCacheHit;
+
+        private final long numOfCompile;
+
+        private final int numOfCachedScripts;
+
+        private final int numOfActiveThreads;
+
+        private final int numOfQueuedScripts;
+
+        public long getAvgRunMicros() {
+            return numOfRun == 0 ? 0 : totalRunNanos / numOfRun / 1000;
+        }
+    }
 }
@@ -21,8 +21,10 @@ import com.flowci.domain.StringVars;
 import com.google.common.base.Strings;
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -42,6 +44,8 @@ public class Node implements Serializable {
 
     public final static boolean IS_TAIL_DEFAULT = false;
 
+    public final static boolean CACHE_RESULT_DEFAULT = false;
+
     private String name;
 
     private NodePath path;
@@ -58,6 +62,11 @@ public class Node implements Serializable {
      */
     private TriggerFilter trigger = new TriggerFilter();
 
+    /**
+     * Variable name and values to run the flow for each combination
+     */
+    private Map<String, List<String>> matrix = new LinkedHashMap<>();
+
     /**
      * Unix cron expression
      */
@@ -90,6 +99,17 @@ public class Node implements Serializable {
 
     private boolean tail = IS_TAIL_DEFAULT;
 
+    /**
+     * Reuse the result of previous run if script, plugin, inputs and git commit are not changed
+     */
+    private boolean cacheResult = CACHE_RESULT_DEFAULT;
+
+    /**
+     * Names of sibling steps which must be finished before this node,
+     * null means depends on the previous step
+     */
+    private List<String> dependsOn;
+
     private Integer order = 0;
 
     private Node parent;
@@ -124,6 +144,45 @@ public class Node implements Serializable {
         return exports != null && !exports.isEmpty();
     }
 
+    @JsonIgnore
+    public boolean hasDependsOn() {
+        return dependsOn != null;
+    }
+
+    @JsonIgnore
+    public boolean hasMatrix() {
+        return matrix != null && !matrix.isEmpty();
+    }
+
+    /**
+     * Get all combinations of matrix variables, the first variable changes slowest
+     */
+    @JsonIgnore
+    public List<StringVars> getMatrixCombinations() {
+        List<StringVars> combinations = new LinkedList<>();
+        if (!hasMatrix()) {
+            return combinations;
+        }
+
+        combinations.add(new StringVars());
+
+        for (Map.Entry<String, List<String>> entry : matrix.entrySet()) {
+            List<StringVars> expanded = new LinkedList<>();
+
+            for (StringVars vars : combinations) {
+                for (String value : entry.getValue()) {
+                    StringVars copied = new StringVars(vars);
+                    copied.put(entry.getKey(), value);
+                    expanded.add(copied);
+                }
+            }
+
+            combinations = expanded;
+        }
+
+        return combinations;
+    }
+
     @JsonIgnore
     public boolean hasCron() {
         return !Strings.isNullOrEmpty(cron);
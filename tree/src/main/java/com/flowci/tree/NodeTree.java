@@ -18,12 +18,16 @@ package com.flowci.tree;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import lombok.Getter;
 
 /**
@@ -45,9 +49,20 @@ public class NodeTree {
     @Getter
     private final List<Node> ordered = new ArrayList<>(DEFAULT_SIZE);
 
+    /**
+     * Dependencies of regular nodes, tail nodes are not included
+     */
+    private final Map<NodePath, Set<NodePath>> dependencies = new HashMap<>(DEFAULT_SIZE);
+
     @Getter
     private Node root;
 
+    /**
+     * Is any node declared 'depends_on', the regular nodes can be run in parallel if true
+     */
+    @Getter
+    private boolean graph;
+
     public NodeTree(Node root) {
         this.root = root;
 
@@ -56,6 +71,7 @@ public class NodeTree {
 
         moveFinalNodes();
         buildCacheWithIndex();
+        buildDependencies();
     }
 
     public boolean isFirst(NodePath path) {
@@ -139,6 +155,34 @@ public class NodeTree {
         return getWithIndex(path).node;
     }
 
+    /**
+     * Get paths of nodes which must be finished before the node
+     */
+    public Set<NodePath> dependencies(NodePath path) {
+        return dependencies.getOrDefault(getWithIndex(path).node.getPath(), Collections.emptySet());
+    }
+
+    /**
+     * Get regular nodes which are not finished and all dependencies are finished, in the order of steps
+     *
+     * @param finished paths of finished nodes
+     */
+    public List<Node> ready(Collection<NodePath> finished) {
+        List<Node> list = new LinkedList<>();
+
+        for (Node node : ordered) {
+            if (node.isTail() || finished.contains(node.getPath())) {
+                continue;
+            }
+
+            if (finished.containsAll(dependencies.get(node.getPath()))) {
+                list.add(node);
+            }
+        }
+
+        return list;
+    }
+
     public String toYml() {
         return YmlParser.parse(this.root);
     }
@@ -184,6 +228,34 @@ public class NodeTree {
         cached.put(root.getPath(), new NodeWithIndex(root, -1));
     }
 
+    /**
+     * Regular node depends on the previous regular node if 'depends_on' not declared
+     */
+    private void buildDependencies() {
+        Node prev = null;
+
+        for (Node node : ordered) {
+            if (node.isTail()) {
+                continue;
+            }
+
+            Set<NodePath> paths = new LinkedHashSet<>();
+
+            if (node.hasDependsOn()) {
+                graph = true;
+
+                for (String name : node.getDependsOn()) {
+                    paths.add(NodePath.create(node.getParent().getPath(), name));
+                }
+            } else if (prev != null) {
+                paths.add(prev.getPath());
+            }
+
+            dependencies.put(node.getPath(), paths);
+            prev = node;
+        }
+    }
+
     /**
      * Reset node path and parent reference and put to cache
      */
@@ -22,7 +22,7 @@ import java.util.Set;
 import lombok.Data;
 
 /**
- * Agent selector
+ * Agent selector, agent is matched by any of tags and the resource requests
  *
  * @author yang
  */
@@ -30,4 +30,23 @@ import lombok.Data;
 public class Selector implements Serializable {
 
     private Set<String> tags = Collections.emptySet();
+
+    /**
+     * Min number of cpu cores, 0 as not requested
+     */
+    private int cpu;
+
+    /**
+     * Min free memory in MB, 0 as not requested
+     */
+    private int memory;
+
+    /**
+     * Min free disk in MB, 0 as not requested
+     */
+    private int disk;
+
+    public boolean hasResourceRequest() {
+        return cpu > 0 || memory > 0 || disk > 0;
+    }
 }
@@ -0,0 +1,687 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.tree;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Evaluate simple groovy boolean expression without groovy, ex:
+ * FLOWCI_GIT_BRANCH == "master" && !FLOWCI_GIT_COMMIT_MESSAGE.contains("[skip]")
+ * <p>
+ * Supported:
+ * - variable, 'string' or "string" without ${}, number, true, false, null
+ * - ==, !=, >, >=, <, <=, =~, ==~, !, &&, ||, ()
+ * - methods of string: contains, startsWith, endsWith, toInteger, toDouble, trim
+ * <p>
+ * The expression cannot be parsed if it's out of the subset, and the evaluation returns null
+ * if the result might be different from groovy, ex: variable not defined. Run it by groovy in both cases.
+ */
+public final class SimpleExpression {
+
+    private static final int MaxCachedExpressions = 500;
+
+    private static final SimpleExpression Unsupported = new SimpleExpression(null);
+
+    // key as expression source, value as parsed expression or Unsupported
+    private static final Map<String, SimpleExpression> Cache =
+        new LinkedHashMap<String, SimpleExpression>(MaxCachedExpressions, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SimpleExpression> eldest) {
+                return size() > MaxCachedExpressions;
+            }
+        };
+
+    /**
+     * Parse expression from source, the parsed expression is cached
+     *
+     * @return empty if expression is out of the supported subset
+     */
+    public static Optional<SimpleExpression> parse(String source) {
+        if (Objects.isNull(source)) {
+            return Optional.empty();
+        }
+
+        SimpleExpression expression;
+        synchronized (Cache) {
+            expression = Cache.get(source);
+        }
+
+        if (Objects.isNull(expression)) {
+            expression = doParse(source);
+            synchronized (Cache) {
+                Cache.put(source, expression);
+            }
+        }
+
+        return expression == Unsupported ? Optional.empty() : Optional.of(expression);
+    }
+
+    private static SimpleExpression doParse(String source) {
+        try {
+            return new SimpleExpression(new Parser(new Lexer(source).tokens()).parse());
+        } catch (ParseException e) {
+            return Unsupported;
+        }
+    }
+
+    private final Expr root;
+
+    private SimpleExpression(Expr root) {
+        this.root = root;
+    }
+
+    /**
+     * Evaluate expression with variables
+     *
+     * @return result in groovy truth, or null if it should be evaluated by groovy
+     */
+    public Boolean eval(Map<String, String> vars) {
+        try {
+            return isTrue(root.eval(vars));
+        } catch (FallbackException e) {
+            return null;
+        }
+    }
+
+    //====================================================================
+    //        %% Evaluation
+    //====================================================================
+
+    private interface Expr {
+
+        Object eval(Map<String, String> vars);
+    }
+
+    private static final class FallbackException extends RuntimeException {
+
+        private static final FallbackException Instance = new FallbackException();
+
+        private FallbackException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static boolean isTrue(Object value) {
+        if (value == null) {
+            return false;
+        }
+
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+
+        if (value instanceof String) {
+            return !((String) value).isEmpty();
+        }
+
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).signum() != 0;
+        }
+
+        throw FallbackException.Instance;
+    }
+
+    private static boolean isEqual(Object left, Object right) {
+        if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            return ((BigDecimal) left).compareTo((BigDecimal) right) == 0;
+        }
+        return Objects.equals(left, right);
+    }
+
+    private static int compare(Object left, Object right) {
+        if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            return ((BigDecimal) left).compareTo((BigDecimal) right);
+        }
+
+        if (left instanceof String && right instanceof String) {
+            return ((String) left).compareTo((String) right);
+        }
+
+        // groovy has different rules for null or mixed types
+        throw FallbackException.Instance;
+    }
+
+    private static String asString(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        throw FallbackException.Instance;
+    }
+
+    private static final class Literal implements Expr {
+
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object eval(Map<String, String> vars) {
+            return value;
+        }
+    }
+
+    private static final class Variable implements Expr {
+
+        private final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object eval(Map<String, String> vars) {
+            String value = vars.get(name);
+
+            // groovy throws exception if variable not defined
+            if (value == null && !vars.containsKey(name)) {
+                throw FallbackException.Instance;
+            }
+
+            return value;
+        }
+    }
+
+    private static final class Not implements Expr {
+
+        private final Expr expr;
+
+        Not(Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        public Object eval(Map<String, String> vars) {
+            return !isTrue(expr.eval(vars));
+        }
+    }
+
+    private static final class Logical implements Expr {
+
+        private final boolean isAnd;
+
+        private final Expr left;
+
+        private final Expr right;
+
+        Logical(boolean isAnd, Expr left, Expr right) {
+            this.isAnd = isAnd;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Map<String, String> vars) {
+            boolean l = isTrue(left.eval(vars));
+
+            if (isAnd) {
+                return l && isTrue(right.eval(vars));
+            }
+
+            return l || isTrue(right.eval(vars));
+        }
+    }
+
+    private static final class Binary implements Expr {
+
+        private final String op;
+
+        private final Expr left;
+
+        private final Expr right;
+
+        // pre-compiled pattern if the right side of =~ or ==~ is a literal
+        private final Pattern pattern;
+
+        Binary(String op, Expr left, Expr right) throws ParseException {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.pattern = isRegex(op) && right instanceof Literal ? toPattern(((Literal) right).value) : null;
+        }
+
+        @Override
+        public Object eval(Map<String, String> vars) {
+            Object l = left.eval(vars);
+            Object r = right.eval(vars);
+
+            switch (op) {
+                case "==":
+                    return isEqual(l, r);
+                case "!=":
+                    return !isEqual(l, r);
+                case ">":
+                    return compare(l, r) > 0;
+                case ">=":
+                    return compare(l, r) >= 0;
+                case "<":
+                    return compare(l, r) < 0;
+                case "<=":
+                    return compare(l, r) <= 0;
+                case "=~":
+                    return regex(r).matcher(asString(l)).find();
+                case "==~":
+                    return regex(r).matcher(asString(l)).matches();
+                default:
+                    throw FallbackException.Instance;
+            }
+        }
+
+        private Pattern regex(Object value) {
+            if (pattern != null) {
+                return pattern;
+            }
+
+            try {
+                return Pattern.compile(asString(value));
+            } catch (PatternSyntaxException e) {
+                throw FallbackException.Instance;
+            }
+        }
+
+        private static boolean isRegex(String op) {
+            return op.equals("=~") || op.equals("==~");
+        }
+
+        private static Pattern toPattern(Object value) throws ParseException {
+            if (!(value instanceof String)) {
+                throw new ParseException();
+            }
+
+            try {
+                return Pattern.compile((String) value);
+            } catch (PatternSyntaxException e) {
+                throw new ParseException();
+            }
+        }
+    }
+
+    private static final class Method implements Expr {
+
+        private static final Set<String> NoArgMethods = new HashSet<>(Arrays.asList("toInteger", "toDouble", "trim"));
+
+        private static final Set<String> OneArgMethods = new HashSet<>(Arrays.asList("contains", "startsWith", "endsWith"));
+
+        private final Expr target;
+
+        private final String name;
+
+        private final Expr arg;
+
+        Method(Expr target, String name, Expr arg) throws ParseException {
+            boolean supported = arg == null ? NoArgMethods.contains(name) : OneArgMethods.contains(name);
+            if (!supported) {
+                throw new ParseException();
+            }
+
+            this.target = target;
+            this.name = name;
+            this.arg = arg;
+        }
+
+        @Override
+        public Object eval(Map<String, String> vars) {
+            String value = asString(target.eval(vars));
+
+            try {
+                switch (name) {
+                    case "toInteger":
+                        return new BigDecimal(Integer.parseInt(value.trim()));
+                    case "toDouble":
+                        return BigDecimal.valueOf(Double.parseDouble(value.trim()));
+                    case "trim":
+                        return value.trim();
+                    case "contains":
+                        return value.contains(asString(arg.eval(vars)));
+                    case "startsWith":
+                        return value.startsWith(asString(arg.eval(vars)));
+                    case "endsWith":
+                        return value.endsWith(asString(arg.eval(vars)));
+                    default:
+                        throw FallbackException.Instance;
+                }
+            } catch (NumberFormatException e) {
+                throw FallbackException.Instance;
+            }
+        }
+    }
+
+    //====================================================================
+    //        %% Parsing
+    //====================================================================
+
+    private static final class ParseException extends Exception {
+
+        ParseException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private enum TokenType {
+        IDENT,
+        STRING,
+        NUMBER,
+        OP,
+        END
+    }
+
+    private static final class Token {
+
+        private final TokenType type;
+
+        private final String text;
+
+        Token(TokenType type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        boolean is(String op) {
+            return type == TokenType.OP && text.equals(op);
+        }
+    }
+
+    private static final class Lexer {
+
+        // longer operators must be matched first
+        private static final String[] Operators = {
+            "==~", "==", "!=", ">=", "<=", "=~", "&&", "||", ">", "<", "!", "(", ")", ".", ";"
+        };
+
+        private final String source;
+
+        private int pos = 0;
+
+        Lexer(String source) {
+            this.source = source;
+        }
+
+        List<Token> tokens() throws ParseException {
+            List<Token> tokens = new ArrayList<>();
+
+            while (true) {
+                skipWhitespace();
+
+                if (pos >= source.length()) {
+                    tokens.add(new Token(TokenType.END, ""));
+                    return tokens;
+                }
+
+                tokens.add(next());
+            }
+        }
+
+        private Token next() throws ParseException {
+            char c = source.charAt(pos);
+
+            if (Character.isJavaIdentifierStart(c) && c != '$') {
+                int start = pos;
+                while (pos < source.length() && Character.isJavaIdentifierPart(source.charAt(pos))
+                    && source.charAt(pos) != '$') {
+                    pos++;
+                }
+                return new Token(TokenType.IDENT, source.substring(start, pos));
+            }
+
+            if (Character.isDigit(c)) {
+                int start = pos;
+                while (pos < source.length() && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+                    pos++;
+                }
+                return new Token(TokenType.NUMBER, source.substring(start, pos));
+            }
+
+            if (c == '"' || c == '\'') {
+                return new Token(TokenType.STRING, string(c));
+            }
+
+            for (String op : Operators) {
+                if (source.startsWith(op, pos)) {
+                    pos += op.length();
+                    return new Token(TokenType.OP, op);
+                }
+            }
+
+            throw new ParseException();
+        }
+
+        private String string(char quote) throws ParseException {
+            StringBuilder builder = new StringBuilder();
+            pos++;
+
+            while (pos < source.length()) {
+                char c = source.charAt(pos++);
+
+                if (c == quote) {
+                    return builder.toString();
+                }
+
+                // GString interpolation is not supported
+                if (c == '$' && quote == '"') {
+                    throw new ParseException();
+                }
+
+                if (c == '\n') {
+                    throw new ParseException();
+                }
+
+                if (c != '\\') {
+                    builder.append(c);
+                    continue;
+                }
+
+                if (pos >= source.length()) {
+                    throw new ParseException();
+                }
+
+                char escaped = source.charAt(pos++);
+                switch (escaped) {
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case '\\':
+                    case '\'':
+                    case '"':
+                    case '$':
+                        builder.append(escaped);
+                        break;
+                    default:
+                        throw new ParseException();
+                }
+            }
+
+            throw new ParseException();
+        }
+
+        private void skipWhitespace() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser in groovy operator precedence:
+     * unary (!) > relational (> >= < <=) > equality (== != =~ ==~) > && > ||
+     */
+    private static final class Parser {
+
+        private final List<Token> tokens;
+
+        private int pos = 0;
+
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        Expr parse() throws ParseException {
+            if (peek().type == TokenType.IDENT && peek().text.equals("return")) {
+                pos++;
+            }
+
+            Expr expr = or();
+
+            while (peek().is(";")) {
+                pos++;
+            }
+
+            if (peek().type != TokenType.END) {
+                throw new ParseException();
+            }
+
+            return expr;
+        }
+
+        private Expr or() throws ParseException {
+            Expr left = and();
+            while (peek().is("||")) {
+                pos++;
+                left = new Logical(false, left, and());
+            }
+            return left;
+        }
+
+        private Expr and() throws ParseException {
+            Expr left = equality();
+            while (peek().is("&&")) {
+                pos++;
+                left = new Logical(true, left, equality());
+            }
+            return left;
+        }
+
+        private Expr equality() throws ParseException {
+            Expr left = relational();
+            while (peek().is("==") || peek().is("!=") || peek().is("=~") || peek().is("==~")) {
+                String op = tokens.get(pos++).text;
+                left = new Binary(op, left, relational());
+            }
+            return left;
+        }
+
+        private Expr relational() throws ParseException {
+            Expr left = unary();
+            while (peek().is(">") || peek().is(">=") || peek().is("<") || peek().is("<=")) {
+                String op = tokens.get(pos++).text;
+                left = new Binary(op, left, unary());
+            }
+            return left;
+        }
+
+        private Expr unary() throws ParseException {
+            if (peek().is("!")) {
+                pos++;
+                return new Not(unary());
+            }
+            return postfix();
+        }
+
+        private Expr postfix() throws ParseException {
+            Expr expr = primary();
+
+            while (peek().is(".")) {
+                pos++;
+                Token name = expect(TokenType.IDENT);
+                expectOp("(");
+
+                Expr arg = null;
+                if (!peek().is(")")) {
+                    arg = or();
+                }
+
+                expectOp(")");
+                expr = new Method(expr, name.text, arg);
+            }
+
+            return expr;
+        }
+
+        private Expr primary() throws ParseException {
+            Token token = tokens.get(pos++);
+
+            switch (token.type) {
+                case STRING:
+                    return new Literal(token.text);
+
+                case NUMBER:
+                    try {
+                        return new Literal(new BigDecimal(token.text));
+                    } catch (NumberFormatException e) {
+                        throw new ParseException();
+                    }
+
+                case IDENT:
+                    if (token.text.equals("true")) {
+                        return new Literal(Boolean.TRUE);
+                    }
+
+                    if (token.text.equals("false")) {
+                        return new Literal(Boolean.FALSE);
+                    }
+
+                    if (token.text.equals("null")) {
+                        return new Literal(null);
+                    }
+
+                    // method call without target, ex: println, is not supported
+                    if (peek().is("(")) {
+                        throw new ParseException();
+                    }
+
+                    return new Variable(token.text);
+
+                case OP:
+                    if (token.is("(")) {
+                        Expr expr = or();
+                        expectOp(")");
+                        return expr;
+                    }
+                    throw new ParseException();
+
+                default:
+                    throw new ParseException();
+            }
+        }
+
+        private Token peek() {
+            return tokens.get(pos);
+        }
+
+        private Token expect(TokenType type) throws ParseException {
+            Token token = tokens.get(pos);
+            if (token.type != type) {
+                throw new ParseException();
+            }
+            pos++;
+            return token;
+        }
+
+        private void expectOp(String op) throws ParseException {
+            if (!peek().is(op)) {
+                throw new ParseException();
+            }
+            pos++;
+        }
+    }
+}
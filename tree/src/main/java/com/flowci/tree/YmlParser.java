@@ -37,13 +37,18 @@ public class YmlParser {
 
     private final static LineBreak LINE_BREAK = LineBreak.getPlatformLineBreak();
 
+    private final static int MaxMatrixCombinations = 32;
+
     private final static Map<String, Integer> FieldsOrder = ImmutableMap.<String, Integer>builder()
         .put("name", 1)
         .put("envs", 2)
         .put("trigger", 3)
         .put("selector", 4)
+        .put("matrix", 4)
         .put("allow_failure", 5)
         .put("tail", 6)
+        .put("cache_result", 6)
+        .put("depends_on", 7)
         .put("plugin", 7)
         .put("before", 8)
         .put("script", 9)
@@ -85,12 +90,62 @@ public class YmlParser {
                 }
             }
 
-            return root.toNode(0);
+            Node flow = root.toNode(0);
+            verifyDependsOn(flow);
+            verifyMatrix(flow);
+            return flow;
         } catch (YAMLException e) {
             throw new YmlException(e.getMessage());
         }
     }
 
+    /**
+     * Steps can only depend on the regular steps defined before, which keeps the steps order
+     * as one of the topological order of the graph
+     */
+    private static void verifyDependsOn(Node flow) {
+        Set<String> defined = new HashSet<>(flow.getChildren().size());
+
+        for (Node step : flow.getChildren()) {
+            if (step.hasDependsOn()) {
+                if (step.isTail()) {
+                    throw new YmlException("The 'depends_on' cannot be applied on tail step {0}", step.getName());
+                }
+
+                for (String name : step.getDependsOn()) {
+                    if (!defined.contains(name)) {
+                        throw new YmlException("The step {0} depends on {1} which is not defined before", step.getName(), name);
+                    }
+                }
+            }
+
+            if (!step.isTail()) {
+                defined.add(step.getName());
+            }
+        }
+    }
+
+    private static void verifyMatrix(Node flow) {
+        int numOfCombinations = 1;
+
+        for (Map.Entry<String, List<String>> entry : flow.getMatrix().entrySet()) {
+            if (!StringHelper.hasValue(entry.getKey())) {
+                throw new YmlException("The variable name of 'matrix' is missing");
+            }
+
+            if (entry.getValue().isEmpty()) {
+                throw new YmlException("The values of matrix variable {0} are missing", entry.getKey());
+            }
+
+            numOfCombinations *= entry.getValue().size();
+
+            if (numOfCombinations > MaxMatrixCombinations) {
+                throw new YmlException("The combinations of 'matrix' cannot be more than {0}",
+                    Integer.toString(MaxMatrixCombinations));
+            }
+        }
+    }
+
     public static synchronized String parse(Node root) {
         FlowNode flow = new FlowNode(root);
         Yaml yaml = YamlHelper.create(FieldsOrder, FlowNode.class);
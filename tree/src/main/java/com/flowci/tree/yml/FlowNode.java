@@ -19,8 +19,10 @@ package com.flowci.tree.yml;
 import com.flowci.tree.TriggerFilter;
 import com.flowci.tree.Node;
 import com.flowci.tree.Selector;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
@@ -45,9 +47,15 @@ public class FlowNode extends YmlNode {
     @NonNull
     private List<StepNode> steps = new LinkedList<>();
 
+    private Map<String, List<Object>> matrix = new LinkedHashMap<>();
+
     public FlowNode(Node node) {
         setEnvs(node.getEnvironments());
 
+        for (Map.Entry<String, List<String>> entry : node.getMatrix().entrySet()) {
+            this.matrix.put(entry.getKey(), new LinkedList<>(entry.getValue()));
+        }
+
         // set children
         for (Node child : node.getChildren()) {
             this.steps.add(new StepNode(child));
@@ -61,10 +69,29 @@ public class FlowNode extends YmlNode {
         node.setSelector(selector);
         node.setTrigger(trigger);
         node.setEnvironments(getVariableMap());
+        setupMatrix(node);
         setupChildren(node);
         return node;
     }
 
+    private void setupMatrix(Node root) {
+        if (matrix == null) {
+            return;
+        }
+
+        for (Map.Entry<String, List<Object>> entry : matrix.entrySet()) {
+            List<String> values = new LinkedList<>();
+
+            if (entry.getValue() != null) {
+                for (Object value : entry.getValue()) {
+                    values.add(String.valueOf(value));
+                }
+            }
+
+            root.getMatrix().put(entry.getKey(), values);
+        }
+    }
+
     private void setupChildren(Node root) {
         int index = 1;
         for (StepNode child : steps) {
@@ -47,6 +47,10 @@ public class StepNode extends YmlNode {
 
     private Boolean tail = false;
 
+    private Boolean cache_result = false;
+
+    private List<String> depends_on;
+
     StepNode(Node node) {
         setName(node.getName());
         setEnvs(node.getEnvironments());
@@ -54,6 +58,8 @@ public class StepNode extends YmlNode {
         setPlugin(node.getPlugin());
         setAllow_failure(node.isAllowFailure() == Node.ALLOW_FAILURE_DEFAULT ? null : node.isAllowFailure());
         setTail(node.isTail() == Node.IS_TAIL_DEFAULT ? null : node.isTail());
+        setDepends_on(node.getDependsOn());
+        setCache_result(node.isCacheResult() == Node.CACHE_RESULT_DEFAULT ? null : node.isCacheResult());
     }
 
     @Override
@@ -66,6 +72,8 @@ public class StepNode extends YmlNode {
         node.setExports(Sets.newHashSet(exports));
         node.setAllowFailure(allow_failure);
         node.setTail(tail);
+        node.setCacheResult(cache_result != null && cache_result);
+        node.setDependsOn(depends_on == null ? null : new LinkedList<>(depends_on));
         node.setEnvironments(getVariableMap());
         return node;
     }
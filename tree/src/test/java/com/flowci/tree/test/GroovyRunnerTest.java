@@ -47,4 +47,49 @@ public class GroovyRunnerTest {
 
         GroovyRunner.create(2, script).run();
     }
+
+    @Test
+    public void should_reuse_compiled_script_with_different_variables() throws ScriptException {
+        String script = "return FLOWCI_BRANCH == 'master';";
+        long numOfCompile = GroovyRunner.stats().getNumOfCompile();
+
+        StringVars master = new StringVars();
+        master.put("FLOWCI_BRANCH", "master");
+
+        StringVars develop = new StringVars();
+        develop.put("FLOWCI_BRANCH", "develop");
+
+        GroovyRunner<Boolean> first = GroovyRunner.create(2, script, master);
+        GroovyRunner<Boolean> second = GroovyRunner.create(2, script, develop);
+
+        Assert.assertTrue(first.run());
+        Assert.assertFalse(second.run());
+
+        // then: script should be compiled once
+        GroovyRunner.Stats stats = GroovyRunner.stats();
+        Assert.assertEquals(numOfCompile + 1, stats.getNumOfCompile());
+        Assert.assertTrue(stats.getNumOfCacheHit() >= 1);
+        Assert.assertTrue(stats.getNumOfRun() >= 2);
+    }
+
+    @Test
+    public void should_stop_looping_scripts_after_timeout() throws ScriptException {
+        long numOfTimeout = GroovyRunner.stats().getNumOfTimeout();
+
+        // when: more looping scripts than pool threads are timeout
+        for (int i = 0; i < 5; i++) {
+            try {
+                GroovyRunner.create(1, "while (true) { i = " + i + " }").run();
+                Assert.fail();
+            } catch (ScriptException ignore) {
+
+            }
+        }
+
+        // then: pool threads should be released for the next script
+        Assert.assertEquals(numOfTimeout + 5, GroovyRunner.stats().getNumOfTimeout());
+
+        GroovyRunner<Boolean> runner = GroovyRunner.create(2, "return true;");
+        Assert.assertTrue(runner.run());
+    }
 }
@@ -20,12 +20,15 @@ import com.flowci.tree.Node;
 import com.flowci.tree.NodePath;
 import com.flowci.tree.NodeTree;
 import com.flowci.tree.YmlParser;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -39,10 +42,7 @@ public class NodeTreeTest {
 
     @Before
     public void init() throws Exception {
-        URL resource = getClass().getClassLoader().getResource("flow-with-final.yml");
-        String content = Files.toString(new File(resource.getFile()), Charset.forName("UTF-8"));
-        Node root = YmlParser.load("default", content);
-        tree = NodeTree.create(root);
+        tree = load("flow-with-final.yml");
     }
 
     @Test
@@ -73,4 +73,57 @@ public class NodeTreeTest {
         nextFinalNode = tree.nextFinal(NodePath.create("root/step3"));
         Assert.assertNull(nextFinalNode);
     }
+
+    @Test
+    public void should_depend_on_previous_step_by_default() {
+        Assert.assertFalse(tree.isGraph());
+        Assert.assertTrue(tree.dependencies(NodePath.create("root/step-1")).isEmpty());
+        Assert.assertEquals(ImmutableSet.of(NodePath.create("root/step-1")), tree.dependencies(NodePath.create("root/step2")));
+
+        // then: tail node should not be ready
+        Assert.assertEquals(ImmutableSet.of("step-1"), names(tree.ready(ImmutableSet.of())));
+        Assert.assertEquals(ImmutableSet.of("step2"), names(tree.ready(ImmutableSet.of(NodePath.create("root/step-1")))));
+    }
+
+    @Test
+    public void should_get_ready_nodes_from_graph() throws IOException {
+        tree = load("flow-with-depends-on.yml");
+        Assert.assertTrue(tree.isGraph());
+
+        NodePath build = NodePath.create("root/build");
+        NodePath lint = NodePath.create("root/lint");
+        NodePath test = NodePath.create("root/test");
+        NodePath docs = NodePath.create("root/docs");
+
+        // then: build and lint can be run in parallel
+        Assert.assertEquals(ImmutableSet.of("build", "lint"), names(tree.ready(ImmutableSet.of())));
+
+        // when: build finished, then: docs is ready, test depends on previous step lint
+        Assert.assertEquals(ImmutableSet.of("lint", "docs"), names(tree.ready(ImmutableSet.of(build))));
+        Assert.assertEquals(ImmutableSet.of("test", "docs"), names(tree.ready(ImmutableSet.of(build, lint))));
+
+        // when: build, lint and test finished, then: publish is waiting for docs
+        Assert.assertEquals(ImmutableSet.of("docs"), names(tree.ready(ImmutableSet.of(build, lint, test))));
+
+        // when: all regular nodes finished, then: nothing is ready
+        Assert.assertEquals(ImmutableSet.of("publish"), names(tree.ready(ImmutableSet.of(build, lint, test, docs))));
+        Assert.assertTrue(tree.ready(ImmutableSet.of(build, lint, test, docs, NodePath.create("root/publish"))).isEmpty());
+
+        Assert.assertTrue(tree.get(docs).isCacheResult());
+        Assert.assertFalse(tree.get(test).isCacheResult());
+
+        // then: steps order is kept for sequential execution
+        Assert.assertEquals("clean", tree.nextFinal(docs).getName());
+    }
+
+    private static Set<String> names(List<Node> nodes) {
+        return nodes.stream().map(Node::getName).collect(Collectors.toSet());
+    }
+
+    private NodeTree load(String file) throws IOException {
+        URL resource = getClass().getClassLoader().getResource(file);
+        String content = Files.toString(new File(resource.getFile()), Charset.forName("UTF-8"));
+        Node root = YmlParser.load("default", content);
+        return NodeTree.create(root);
+    }
 }
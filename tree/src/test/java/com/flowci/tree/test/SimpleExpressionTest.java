@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.tree.test;
+
+import com.flowci.domain.StringVars;
+import com.flowci.tree.GroovyRunner;
+import com.flowci.tree.SimpleExpression;
+import groovy.util.ScriptException;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class SimpleExpressionTest {
+
+    private static final String[] Expressions = {
+        "FLOWCI_GIT_BRANCH == \"master\"",
+        "FLOWCI_JOB_STATUS != 'FAILURE'",
+        "return FLOWCI_GIT_BRANCH == 'develop' || FLOWCI_JOB_STATUS == 'SUCCESS';",
+        "!FLOWCI_GIT_COMMIT_MESSAGE.contains('[skip]') && FLOWCI_GIT_BRANCH.startsWith('mas')",
+        "FLOWCI_GIT_BRANCH =~ 'ma.*'",
+        "FLOWCI_GIT_BRANCH ==~ 'rel.*'",
+        "FLOWCI_BUILD_NUMBER.toInteger() >= 10 && (FLOWCI_BUILD_NUMBER.toInteger() < 100)",
+        "FLOWCI_EMPTY",
+        "!FLOWCI_EMPTY && FLOWCI_NULL == null",
+        "'b' > 'a'",
+    };
+
+    @Test
+    public void should_get_same_result_as_groovy() throws ScriptException {
+        StringVars vars = mockVars();
+
+        for (String expression : Expressions) {
+            Assert.assertTrue(expression, SimpleExpression.parse(expression).isPresent());
+
+            Object expected = GroovyRunner.create(5, expression, vars).run();
+            Boolean actual = SimpleExpression.parse(expression).get().eval(vars);
+            Assert.assertEquals(expression, groovyTruth(expected), actual);
+        }
+    }
+
+    @Test
+    public void should_not_parse_unsupported_expression() {
+        Assert.assertFalse(SimpleExpression.parse("println 'hello'; return true").isPresent());
+        Assert.assertFalse(SimpleExpression.parse("\"${FLOWCI_GIT_BRANCH}\" == 'master'").isPresent());
+        Assert.assertFalse(SimpleExpression.parse("FLOWCI_GIT_BRANCH.size() > 1").isPresent());
+        Assert.assertFalse(SimpleExpression.parse("FLOWCI_GIT_BRANCH == ").isPresent());
+        Assert.assertFalse(SimpleExpression.parse("a = 1").isPresent());
+    }
+
+    @Test
+    public void should_return_null_if_result_should_from_groovy() {
+        StringVars vars = mockVars();
+
+        // variable not defined
+        Assert.assertNull(SimpleExpression.parse("NOT_DEFINED == 'a'").get().eval(vars));
+
+        // compare string with number
+        Assert.assertNull(SimpleExpression.parse("FLOWCI_BUILD_NUMBER > 1").get().eval(vars));
+
+        // invalid number
+        Assert.assertNull(SimpleExpression.parse("FLOWCI_GIT_BRANCH.toInteger() > 1").get().eval(vars));
+    }
+
+    /**
+     * Compare evaluation time of expressions between SimpleExpression and groovy, run it manually
+     */
+    @Ignore
+    @Test
+    public void benchmark_simple_expression_against_groovy() throws ScriptException {
+        StringVars vars = mockVars();
+        int warmup = 1000;
+        int rounds = 10000;
+
+        for (int i = 0; i < warmup; i++) {
+            for (String expression : Expressions) {
+                SimpleExpression.parse(expression).get().eval(vars);
+                GroovyRunner.create(5, expression, vars).run();
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String expression : Expressions) {
+                SimpleExpression.parse(expression).get().eval(vars);
+            }
+        }
+        long simpleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String expression : Expressions) {
+                GroovyRunner.create(5, expression, vars).run();
+            }
+        }
+        long groovyNanos = System.nanoTime() - start;
+
+        long evaluated = (long) rounds * Expressions.length;
+        System.out.printf("simple expression: %d ns/eval%n", simpleNanos / evaluated);
+        System.out.printf("groovy: %d ns/eval%n", groovyNanos / evaluated);
+    }
+
+    private static Boolean groovyTruth(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation.castToBoolean(value);
+    }
+
+    private static StringVars mockVars() {
+        StringVars vars = new StringVars();
+        vars.put("FLOWCI_GIT_BRANCH", "master");
+        vars.put("FLOWCI_JOB_STATUS", "SUCCESS");
+        vars.put("FLOWCI_GIT_COMMIT_MESSAGE", "fix bug");
+        vars.put("FLOWCI_BUILD_NUMBER", "12");
+        vars.put("FLOWCI_EMPTY", "");
+        vars.put("FLOWCI_NULL", null);
+        return vars;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.flowci.tree.test;
 
+import com.flowci.domain.StringVars;
 import com.flowci.exception.YmlException;
 import com.flowci.tree.Node;
 import com.flowci.tree.NodePath;
@@ -49,6 +50,32 @@ public class YmlParserTest {
         YmlParser.load("root", content);
     }
 
+    @Test(expected = YmlException.class)
+    public void should_yml_exception_if_depends_on_step_not_defined_before() throws IOException {
+        content = loadContent("flow-with-invalid-depends-on.yml");
+        YmlParser.load("root", content);
+    }
+
+    @Test
+    public void should_get_matrix_combinations() throws IOException {
+        content = loadContent("flow-with-matrix.yml");
+        Node root = YmlParser.load("root", content);
+        Assert.assertTrue(root.hasMatrix());
+
+        List<StringVars> combinations = root.getMatrixCombinations();
+        Assert.assertEquals(6, combinations.size());
+
+        Assert.assertEquals("8", combinations.get(0).get("JDK"));
+        Assert.assertEquals("linux", combinations.get(0).get("OS"));
+
+        Assert.assertEquals("11", combinations.get(5).get("JDK"));
+        Assert.assertEquals("windows", combinations.get(5).get("OS"));
+
+        // then: matrix should be kept in yml
+        Node parsed = YmlParser.load("root", YmlParser.parse(root));
+        Assert.assertEquals(root.getMatrix(), parsed.getMatrix());
+    }
+
     @Test
     public void should_get_node_from_yml() {
         Node root = YmlParser.load("root", content);
@@ -61,9 +88,12 @@ public class YmlParserTest {
 
         Assert.assertTrue(root.getSelector().getTags().contains("ios"));
         Assert.assertTrue(root.getSelector().getTags().contains("local"));
+        Assert.assertEquals(2048, root.getSelector().getMemory());
+        Assert.assertTrue(root.getSelector().hasResourceRequest());
 
         Assert.assertEquals(3, root.getTrigger().getBranches().size());
         Assert.assertEquals(1, root.getTrigger().getTags().size());
+        Assert.assertFalse(root.hasMatrix());
 
         // verify steps
         List<Node> steps = root.getChildren();
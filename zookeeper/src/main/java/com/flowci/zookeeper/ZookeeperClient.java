@@ -34,6 +34,8 @@ import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.apache.curator.retry.RetryNTimes;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 
 /**
  * @author yang
@@ -124,24 +126,51 @@ public class ZookeeperClient implements AutoCloseable {
     }
 
     public byte[] get(String path) {
-        if (!exist(path)) {
-            throw new ZookeeperException("Node path {0} does not existed", path);
-        }
+        return get(path, new Stat());
+    }
 
+    /**
+     * Get node data and store the node stat, ex: data version, into the stat
+     */
+    public byte[] get(String path, Stat stat) {
         try {
-            return client.getData().forPath(path);
+            return client.getData().storingStatIn(stat).forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            throw new ZookeeperException("Node path {0} does not existed", path);
         } catch (Throwable e) {
             throw new ZookeeperException("Fail to get data for node: {0}", e.getMessage());
         }
     }
 
-    public void set(String path, byte[] data) {
-        if (!exist(path)) {
-            throw new ZookeeperException("Node path {} does not existed", path);
+    /**
+     * Set node data
+     *
+     * @return new data version of node
+     */
+    public int set(String path, byte[] data) {
+        try {
+            return client.setData().forPath(path, data).getVersion();
+        } catch (KeeperException.NoNodeException e) {
+            throw new ZookeeperException("Node path {0} does not existed", path);
+        } catch (Throwable e) {
+            throw new ZookeeperException("Fail to set data for node: {0}", e.getMessage());
         }
+    }
 
+    /**
+     * Set node data only if the node data version equals to expected version,
+     * the new data version will be expected version + 1
+     *
+     * @return false if version not matched
+     */
+    public boolean compareAndSet(String path, int expectedVersion, byte[] data) {
         try {
-            client.setData().forPath(path, data);
+            client.setData().withVersion(expectedVersion).forPath(path, data);
+            return true;
+        } catch (KeeperException.BadVersionException e) {
+            return false;
+        } catch (KeeperException.NoNodeException e) {
+            throw new ZookeeperException("Node path {0} does not existed", path);
         } catch (Throwable e) {
             throw new ZookeeperException("Fail to set data for node: {0}", e.getMessage());
         }
@@ -169,6 +198,15 @@ public class ZookeeperClient implements AutoCloseable {
     }
 
     public boolean watchChildren(String rootPath, PathChildrenCacheListener listener) {
+        return watchChildren(rootPath, listener, false);
+    }
+
+    /**
+     * Watch children of root path
+     *
+     * @param cacheData node data will be cached and delivered within the child event if true
+     */
+    public boolean watchChildren(String rootPath, PathChildrenCacheListener listener, boolean cacheData) {
         if (!exist(rootPath)) {
             return false;
         }
@@ -179,7 +217,7 @@ public class ZookeeperClient implements AutoCloseable {
         }
 
         try {
-            pcc = new PathChildrenCache(client, rootPath, false);
+            pcc = new PathChildrenCache(client, rootPath, cacheData);
             pcc.start();
             pcc.getListenable().addListener(listener, watchExecutor);
             nodeChildrenCache.put(rootPath, pcc);